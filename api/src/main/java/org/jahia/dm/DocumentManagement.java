@@ -44,8 +44,11 @@
 package org.jahia.dm;
 
 import org.eclipse.gemini.blueprint.context.BundleContextAware;
+import org.jahia.dm.store.DerivativeStore;
 import org.jahia.dm.thumbnails.DocumentThumbnailService;
 import org.jahia.dm.thumbnails.VideoThumbnailService;
+import org.jahia.dm.utils.ProcessExecutor;
+import org.jahia.dm.utils.ToolDetector;
 import org.jahia.dm.viewer.DocumentViewerService;
 import org.jahia.services.transform.DocumentConverterService;
 import org.osgi.framework.BundleContext;
@@ -64,9 +67,13 @@ public class DocumentManagement implements BundleContextAware {
     private static final Logger logger = LoggerFactory.getLogger(DocumentManagement.class);
 
     private BundleContext bundleContext;
+    private DerivativeStore derivativeStore;
     private DocumentConverterService documentConverterService;
+    private DocumentSourceResolver sourceResolver;
     private DocumentThumbnailService documentThumbnailService;
     private DocumentViewerService documentViewerService;
+    private ProcessExecutor processExecutor;
+    private ToolDetector toolDetector;
     private VideoThumbnailService videoThumbnailService;
 
     private DocumentManagement() {
@@ -104,6 +111,10 @@ public class DocumentManagement implements BundleContextAware {
                 videoThumbnailService.isEnabled() ? "enabled" : "disabled");
     }
 
+    public DerivativeStore getDerivativeStore() {
+        return derivativeStore;
+    }
+
     public DocumentConverterService getDocumentConverterService() {
         return documentConverterService;
     }
@@ -116,6 +127,32 @@ public class DocumentManagement implements BundleContextAware {
         return documentViewerService;
     }
 
+    public ProcessExecutor getProcessExecutor() {
+        if (processExecutor == null) {
+            synchronized (this) {
+                if (processExecutor == null) {
+                    processExecutor = new ProcessExecutor();
+                }
+            }
+        }
+        return processExecutor;
+    }
+
+    public DocumentSourceResolver getSourceResolver() {
+        return sourceResolver;
+    }
+
+    public ToolDetector getToolDetector() {
+        if (toolDetector == null) {
+            synchronized (this) {
+                if (toolDetector == null) {
+                    toolDetector = new ToolDetector();
+                }
+            }
+        }
+        return toolDetector;
+    }
+
     public VideoThumbnailService getVideoThumbnailService() {
         return videoThumbnailService;
     }
@@ -141,10 +178,26 @@ public class DocumentManagement implements BundleContextAware {
         this.bundleContext = bundleContext;
     }
 
+    public void setDerivativeStore(DerivativeStore derivativeStore) {
+        this.derivativeStore = derivativeStore;
+    }
+
     public void setDocumentConverterService(DocumentConverterService service) {
         documentConverterService = service;
     }
 
+    public void setProcessExecutor(ProcessExecutor processExecutor) {
+        this.processExecutor = processExecutor;
+    }
+
+    public void setSourceResolver(DocumentSourceResolver sourceResolver) {
+        this.sourceResolver = sourceResolver;
+    }
+
+    public void setToolDetector(ToolDetector toolDetector) {
+        this.toolDetector = toolDetector;
+    }
+
     public void unbindDocumentThumbnailService(ServiceReference ref) {
         documentThumbnailService = null;
         logger.info("Instance of the service {} is now unbound", DocumentThumbnailService.class.getName());
@@ -0,0 +1,205 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.FileUtils;
+import org.jahia.services.content.JCRContentUtils;
+import org.jahia.services.content.JCRNodeWrapper;
+
+/**
+ * Provides the content of a document as a local file for the conversion operations. If the binary of the document is
+ * kept in a file data store, the data store file is used directly; otherwise the content is copied into a temporary
+ * file. The file must be treated as read-only. The source must be closed after use to remove the temporary copy, if
+ * any.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public final class DocumentSource implements Closeable {
+
+    /**
+     * Creates a source from a temporary copy of the content of the provided document node. Is used if the binary
+     * cannot be resolved to a data store file.
+     * 
+     * @param fileNode
+     *            the document node
+     * @return the source, backed by a temporary copy of the document content
+     * @throws IOException
+     *             in case the content cannot be copied
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    public static DocumentSource copyOf(JCRNodeWrapper fileNode) throws IOException, RepositoryException {
+        File tmp = File.createTempFile("doc-source", null);
+        try {
+            JCRContentUtils.downloadFileContent(fileNode, tmp);
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(tmp);
+            throw e;
+        }
+
+        return new DocumentSource(tmp, true);
+    }
+
+    /**
+     * Returns the source for the content of the provided document node, using the data store file directly if possible.
+     * 
+     * @param fileNode
+     *            the document node
+     * @return the source for the content of the provided document node
+     * @throws IOException
+     *             in case the content cannot be accessed
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    public static DocumentSource get(JCRNodeWrapper fileNode) throws IOException, RepositoryException {
+        DocumentSourceResolver resolver = DocumentManagement.getInstance().getSourceResolver();
+
+        return resolver != null ? resolver.resolve(fileNode) : copyOf(fileNode);
+    }
+
+    /**
+     * Returns the source for the content of the provided document node if it can be read in place from the data store
+     * or <code>null</code> otherwise. Allows callers, which are able to consume the content as a stream, to avoid the
+     * temporary copy.
+     * 
+     * @param fileNode
+     *            the document node
+     * @return the source for the content of the provided document node if it can be read in place from the data store
+     *         or <code>null</code> otherwise
+     */
+    public static DocumentSource getInPlace(JCRNodeWrapper fileNode) {
+        DocumentSourceResolver resolver = DocumentManagement.getInstance().getSourceResolver();
+
+        return resolver != null ? resolver.resolveInPlace(fileNode) : null;
+    }
+
+    /**
+     * Opens a stream to read the content of the provided document node. The data store file is read in place if
+     * possible; otherwise the binary is streamed from the repository, without creating a temporary copy. Is used by
+     * the operations, which consume the content sequentially.
+     * 
+     * @param fileNode
+     *            the document node
+     * @return a stream to read the content of the provided document node
+     * @throws IOException
+     *             in case the content cannot be accessed
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    public static InputStream openStream(JCRNodeWrapper fileNode) throws IOException, RepositoryException {
+        DocumentSource source = getInPlace(fileNode);
+        if (source != null) {
+            return source.openStream();
+        }
+        InputStream is = fileNode.getFileContent().downloadFile();
+        if (is == null) {
+            throw new IOException("Unable to read the content of the node " + fileNode.getPath());
+        }
+
+        return new BufferedInputStream(is);
+    }
+
+    private final File file;
+
+    private final boolean temporary;
+
+    DocumentSource(File file, boolean temporary) {
+        super();
+        this.file = file;
+        this.temporary = temporary;
+    }
+
+    /**
+     * Removes the temporary copy of the content, if one was created.
+     */
+    public void close() {
+        if (temporary) {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Returns the file with the document content. The file must not be modified or deleted.
+     * 
+     * @return the file with the document content
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns <code>true</code> if the file is a temporary copy of the document content; <code>false</code> if it is
+     * the data store file itself.
+     * 
+     * @return <code>true</code> if the file is a temporary copy of the document content
+     */
+    public boolean isTemporary() {
+        return temporary;
+    }
+
+    /**
+     * Opens a buffered stream over the document content.
+     * 
+     * @return a stream over the document content
+     * @throws IOException
+     *             in case the file cannot be opened
+     */
+    public InputStream openStream() throws IOException {
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    @Override
+    public String toString() {
+        return file + (temporary ? " (copy)" : " (data store)");
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+import org.apache.jackrabbit.api.JackrabbitValue;
+import org.jahia.api.Constants;
+import org.jahia.services.content.JCRNodeWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the binary content of documents to the files of the Jackrabbit file data store, so that the conversion
+ * operations can read the content in place instead of copying it into a temporary file first. The content identity of
+ * a binary in the <code>FileDataStore</code> is its digest and the file is located at
+ * <code>&lt;path&gt;/ab/cd/ef/abcdef...</code>. If the binary is not kept in a file data store (e.g. it is stored in
+ * a database or is small enough to be inlined), a temporary copy is used.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class DocumentSourceResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentSourceResolver.class);
+
+    private File dataStorePath;
+
+    private boolean enabled = true;
+
+    /**
+     * Returns the data store file, holding the content of the provided document node or <code>null</code> if it
+     * cannot be resolved.
+     * 
+     * @param fileNode
+     *            the document node
+     * @return the data store file, holding the content of the provided document node or <code>null</code> if it
+     *         cannot be resolved
+     */
+    protected File getDataStoreFile(JCRNodeWrapper fileNode) {
+        try {
+            Node content = fileNode.getRealNode().getNode(Constants.JCR_CONTENT);
+            Property data = content.getProperty(Constants.JCR_DATA);
+            Value value = data.getValue();
+            if (!(value instanceof JackrabbitValue)) {
+                return null;
+            }
+            String id = ((JackrabbitValue) value).getContentIdentity();
+            if (id == null || id.length() < 6) {
+                return null;
+            }
+            File file = new File(dataStorePath, id.substring(0, 2) + File.separatorChar + id.substring(2, 4)
+                    + File.separatorChar + id.substring(4, 6) + File.separatorChar + id);
+
+            return file.isFile() && file.length() == data.getLength() ? file : null;
+        } catch (Exception e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Unable to resolve data store file for node " + fileNode.getPath(), e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns the source for the content of the provided document node, using the data store file directly if
+     * possible and falling back to a temporary copy otherwise.
+     * 
+     * @param fileNode
+     *            the document node
+     * @return the source for the content of the provided document node
+     * @throws IOException
+     *             in case the content cannot be accessed
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    public DocumentSource resolve(JCRNodeWrapper fileNode) throws IOException, RepositoryException {
+        DocumentSource source = resolveInPlace(fileNode);
+
+        return source != null ? source : DocumentSource.copyOf(fileNode);
+    }
+
+    /**
+     * Returns the source for the content of the provided document node, backed by the data store file, or
+     * <code>null</code> if the content cannot be read in place.
+     * 
+     * @param fileNode
+     *            the document node
+     * @return the source for the content of the provided document node, backed by the data store file, or
+     *         <code>null</code> if the content cannot be read in place
+     */
+    public DocumentSource resolveInPlace(JCRNodeWrapper fileNode) {
+        File file = enabled && dataStorePath != null ? getDataStoreFile(fileNode) : null;
+        if (file == null) {
+            return null;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Using data store file {} for node {}", file, fileNode.getPath());
+        }
+
+        return new DocumentSource(file, false);
+    }
+
+    public void setDataStorePath(File dataStorePath) {
+        this.dataStorePath = dataStorePath;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.jahia.services.content.JCRNodeWrapper;
+
+/**
+ * Page count and page dimensions of a document, which are recorded on the derivative nodes (thumbnails, views) at
+ * conversion time, so that viewers and listings do not need to parse the document again.
+ * <p>
+ * The page sizes are stored in the <code>j:pageSizes</code> property as a compact run-length encoded list of page
+ * dimensions in points, e.g. <code>612x792*10,792x612,612x792*3</code> for 14 pages.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class PageGeometry {
+
+    public static final String MIXIN = "jmix:documentPages";
+
+    public static final String PAGE_COUNT = "j:pageCount";
+
+    public static final String PAGE_SIZES = "j:pageSizes";
+
+    /**
+     * Parses the compact run-length encoded representation of the page sizes.
+     * 
+     * @param pageSizes
+     *            the page sizes as stored in the <code>j:pageSizes</code> property
+     * @return the parsed page geometry
+     */
+    public static PageGeometry parse(String pageSizes) {
+        PageGeometry geometry = new PageGeometry();
+        if (StringUtils.isEmpty(pageSizes)) {
+            return geometry;
+        }
+        for (String entry : StringUtils.split(pageSizes, ',')) {
+            int count = 1;
+            String size = entry;
+            if (entry.indexOf('*') != -1) {
+                size = StringUtils.substringBefore(entry, "*");
+                count = Integer.parseInt(StringUtils.substringAfter(entry, "*"));
+            }
+            int width = Integer.parseInt(StringUtils.substringBefore(size, "x"));
+            int height = Integer.parseInt(StringUtils.substringAfter(size, "x"));
+            for (int i = 0; i < count; i++) {
+                geometry.addPage(width, height);
+            }
+        }
+
+        return geometry;
+    }
+
+    /**
+     * Reads the page geometry, recorded on the specified node.
+     * 
+     * @param node
+     *            the derivative node to read the geometry from
+     * @return the page geometry, recorded on the specified node or <code>null</code> if the node does not have it
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    public static PageGeometry read(JCRNodeWrapper node) throws RepositoryException {
+        if (!node.hasProperty(PAGE_SIZES)) {
+            return null;
+        }
+        return parse(node.getProperty(PAGE_SIZES).getString());
+    }
+
+    private List<int[]> sizes = new ArrayList<int[]>();
+
+    /**
+     * Adds the next page with the specified dimensions.
+     * 
+     * @param width
+     *            the page width in points
+     * @param height
+     *            the page height in points
+     */
+    public void addPage(float width, float height) {
+        sizes.add(new int[] { Math.round(width), Math.round(height) });
+    }
+
+    /**
+     * Adds the pages of a document, parsed with PDFBox, using the size of their crop box, which is swapped for pages
+     * rotated by 90 or 270 degrees.
+     * 
+     * @param pages
+     *            the {@link PDPage} objects of the document
+     */
+    public void addPages(List<?> pages) {
+        for (Object p : pages) {
+            PDPage page = (PDPage) p;
+            PDRectangle box = page.findCropBox();
+            if (page.findRotation() % 180 != 0) {
+                addPage(box.getHeight(), box.getWidth());
+            } else {
+                addPage(box.getWidth(), box.getHeight());
+            }
+        }
+    }
+
+    public int getPageCount() {
+        return sizes.size();
+    }
+
+    /**
+     * Returns the height of the specified page in points.
+     * 
+     * @param pageIndex
+     *            the 0-based page index
+     * @return the height of the specified page in points
+     */
+    public int getPageHeight(int pageIndex) {
+        return sizes.get(pageIndex)[1];
+    }
+
+    /**
+     * Returns the width of the specified page in points.
+     * 
+     * @param pageIndex
+     *            the 0-based page index
+     * @return the width of the specified page in points
+     */
+    public int getPageWidth(int pageIndex) {
+        return sizes.get(pageIndex)[0];
+    }
+
+    /**
+     * Records the page count and page sizes on the specified node, adding the <code>jmix:documentPages</code> mixin if
+     * needed. Nothing is done if no pages were collected.
+     * 
+     * @param node
+     *            the derivative node to store the geometry on
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    public void store(JCRNodeWrapper node) throws RepositoryException {
+        if (sizes.isEmpty()) {
+            return;
+        }
+        if (!node.isNodeType(MIXIN)) {
+            node.addMixin(MIXIN);
+        }
+        node.setProperty(PAGE_COUNT, (long) sizes.size());
+        node.setProperty(PAGE_SIZES, toString());
+    }
+
+    /**
+     * Returns the compact run-length encoded representation of the page sizes.
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder(16);
+        int i = 0;
+        while (i < sizes.size()) {
+            int[] size = sizes.get(i);
+            int run = 1;
+            while (i + run < sizes.size() && sizes.get(i + run)[0] == size[0]
+                    && sizes.get(i + run)[1] == size[1]) {
+                run++;
+            }
+            if (out.length() > 0) {
+                out.append(',');
+            }
+            out.append(size[0]).append('x').append(size[1]);
+            if (run > 1) {
+                out.append('*').append(run);
+            }
+            i += run;
+        }
+
+        return out.toString();
+    }
+}
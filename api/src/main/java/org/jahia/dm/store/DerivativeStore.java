@@ -0,0 +1,143 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+/**
+ * Storage for the generated derivatives of documents (views, posters, text layers etc.), which keeps their content
+ * outside of the JCR. The derivative nodes in the JCR only hold the key of the stored content.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public interface DerivativeStore {
+
+    /**
+     * Removes the stored content with the specified key.
+     * 
+     * @param key
+     *            the key of the stored content
+     * @return <code>true</code> if the content was removed; <code>false</code> if it does not exist
+     */
+    boolean delete(String key);
+
+    /**
+     * Removes the stored content, which is not referenced anymore, i.e. its key is not in the provided set. Only the
+     * content, stored before the specified time, is considered, so that the content, which is just being stored and
+     * is not yet referenced by a saved node, is kept.
+     * 
+     * @param referencedKeys
+     *            the keys of the content, which is still referenced
+     * @param storedBefore
+     *            only the content, stored before this time (in milliseconds), is removed
+     * @return the number of removed entries
+     */
+    int deleteUnreferenced(Set<String> referencedKeys, long storedBefore);
+
+    /**
+     * Returns <code>true</code> if the content with the specified key is present in the store.
+     * 
+     * @param key
+     *            the key of the stored content
+     * @return <code>true</code> if the content with the specified key is present in the store
+     */
+    boolean exists(String key);
+
+    /**
+     * Returns the length in bytes of the stored content with the specified key or <code>-1</code> if the content does
+     * not exist.
+     * 
+     * @param key
+     *            the key of the stored content
+     * @return the length in bytes of the stored content with the specified key or <code>-1</code> if the content does
+     *         not exist
+     */
+    long getLength(String key);
+
+    /**
+     * Opens the stream to read the stored content with the specified key.
+     * 
+     * @param key
+     *            the key of the stored content
+     * @return the stream to read the stored content with the specified key
+     * @throws IOException
+     *             if the content does not exist or cannot be read
+     */
+    InputStream getStream(String key) throws IOException;
+
+    /**
+     * Returns <code>true</code> if the store is enabled and derivatives should be kept in it instead of the JCR.
+     * 
+     * @return <code>true</code> if the store is enabled and derivatives should be kept in it instead of the JCR
+     */
+    boolean isEnabled();
+
+    /**
+     * Stores the provided content, returning the key to be used to access it. Identical content is stored only once.
+     * The provided stream is not closed by this method.
+     * 
+     * @param data
+     *            the content to be stored
+     * @return the key of the stored content
+     * @throws IOException
+     *             in case the content cannot be stored
+     */
+    String store(InputStream data) throws IOException;
+
+    /**
+     * Moves the provided file into the store, returning the key to be used to access its content. If the file is
+     * located on the same file system as the store, it is moved with an atomic rename without copying its content. The
+     * provided file does not exist anymore after this call.
+     * 
+     * @param file
+     *            the file to be moved into the store
+     * @return the key of the stored content
+     * @throws IOException
+     *             in case the file cannot be stored
+     */
+    String store(File file) throws IOException;
+}
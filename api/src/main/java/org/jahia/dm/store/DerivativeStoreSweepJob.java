@@ -0,0 +1,124 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.store;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+import javax.jcr.query.RowIterator;
+
+import org.jahia.api.Constants;
+import org.jahia.dm.DocumentManagement;
+import org.jahia.dm.utils.DerivativeUtils;
+import org.jahia.services.content.JCRCallback;
+import org.jahia.services.content.JCRSessionWrapper;
+import org.jahia.services.content.JCRTemplate;
+import org.jahia.services.scheduler.BackgroundJob;
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodic background task, which removes the content from the {@link DerivativeStore}, that is not referenced anymore
+ * by any derivative node, e.g. after the document or its views were deleted or regenerated. The references are
+ * collected from all workspaces, including the frozen nodes of the document versions. Only the content, which is
+ * older than the grace period (job data <code>gracePeriod</code> in hours, 24 by default), is removed, so that the
+ * content, which is just being stored, is kept.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class DerivativeStoreSweepJob extends BackgroundJob {
+
+    public static final String JOB_GRACE_PERIOD = "gracePeriod";
+
+    private static final Logger logger = LoggerFactory.getLogger(DerivativeStoreSweepJob.class);
+
+    private static final String QUERY = "select [" + DerivativeUtils.DERIVATIVE_KEY + "] from [nt:base] where ["
+            + DerivativeUtils.DERIVATIVE_KEY + "] is not null";
+
+    private static void collectReferences(String workspace, final Set<String> keys) throws RepositoryException {
+        JCRTemplate.getInstance().doExecuteWithSystemSession(null, workspace, new JCRCallback<Boolean>() {
+            public Boolean doInJCR(JCRSessionWrapper session) throws RepositoryException {
+                RowIterator rows = session.getWorkspace().getQueryManager().createQuery(QUERY, Query.JCR_SQL2)
+                        .execute().getRows();
+                while (rows.hasNext()) {
+                    Value key = rows.nextRow().getValue(DerivativeUtils.DERIVATIVE_KEY);
+                    if (key != null) {
+                        keys.add(key.getString());
+                    }
+                }
+                return Boolean.TRUE;
+            }
+        });
+    }
+
+    @Override
+    public void executeJahiaJob(JobExecutionContext jobExecutionContext) throws Exception {
+        DerivativeStore store = DocumentManagement.getInstance().getDerivativeStore();
+        if (store == null || !store.isEnabled()) {
+            return;
+        }
+
+        long timer = System.currentTimeMillis();
+        JobDataMap data = jobExecutionContext.getJobDetail().getJobDataMap();
+        long gracePeriod = data.containsKey(JOB_GRACE_PERIOD) ? Long.parseLong(String.valueOf(data
+                .get(JOB_GRACE_PERIOD))) : 24;
+        // the time is taken before the references are collected, so that content stored meanwhile is kept
+        long storedBefore = timer - gracePeriod * 60L * 60L * 1000L;
+
+        Set<String> keys = new HashSet<String>();
+        // an error aborts the sweep, as the content of not collected references would be removed
+        collectReferences(Constants.EDIT_WORKSPACE, keys);
+        collectReferences(Constants.LIVE_WORKSPACE, keys);
+
+        int count = store.deleteUnreferenced(keys, storedBefore);
+
+        logger.info("Removed {} unreferenced derivative(s) from the store, keeping {} referenced, in {} ms",
+                new Object[] { count, keys.size(), System.currentTimeMillis() - timer });
+    }
+}
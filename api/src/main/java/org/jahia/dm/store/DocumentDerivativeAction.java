@@ -0,0 +1,119 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.store;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jahia.api.Constants;
+import org.jahia.bin.Action;
+import org.jahia.bin.ActionResult;
+import org.jahia.dm.utils.DerivativeUtils;
+import org.jahia.services.content.JCRNodeWrapper;
+import org.jahia.services.content.JCRSessionWrapper;
+import org.jahia.services.render.RenderContext;
+import org.jahia.services.render.Resource;
+import org.jahia.services.render.URLResolver;
+
+/**
+ * Action for serving the content of a document derivative (view, poster etc.), which is kept in the external
+ * {@link DerivativeStore}. The name of the derivative sub-node is passed in the <code>t</code> parameter, e.g.
+ * <code>/cms/render/live/en/sites/mySite/files/doc.pdf.documentDerivative.do?t=swfView</code>. Derivatives, stored in
+ * the JCR, are served as well.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class DocumentDerivativeAction extends Action {
+
+    @Override
+    public ActionResult doExecute(HttpServletRequest req, RenderContext renderContext,
+            Resource resource, JCRSessionWrapper session, Map<String, List<String>> parameters,
+            URLResolver urlResolver) throws Exception {
+        String name = getParameter(parameters, "t");
+        JCRNodeWrapper doc = resource.getNode();
+        if (StringUtils.isEmpty(name) || name.indexOf('/') != -1 || !doc.hasNode(name)) {
+            return new ActionResult(HttpServletResponse.SC_NOT_FOUND);
+        }
+
+        JCRNodeWrapper derivative = doc.getNode(name);
+        boolean external = DerivativeUtils.isExternal(derivative);
+        if (!external && !derivative.hasProperty(Constants.JCR_DATA)) {
+            return new ActionResult(HttpServletResponse.SC_NOT_FOUND);
+        }
+
+        HttpServletResponse response = renderContext.getResponse();
+        if (external) {
+            // the content is addressed by its digest, so the key is a strong entity tag
+            String etag = "\"" + derivative.getProperty(DerivativeUtils.DERIVATIVE_KEY).getString() + "\"";
+            if (etag.equals(req.getHeader("If-None-Match"))) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return null;
+            }
+            response.setHeader("ETag", etag);
+            long length = derivative.hasProperty(DerivativeUtils.DERIVATIVE_LENGTH) ? derivative.getProperty(
+                    DerivativeUtils.DERIVATIVE_LENGTH).getLong() : -1;
+            if (length >= 0 && length <= Integer.MAX_VALUE) {
+                response.setContentLength((int) length);
+            }
+        }
+        if (derivative.hasProperty(Constants.JCR_MIMETYPE)) {
+            response.setContentType(derivative.getProperty(Constants.JCR_MIMETYPE).getString());
+        }
+
+        InputStream is = DerivativeUtils.getData(derivative);
+        try {
+            IOUtils.copyLarge(is, response.getOutputStream());
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.store;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content-addressed file system {@link DerivativeStore}. The key of the stored content is its SHA-1 digest; the files
+ * are placed into sharded sub-directories, using the first two pairs of the digest characters, e.g.
+ * <code>3f/a1/3fa1...</code>, to keep the number of entries per directory low. As the same content can be referenced
+ * by several derivative nodes, entries are not removed together with the nodes, but by the periodic
+ * {@link DerivativeStoreSweepJob}.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class FileSystemDerivativeStore implements DerivativeStore {
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{40}");
+
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemDerivativeStore.class);
+
+    private static final Pattern SHARD_PATTERN = Pattern.compile("[0-9a-f]{2}");
+
+    private boolean enabled;
+
+    private File rootDir;
+
+    private static void copy(File source, File target, MessageDigest digest) throws IOException {
+        InputStream is = new FileInputStream(source);
+        try {
+            OutputStream out = new DigestOutputStream(new FileOutputStream(target), digest);
+            try {
+                IOUtils.copyLarge(is, out);
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Creates a temporary file in the <code>tmp</code> directory of the store, i.e. on the same file system as the
+     * stored entries. Left-overs of interrupted operations are removed by {@link #deleteUnreferenced(Set, long)}.
+     * 
+     * @return a new temporary file in the store
+     * @throws IOException
+     *             in case the file cannot be created
+     */
+    protected File createTempFile() throws IOException {
+        File tmpDir = new File(rootDir, "tmp");
+        FileUtils.forceMkdir(tmpDir);
+        return File.createTempFile("derivative", null, tmpDir);
+    }
+
+    public boolean delete(String key) {
+        File file = getFile(key);
+        return file != null && file.delete();
+    }
+
+    public int deleteUnreferenced(Set<String> referencedKeys, long storedBefore) {
+        if (rootDir == null || !rootDir.isDirectory()) {
+            return 0;
+        }
+        int count = 0;
+        for (File shard : listFiles(rootDir)) {
+            if (shard.getName().equals("tmp")) {
+                // left-overs of interrupted store operations
+                for (File tmp : listFiles(shard)) {
+                    if (tmp.lastModified() < storedBefore && tmp.delete()) {
+                        count++;
+                    }
+                }
+                continue;
+            }
+            if (!SHARD_PATTERN.matcher(shard.getName()).matches()) {
+                continue;
+            }
+            // the shard directories are kept, as they can be used by concurrent store operations
+            for (File subShard : listFiles(shard)) {
+                for (File file : listFiles(subShard)) {
+                    if (file.lastModified() < storedBefore && KEY_PATTERN.matcher(file.getName()).matches()
+                            && !referencedKeys.contains(file.getName()) && file.delete()) {
+                        count++;
+                    }
+                }
+            }
+        }
+
+        return count;
+    }
+
+    public boolean exists(String key) {
+        File file = getFile(key);
+        return file != null && file.isFile();
+    }
+
+    /**
+     * Returns the file, holding the content with the specified key or <code>null</code> if the key is not valid.
+     * 
+     * @param key
+     *            the key of the stored content
+     * @return the file, holding the content with the specified key or <code>null</code> if the key is not valid
+     */
+    protected File getFile(String key) {
+        if (key == null || !KEY_PATTERN.matcher(key).matches()) {
+            return null;
+        }
+
+        return new File(rootDir, key.substring(0, 2) + File.separatorChar + key.substring(2, 4)
+                + File.separatorChar + key);
+    }
+
+    public long getLength(String key) {
+        File file = getFile(key);
+        return file != null && file.isFile() ? file.length() : -1;
+    }
+
+    public InputStream getStream(String key) throws IOException {
+        File file = getFile(key);
+        if (file == null) {
+            throw new FileNotFoundException("Invalid derivative key " + key);
+        }
+
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    public boolean isEnabled() {
+        return enabled && rootDir != null;
+    }
+
+    private static File[] listFiles(File dir) {
+        File[] files = dir.listFiles();
+        return files != null ? files : new File[0];
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setRootDir(File rootDir) {
+        this.rootDir = rootDir;
+    }
+
+    public String store(File file) throws IOException {
+        long timer = System.currentTimeMillis();
+
+        File tmp = createTempFile();
+        MessageDigest digest = newDigest();
+        String key = null;
+        try {
+            // the temporary file is replaced by the moved one
+            if (tmp.delete() && file.renameTo(tmp)) {
+                // on the same file system the content is only read to compute the digest
+                InputStream is = new FileInputStream(tmp);
+                try {
+                    byte[] buffer = new byte[64 * 1024];
+                    int read;
+                    while ((read = is.read(buffer)) != -1) {
+                        digest.update(buffer, 0, read);
+                    }
+                } finally {
+                    IOUtils.closeQuietly(is);
+                }
+            } else {
+                // the file is on another file system: the digest is computed while the content is copied
+                copy(file, tmp, digest);
+                FileUtils.deleteQuietly(file);
+            }
+            key = moveIntoStore(tmp, digest);
+        } finally {
+            FileUtils.deleteQuietly(tmp);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Moved file {} into derivative {} in {} ms", new Object[] { file, key,
+                    System.currentTimeMillis() - timer });
+        }
+
+        return key;
+    }
+
+    public String store(InputStream data) throws IOException {
+        long timer = System.currentTimeMillis();
+
+        File tmp = createTempFile();
+        MessageDigest digest = newDigest();
+        String key = null;
+        try {
+            // the digest is computed while the content is written
+            OutputStream out = new DigestOutputStream(new FileOutputStream(tmp), digest);
+            try {
+                IOUtils.copyLarge(data, out);
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+            key = moveIntoStore(tmp, digest);
+        } finally {
+            FileUtils.deleteQuietly(tmp);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Stored derivative {} in {} ms", key, System.currentTimeMillis() - timer);
+        }
+
+        return key;
+    }
+
+    /**
+     * Moves the provided temporary file, located in the store, onto its key. As the file is on the same file system as
+     * the store, it is renamed atomically, so that a crash or a concurrent writer cannot leave a truncated entry.
+     */
+    private String moveIntoStore(File tmp, MessageDigest digest) throws IOException {
+        String key = new String(Hex.encodeHex(digest.digest()));
+
+        File target = getFile(key);
+        if (target.isFile() && target.length() == tmp.length()) {
+            // identical content is already stored; it is touched to protect it from the sweep until it is referenced
+            target.setLastModified(System.currentTimeMillis());
+            return key;
+        }
+        FileUtils.forceMkdir(target.getParentFile());
+        if (!tmp.renameTo(target) && !(target.isFile() && target.length() == tmp.length())) {
+            // the target, e.g. a truncated one on Windows, cannot be replaced by rename
+            FileUtils.deleteQuietly(target);
+            if (!tmp.renameTo(target)) {
+                throw new IOException("Unable to move " + tmp + " to " + target);
+            }
+        }
+
+        return key;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
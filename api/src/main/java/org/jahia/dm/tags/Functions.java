@@ -49,13 +49,20 @@ import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 import javax.jcr.security.Privilege;
 
+import org.apache.commons.lang.StringUtils;
+import org.apache.jackrabbit.util.Text;
+import org.jahia.bin.Jahia;
+import org.jahia.bin.Render;
 import org.jahia.dm.DocumentManagement;
+import org.jahia.dm.PageGeometry;
+import org.jahia.dm.utils.DerivativeUtils;
 import org.jahia.dm.viewer.DocumentViewerService;
 import org.jahia.services.content.JCRCallback;
 import org.jahia.services.content.JCRContentUtils;
 import org.jahia.services.content.JCRNodeWrapper;
 import org.jahia.services.content.JCRSessionWrapper;
 import org.jahia.services.content.JCRTemplate;
+import org.jahia.services.content.decorator.JCRSiteNode;
 
 /**
  * Custom functions, which are exposed into the template scope for document management operations.
@@ -64,10 +71,80 @@ import org.jahia.services.content.JCRTemplate;
  */
 public final class Functions {
 
+    private static final String[] PAGED_DERIVATIVES = { "swfView", "pdfView", "thumbnail" };
+
+    private static final String[] THUMBNAILS = { "pageThumbnail", "thumbnail" };
+
+    private static String getDerivativeUrl(JCRNodeWrapper documentNode, String name)
+            throws RepositoryException {
+        if (DerivativeUtils.isExternal(documentNode.getNode(name))) {
+            // externally stored derivatives are served by the documentDerivative action
+            JCRSessionWrapper session = documentNode.getSession();
+            String lang = session.getLocale() != null ? session.getLocale().toString() : null;
+            if (lang == null) {
+                JCRSiteNode site = documentNode.getResolveSite();
+                lang = site != null ? site.getDefaultLanguage() : null;
+            }
+            return Jahia.getContextPath() + Render.getRenderServletPath() + "/"
+                    + session.getWorkspace().getName() + "/" + StringUtils.defaultIfEmpty(lang, "en")
+                    + Text.escapePath(documentNode.getPath()) + ".documentDerivative.do?t=" + name;
+        }
+
+        String docUrl = documentNode.getUrl();
+        return docUrl + (docUrl.contains("?") ? "&amp;t=" : "?t=") + name;
+    }
+
+    private static JCRNodeWrapper getPagedDerivative(JCRNodeWrapper documentNode)
+            throws RepositoryException {
+        for (String name : PAGED_DERIVATIVES) {
+            if (documentNode.hasNode(name)) {
+                JCRNodeWrapper derivative = documentNode.getNode(name);
+                if (derivative.hasProperty(PageGeometry.PAGE_COUNT)) {
+                    return derivative;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the number of pages of the document as recorded on its view or thumbnail nodes at conversion time or
+     * <code>-1</code> if the page count is not known.
+     * 
+     * @param documentNode
+     *            the document node
+     * @return the number of pages of the document or <code>-1</code> if the page count is not known
+     * @throws RepositoryException
+     *             in case of a JCR exception
+     */
+    public static long getPageCount(JCRNodeWrapper documentNode) throws RepositoryException {
+        JCRNodeWrapper derivative = getPagedDerivative(documentNode);
+
+        return derivative != null ? derivative.getProperty(PageGeometry.PAGE_COUNT).getLong() : -1;
+    }
+
+    /**
+     * Returns the compact list of page sizes (in points) of the document as recorded on its view or thumbnail nodes at
+     * conversion time, e.g. <code>612x792*10,792x612</code>, or <code>null</code> if the page sizes are not known.
+     * 
+     * @param documentNode
+     *            the document node
+     * @return the compact list of page sizes of the document or <code>null</code> if the page sizes are not known
+     * @throws RepositoryException
+     *             in case of a JCR exception
+     */
+    public static String getPageSizes(JCRNodeWrapper documentNode) throws RepositoryException {
+        JCRNodeWrapper derivative = getPagedDerivative(documentNode);
+
+        return derivative != null && derivative.hasProperty(PageGeometry.PAGE_SIZES) ? derivative
+                .getProperty(PageGeometry.PAGE_SIZES).getString() : null;
+    }
+
     private static String getPdfViewUrl(JCRNodeWrapper documentNode) throws RepositoryException {
-        if (documentNode.isNodeType("jmix:pdfDocumentView") && documentNode.hasNode("pdfView")) {
-            String docUrl = documentNode.getUrl();
-            return docUrl + (docUrl.contains("?") ? "&amp;t=pdfView" : "?t=pdfView");
+        if ((documentNode.isNodeType("jmix:pdfDocumentView") || documentNode
+                .isNodeType("jmix:versionedPdfDocumentView")) && documentNode.hasNode("pdfView")) {
+            return getDerivativeUrl(documentNode, "pdfView");
         }
 
         return null;
@@ -115,14 +192,57 @@ public final class Functions {
         return url;
     }
 
+    /**
+     * Returns the URL of the first-page poster image of the document or <code>null</code> if the poster is not
+     * available. The poster is created together with the document view and is meant to be displayed as a placeholder
+     * until the viewer is loaded.
+     * 
+     * @param documentNode
+     *            the document node to be viewed
+     * @return the URL of the first-page poster image of the document or <code>null</code> if the poster is not
+     *         available
+     * @throws RepositoryException
+     *             in case of a JCR exception
+     */
+    public static String getPosterUrl(JCRNodeWrapper documentNode) throws RepositoryException {
+        if ((documentNode.isNodeType("jmix:posterDocumentView") || documentNode
+                .isNodeType("jmix:versionedPosterDocumentView")) && documentNode.hasNode("posterView")) {
+            return getDerivativeUrl(documentNode, "posterView");
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the URL of the thumbnail image of the document or <code>null</code> if no thumbnail is available. The
+     * thumbnail, which is read subsampled from large raster images, like scanned TIFF files, is stored in the
+     * <code>pageThumbnail</code> child and is preferred over the <code>thumbnail</code>, created by the image rule of
+     * Jahia.
+     * 
+     * @param documentNode
+     *            the document node
+     * @return the URL of the thumbnail image of the document or <code>null</code> if no thumbnail is available
+     * @throws RepositoryException
+     *             in case of a JCR exception
+     */
+    public static String getThumbnailUrl(JCRNodeWrapper documentNode) throws RepositoryException {
+        for (String name : THUMBNAILS) {
+            if (documentNode.hasNode(name)) {
+                return getDerivativeUrl(documentNode, name);
+            }
+        }
+
+        return null;
+    }
+
     private static DocumentViewerService getViewerService() {
         return DocumentManagement.getInstance().getDocumentViewerService();
     }
 
     private static String getViewUrl(JCRNodeWrapper documentNode) throws RepositoryException {
-        if (documentNode.isNodeType("jmix:swfDocumentView") && documentNode.hasNode("swfView")) {
-            String docUrl = documentNode.getUrl();
-            return docUrl + (docUrl.contains("?") ? "&amp;t=swfView" : "?t=swfView");
+        if ((documentNode.isNodeType("jmix:swfDocumentView") || documentNode
+                .isNodeType("jmix:versionedSwfDocumentView")) && documentNode.hasNode("swfView")) {
+            return getDerivativeUrl(documentNode, "swfView");
         }
 
         return null;
@@ -155,13 +275,13 @@ public final class Functions {
                                     throws RepositoryException {
                                 JCRNodeWrapper systemDocumentNode = session
                                         .getNodeByIdentifier(documentNode.getIdentifier());
-                                documentViewService.createViewForNode(systemDocumentNode);
+                                documentViewService.createViewForNode(systemDocumentNode, true);
                                 session.save();
                                 return null;
                             }
                         });
             } else {
-                documentViewService.createViewForNode(documentNode);
+                documentViewService.createViewForNode(documentNode, true);
             }
 
             url = getViewUrl(documentNode);
@@ -170,6 +290,35 @@ public final class Functions {
         return url;
     }
 
+    /**
+     * Returns <code>true</code> if all pages of the document are available in its SWF view or the conversion of the
+     * remaining pages failed; <code>false</code> if the view is not available or only its first pages are generated
+     * yet and the remaining ones are being converted in the background.
+     * 
+     * @param documentNode
+     *            the document node to be viewed
+     * @return <code>true</code> if all pages of the document are available in its SWF view
+     * @throws RepositoryException
+     *             in case of a JCR exception
+     */
+    public static boolean isViewComplete(JCRNodeWrapper documentNode) throws RepositoryException {
+        if (!documentNode.hasNode("swfView")) {
+            return false;
+        }
+        JCRNodeWrapper view = documentNode.getNode("swfView");
+
+        if (view.hasProperty(DocumentViewerService.VIEW_STATUS)) {
+            // a failed view will not get more pages
+            return !DocumentViewerService.VIEW_STATUS_IN_PROGRESS.equals(view.getProperty(
+                    DocumentViewerService.VIEW_STATUS).getString());
+        }
+
+        return !view.hasProperty(DocumentViewerService.PAGES_READY)
+                || !view.hasProperty(PageGeometry.PAGE_COUNT)
+                || view.getProperty(DocumentViewerService.PAGES_READY).getLong() >= view.getProperty(
+                        PageGeometry.PAGE_COUNT).getLong();
+    }
+
     /**
      * Checks if the document converter service is running.
      * 
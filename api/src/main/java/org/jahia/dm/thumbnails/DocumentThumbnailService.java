@@ -72,6 +72,29 @@ public interface DocumentThumbnailService extends Serviceable {
      */
     boolean canHandle(JCRNodeWrapper fileNode) throws RepositoryException;
 
+    /**
+     * Returns <code>true</code> if the thumbnails of documents of the specified MIME type are rendered directly as text,
+     * i.e. for plain text, CSV, Markdown and HTML documents. This does not require the PDF to image converter.
+     * 
+     * @param mimeType
+     *            the MIME type of the document
+     * @return <code>true</code> if the thumbnails of documents of the specified MIME type are rendered directly as
+     *         text
+     */
+    boolean canRenderText(String mimeType);
+
+    /**
+     * Returns <code>true</code> if the thumbnails of documents of the specified MIME type are generated from the first
+     * image, read with subsampling, i.e. for large raster images like multi-page TIFF. This does not require the PDF to
+     * image converter.
+     * 
+     * @param mimeType
+     *            the MIME type of the document
+     * @return <code>true</code> if the thumbnails of documents of the specified MIME type are generated from the first
+     *         image, read with subsampling
+     */
+    boolean canReadSubsampled(String mimeType);
+
     /**
      * Generates thumbnails for the specified document node.
      * 
@@ -0,0 +1,397 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.thumbnails;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.lang.StringUtils;
+import org.jahia.api.Constants;
+import org.jahia.dm.utils.DerivativeUtils;
+import org.jahia.services.content.JCRNodeWrapper;
+
+/**
+ * Media information of a video (duration, resolution, rotation, codec and the keyframes at its beginning), which is
+ * probed once per revision of the video and recorded in the <code>videoMetadata</code> sub-node of the file node, so
+ * that the thumbnail operations can choose offsets and output sizes without running the converter blindly. The
+ * sub-node is not copied into the versions of the document.
+ * <p>
+ * The keyframe positions are stored in the <code>j:videoKeyframes</code> property as a comma-separated list of
+ * milliseconds, e.g. <code>0,2002,4004</code>.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class VideoMetadata {
+
+    public static final String CODEC = "j:videoCodec";
+
+    public static final String COVER_ART = "j:videoCoverArt";
+
+    public static final String DURATION = "j:videoDuration";
+
+    public static final String HAS_VIDEO = "j:hasVideo";
+
+    public static final String HEIGHT = "j:videoHeight";
+
+    public static final String KEYFRAMES = "j:videoKeyframes";
+
+    public static final String MIXIN = "jmix:videoMetadata";
+
+    public static final String NODE = "videoMetadata";
+
+    public static final String NODE_TYPE = "jnt:videoMetadata";
+
+    public static final String REVISION = "j:videoProbedRevision";
+
+    public static final String ROTATION = "j:videoRotation";
+
+    public static final String WIDTH = "j:videoWidth";
+
+    /**
+     * Returns the revision key of the content of the provided video node, which changes whenever a new content is
+     * uploaded.
+     * 
+     * @param fileNode
+     *            the video node
+     * @return the revision key of the content of the provided video node
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    public static String getRevision(JCRNodeWrapper fileNode) throws RepositoryException {
+        JCRNodeWrapper content = fileNode.getNode(Constants.JCR_CONTENT);
+        long lastModified = content.hasProperty(Constants.JCR_LASTMODIFIED) ? content
+                .getProperty(Constants.JCR_LASTMODIFIED).getDate().getTimeInMillis() : 0;
+
+        return lastModified + "/" + content.getProperty(Constants.JCR_DATA).getLength();
+    }
+
+    /**
+     * Reads the video metadata, recorded on the specified node, if it was probed for the current revision of the
+     * content.
+     * 
+     * @param fileNode
+     *            the video node to read the metadata from
+     * @return the video metadata, recorded on the specified node or <code>null</code> if the node does not have it or
+     *         it is outdated
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    public static VideoMetadata read(JCRNodeWrapper fileNode) throws RepositoryException {
+        JCRNodeWrapper node = fileNode.hasNode(NODE) ? fileNode.getNode(NODE) : null;
+        if (node == null || !node.hasProperty(REVISION)
+                || !getRevision(fileNode).equals(node.getProperty(REVISION).getString())) {
+            return null;
+        }
+
+        VideoMetadata metadata = new VideoMetadata();
+        metadata.setVideo(node.hasProperty(HAS_VIDEO) && node.getProperty(HAS_VIDEO).getBoolean());
+        if (node.hasProperty(DURATION)) {
+            metadata.setDuration(node.getProperty(DURATION).getLong());
+        }
+        if (node.hasProperty(WIDTH) && node.hasProperty(HEIGHT)) {
+            metadata.setResolution((int) node.getProperty(WIDTH).getLong(), (int) node
+                    .getProperty(HEIGHT).getLong());
+        }
+        if (node.hasProperty(ROTATION)) {
+            metadata.setRotation((int) node.getProperty(ROTATION).getLong());
+        }
+        if (node.hasProperty(CODEC)) {
+            metadata.setCodec(node.getProperty(CODEC).getString());
+        }
+        if (node.hasProperty(COVER_ART)) {
+            metadata.setCoverArtStream((int) node.getProperty(COVER_ART).getLong());
+        }
+        if (node.hasProperty(KEYFRAMES)) {
+            for (String keyframe : StringUtils.split(node.getProperty(KEYFRAMES).getString(), ',')) {
+                metadata.addKeyframe(Long.parseLong(keyframe));
+            }
+        }
+
+        return metadata;
+    }
+
+    private static void removeProperty(JCRNodeWrapper node, String name) throws RepositoryException {
+        if (node.hasProperty(name)) {
+            node.getProperty(name).remove();
+        }
+    }
+
+    private String codec;
+
+    private int coverArtStream = -1;
+
+    private long duration = -1;
+
+    private int height;
+
+    private List<Long> keyframes = new ArrayList<Long>();
+
+    private int rotation;
+
+    private boolean video;
+
+    private int width;
+
+    /**
+     * Adds the position of the next keyframe.
+     * 
+     * @param position
+     *            the position of the keyframe in milliseconds
+     */
+    public void addKeyframe(long position) {
+        keyframes.add(position);
+    }
+
+    /**
+     * Returns the size, which fits into the requested bounding box (e.g. <code>320x240</code>), keeping the aspect
+     * ratio of the displayed video (taking the rotation into account). Both dimensions are even, as required by most
+     * encoders. If the resolution is unknown, the requested size is returned unchanged.
+     * 
+     * @param size
+     *            the requested size in the form <code>WIDTHxHEIGHT</code>
+     * @return the size, which fits into the requested bounding box, keeping the aspect ratio of the video
+     */
+    public String fitSize(String size) {
+        if (width <= 0 || height <= 0 || size == null || size.indexOf('x') == -1) {
+            return size;
+        }
+        int maxWidth;
+        int maxHeight;
+        try {
+            maxWidth = Integer.parseInt(StringUtils.substringBefore(size, "x"));
+            maxHeight = Integer.parseInt(StringUtils.substringAfter(size, "x"));
+        } catch (NumberFormatException e) {
+            return size;
+        }
+
+        double scale = Math.min((double) maxWidth / getDisplayWidth(), (double) maxHeight
+                / getDisplayHeight());
+        int w = Math.max(2, (int) Math.round(getDisplayWidth() * scale / 2) * 2);
+        int h = Math.max(2, (int) Math.round(getDisplayHeight() * scale / 2) * 2);
+
+        return w + "x" + h;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    /**
+     * Returns the index of the stream with the embedded cover art picture or <code>-1</code> if there is none.
+     * 
+     * @return the index of the stream with the embedded cover art picture or <code>-1</code> if there is none
+     */
+    public int getCoverArtStream() {
+        return coverArtStream;
+    }
+
+    /**
+     * Returns the height of the video as displayed, i.e. after applying the rotation.
+     * 
+     * @return the height of the video as displayed
+     */
+    public int getDisplayHeight() {
+        return isRotatedSideways() ? width : height;
+    }
+
+    /**
+     * Returns the width of the video as displayed, i.e. after applying the rotation.
+     * 
+     * @return the width of the video as displayed
+     */
+    public int getDisplayWidth() {
+        return isRotatedSideways() ? height : width;
+    }
+
+    /**
+     * Returns the duration of the video in milliseconds or <code>-1</code> if it is unknown.
+     * 
+     * @return the duration of the video in milliseconds or <code>-1</code> if it is unknown
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the positions of the known keyframes in milliseconds.
+     * 
+     * @return the positions of the known keyframes in milliseconds
+     */
+    public List<Long> getKeyframes() {
+        return Collections.unmodifiableList(keyframes);
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * Returns the seek position in milliseconds for the requested one. Positions beyond the end of a (short) video are
+     * moved to its first tenth and a position, which is covered by the keyframe index, is moved to the nearest
+     * keyframe, so that no frames have to be decoded before the target one.
+     * 
+     * @param requested
+     *            the requested position in milliseconds
+     * @return the seek position in milliseconds
+     */
+    public long getSeekPosition(long requested) {
+        long position = Math.max(0, requested);
+        if (duration > 0 && position >= duration) {
+            position = duration / 10;
+        }
+        if (!keyframes.isEmpty() && position <= keyframes.get(keyframes.size() - 1)) {
+            long nearest = keyframes.get(0);
+            for (long keyframe : keyframes) {
+                if (Math.abs(keyframe - position) < Math.abs(nearest - position)) {
+                    nearest = keyframe;
+                }
+            }
+            position = nearest;
+        }
+
+        return position;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns <code>true</code> if the file has a video stream, i.e. it is not an audio-only file.
+     * 
+     * @return <code>true</code> if the file has a video stream
+     */
+    public boolean hasVideo() {
+        return video;
+    }
+
+    /**
+     * Returns <code>true</code> if the container has an embedded cover art picture (attached picture stream).
+     * 
+     * @return <code>true</code> if the container has an embedded cover art picture
+     */
+    public boolean hasCoverArt() {
+        return coverArtStream >= 0;
+    }
+
+    private boolean isRotatedSideways() {
+        return Math.abs(rotation) % 180 == 90;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    public void setCoverArtStream(int coverArtStream) {
+        this.coverArtStream = coverArtStream;
+    }
+
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    public void setResolution(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public void setRotation(int rotation) {
+        this.rotation = rotation;
+    }
+
+    public void setVideo(boolean video) {
+        this.video = video;
+    }
+
+    /**
+     * Records the metadata for the current revision of the content of the specified video node in its
+     * <code>videoMetadata</code> sub-node, creating it if needed. The values, which are not known for the current
+     * revision, are removed.
+     * 
+     * @param fileNode
+     *            the video node to store the metadata for
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    public void store(JCRNodeWrapper fileNode) throws RepositoryException {
+        JCRNodeWrapper node = DerivativeUtils.getDerivativeNode(fileNode, NODE, NODE_TYPE, MIXIN);
+        node.setProperty(REVISION, getRevision(fileNode));
+        node.setProperty(HAS_VIDEO, video);
+        node.setProperty(DURATION, duration);
+        // the values of a previous revision, which are not known for the current one, are removed
+        if (width > 0 && height > 0) {
+            node.setProperty(WIDTH, (long) width);
+            node.setProperty(HEIGHT, (long) height);
+        } else {
+            removeProperty(node, WIDTH);
+            removeProperty(node, HEIGHT);
+        }
+        node.setProperty(ROTATION, (long) rotation);
+        if (codec != null) {
+            node.setProperty(CODEC, codec);
+        } else {
+            removeProperty(node, CODEC);
+        }
+        node.setProperty(COVER_ART, (long) coverArtStream);
+        if (!keyframes.isEmpty()) {
+            node.setProperty(KEYFRAMES, StringUtils.join(keyframes, ","));
+        } else {
+            removeProperty(node, KEYFRAMES);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return video ? codec + " " + width + "x" + height + (rotation != 0 ? " rotated " + rotation : "") + ", "
+                + duration + " ms, " + keyframes.size() + " keyframes" + (hasCoverArt() ? ", cover art" : "")
+                : "no video stream, " + duration + " ms" + (hasCoverArt() ? ", cover art" : "");
+    }
+}
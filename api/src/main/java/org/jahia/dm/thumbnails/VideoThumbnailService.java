@@ -44,6 +44,8 @@
 package org.jahia.dm.thumbnails;
 
 import java.io.File;
+import java.io.InputStream;
+import java.util.Map;
 
 import javax.jcr.RepositoryException;
 
@@ -59,6 +61,17 @@ import org.jahia.services.content.JCRNodeWrapper;
  */
 public interface VideoThumbnailService extends Serviceable {
 
+    /**
+     * The name of the derivative node with the storyboard sprite image.
+     */
+    String STORYBOARD = "storyboard";
+
+    /**
+     * The name of the derivative node with the WebVTT cues, mapping time ranges of the video to the storyboard sprite
+     * regions.
+     */
+    String STORYBOARD_CUES = "storyboardCues";
+
     /**
      * Returns <code>true</code> if a thumbnail can be generated for the supplied document, i.e. the thumbnail service is enabled and the
      * document format satisfies the requirements.
@@ -94,6 +107,51 @@ public interface VideoThumbnailService extends Serviceable {
             int offsetSeconds, String thumbnailSize) throws RepositoryException,
             DocumentOperationException;
 
+    /**
+     * Generates a storyboard for the specified video file node in a single converter run: a sprite sheet with
+     * <code>columns x rows</code> evenly spaced keyframes of the video and WebVTT cues, which map the time ranges of
+     * the video to the sprite regions, e.g. for hover-scrub previews. Both are stored as derivatives of the video node
+     * ({@link #STORYBOARD} and {@link #STORYBOARD_CUES}).
+     * 
+     * @param fileNode
+     *            the node to generate the storyboard for
+     * @param columns
+     *            the number of frames per sprite row
+     * @param rows
+     *            the number of sprite rows
+     * @param tileWidth
+     *            the width of a single frame in the sprite in pixels; the height is computed keeping the aspect ratio
+     * @return <code>true</code> if the storyboard was successfully created; returns <code>false</code> if e.g. the
+     *         service is disabled or the duration of the video cannot be determined
+     * @throws RepositoryException
+     *             in case of repository operation error
+     * @throws DocumentOperationException
+     *             in case of a video transformation error
+     */
+    boolean createStoryboardForNode(JCRNodeWrapper fileNode, int columns, int rows, int tileWidth)
+            throws RepositoryException, DocumentOperationException;
+
+    /**
+     * Generates several thumbnails of different sizes for the specified video file node. The frame at the requested
+     * offset is decoded once and scaled to all the requested sizes in a single converter run.
+     * 
+     * @param fileNode
+     *            the node to generate thumbnails for
+     * @param thumbnails
+     *            the sizes of the generated thumbnails (e.g. 640x480), keyed by the names of the thumbnail nodes
+     * @param offsetSeconds
+     *            the input time offset in seconds. Specifying a positive offset means that the corresponding streams are delayed by offset
+     *            seconds.
+     * @return <code>true</code> if all thumbnails were successfully created; returns <code>false</code> if e.g. the
+     *         service is disabled or the document cannot be converted to the required format
+     * @throws RepositoryException
+     *             in case of repository operation error
+     * @throws DocumentOperationException
+     *             in case of a video transformation error
+     */
+    boolean createThumbnailsForNode(JCRNodeWrapper fileNode, Map<String, String> thumbnails,
+            int offsetSeconds) throws RepositoryException, DocumentOperationException;
+
     /**
      * Generates a JPG thumbnail image for the specified video file.
      * 
@@ -129,4 +187,24 @@ public interface VideoThumbnailService extends Serviceable {
      */
     File generateThumbnail(File videoFile, int offsetSeconds, String size)
             throws DocumentOperationException;
+
+    /**
+     * Generates a JPG thumbnail image for the provided video content, piping the content through the converter process
+     * without intermediate files. The returned stream must be closed after use; closing it fails with an
+     * {@link java.io.IOException} if the converter exited with an error. Note that formats, which require random access
+     * to the content (e.g. MP4 files with the index at the end), cannot be processed this way.
+     * 
+     * @param videoStream
+     *            the video content to generate thumbnail for; it is not closed by this method
+     * @param offsetSeconds
+     *            the input time offset in seconds. Specifying a positive offset means that the corresponding streams are delayed by offset
+     *            seconds.
+     * @param size
+     *            the target thumbnail size (e.g. 640x480)
+     * @return the stream with the generated thumbnail image or <code>null</code> if the service is disabled
+     * @throws DocumentOperationException
+     *             if the converter process cannot be started
+     */
+    InputStream generateThumbnail(InputStream videoStream, int offsetSeconds, String size)
+            throws DocumentOperationException;
 }
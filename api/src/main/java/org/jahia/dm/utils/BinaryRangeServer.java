@@ -0,0 +1,331 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Minimal HTTP server, bound to the loopback interface, which serves a single JCR binary with support for byte range
+ * requests. Allows external tools, that are able to read HTTP URLs with seeking (e.g. ffmpeg), to fetch only the parts
+ * of the content they actually need instead of the whole binary being copied into a temporary file. The binary is
+ * exposed under an unguessable path and only for the lifetime of the server, which must be closed after use.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class BinaryRangeServer implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * A client, which seeks, opens a new connection while the previous one may still be open, so two workers are
+     * needed; further connections wait in the backlog of the server socket.
+     */
+    private static final int MAX_WORKERS = 2;
+
+    private static final Logger logger = LoggerFactory.getLogger(BinaryRangeServer.class);
+
+    private static final int SO_TIMEOUT = 30000;
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+            if (line.length() > 8192) {
+                throw new IOException("Request header line too long");
+            }
+        }
+        return c == -1 && line.length() == 0 ? null : line.toString();
+    }
+
+    private final Binary binary;
+
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    private final String contentType;
+
+    private final String path = "/" + UUID.randomUUID().toString().replace("-", "");
+
+    private ServerSocket serverSocket;
+
+    private ExecutorService workers;
+
+    private final long size;
+
+    /**
+     * Initializes an instance of this class.
+     * 
+     * @param binary
+     *            the binary to be served
+     * @param contentType
+     *            the content type of the binary; can be <code>null</code>
+     * @throws RepositoryException
+     *             in case the size of the binary cannot be determined
+     */
+    public BinaryRangeServer(Binary binary, String contentType) throws RepositoryException {
+        super();
+        this.binary = binary;
+        this.contentType = StringUtils.defaultIfEmpty(contentType, "application/octet-stream");
+        this.size = binary.getSize();
+    }
+
+    /**
+     * Stops the server. The binary itself is not disposed.
+     */
+    public void close() {
+        if (serverSocket != null) {
+            IOUtils.closeQuietly(serverSocket);
+            workers.shutdownNow();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Served {} bytes of {} for {}", new Object[] { bytesServed.get(), size,
+                        getUrl() });
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes, which were sent to the clients so far.
+     * 
+     * @return the number of bytes, which were sent to the clients so far
+     */
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    /**
+     * Returns the URL the binary is served under.
+     * 
+     * @return the URL the binary is served under
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    private void copy(OutputStream out, long start, long length) throws IOException {
+        InputStream data;
+        try {
+            data = binary.getStream();
+        } catch (RepositoryException e) {
+            throw new IOException(e.getMessage());
+        }
+        try {
+            if (start > 0 && IOUtils.skip(data, start) < start) {
+                throw new IOException("Unable to skip to position " + start + " of the binary");
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = length;
+            while (remaining > 0) {
+                int read = data.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    break;
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+                bytesServed.addAndGet(read);
+            }
+        } finally {
+            IOUtils.closeQuietly(data);
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        socket.setSoTimeout(SO_TIMEOUT);
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+            return;
+        }
+        String range = null;
+        String header;
+        while ((header = readLine(in)) != null && header.length() > 0) {
+            if (StringUtils.startsWithIgnoreCase(header, "Range:")) {
+                range = header.substring("Range:".length()).trim();
+            }
+        }
+
+        String[] parts = StringUtils.split(requestLine, ' ');
+        boolean head = parts.length > 0 && "HEAD".equals(parts[0]);
+        if (parts.length < 2 || !("GET".equals(parts[0]) || head)) {
+            writeResponseHeaders(out, "405 Method Not Allowed", 0, null);
+            out.flush();
+            return;
+        }
+        if (!path.equals(parts[1])) {
+            writeResponseHeaders(out, "404 Not Found", 0, null);
+            out.flush();
+            return;
+        }
+
+        long start = 0;
+        long end = size - 1;
+        boolean partial = false;
+        if (range != null && range.startsWith("bytes=") && range.indexOf(',') == -1) {
+            String spec = range.substring("bytes=".length()).trim();
+            int dash = spec.indexOf('-');
+            try {
+                if (dash == 0) {
+                    // suffix range: the last N bytes
+                    start = Math.max(0, size - Long.parseLong(spec.substring(1)));
+                } else if (dash > 0) {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    if (dash < spec.length() - 1) {
+                        end = Math.min(end, Long.parseLong(spec.substring(dash + 1)));
+                    }
+                }
+                partial = true;
+            } catch (NumberFormatException e) {
+                // ignore the malformed range and serve the whole content
+                start = 0;
+            }
+            if (partial && (start >= size || start > end)) {
+                writeResponseHeaders(out, "416 Requested Range Not Satisfiable", 0, "Content-Range: bytes */"
+                        + size + "\r\n");
+                out.flush();
+                return;
+            }
+        }
+
+        long length = end - start + 1;
+        StringBuilder headers = new StringBuilder(128);
+        headers.append("Content-Type: ").append(contentType).append("\r\n");
+        headers.append("Accept-Ranges: bytes\r\n");
+        if (partial) {
+            headers.append("Content-Range: bytes ").append(start).append('-').append(end).append('/')
+                    .append(size).append("\r\n");
+        }
+        writeResponseHeaders(out, partial ? "206 Partial Content" : "200 OK", length, headers.toString());
+
+        if (!head) {
+            copy(out, start, length);
+        }
+        out.flush();
+    }
+
+    /**
+     * Starts the server on an ephemeral port of the loopback interface.
+     * 
+     * @return the URL the binary is served under
+     * @throws IOException
+     *             in case the server socket cannot be opened
+     */
+    public String start() throws IOException {
+        serverSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        workers = Executors.newFixedThreadPool(MAX_WORKERS, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread worker = new Thread(r, "binary-range-server-worker");
+                worker.setDaemon(true);
+                return worker;
+            }
+        });
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    final Socket socket;
+                    try {
+                        socket = serverSocket.accept();
+                    } catch (IOException e) {
+                        // the server was closed
+                        break;
+                    }
+                    try {
+                        workers.execute(new Runnable() {
+                            public void run() {
+                                try {
+                                    handle(socket);
+                                } catch (IOException e) {
+                                    // the client closed the connection after reading the part it needed
+                                    if (logger.isDebugEnabled()) {
+                                        logger.debug("Connection to {} closed: {}", getUrl(), e.getMessage());
+                                    }
+                                } finally {
+                                    IOUtils.closeQuietly(socket);
+                                }
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // the server was closed
+                        IOUtils.closeQuietly(socket);
+                        break;
+                    }
+                }
+            }
+        }, "binary-range-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        return getUrl();
+    }
+
+    private void writeResponseHeaders(OutputStream out, String status, long contentLength, String headers)
+            throws IOException {
+        out.write(("HTTP/1.1 " + status + "\r\nConnection: close\r\nContent-Length: " + contentLength + "\r\n"
+                + (headers != null ? headers : "") + "\r\n").getBytes("ISO-8859-1"));
+    }
+}
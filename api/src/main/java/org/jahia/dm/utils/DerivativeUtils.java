@@ -0,0 +1,262 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.value.BinaryImpl;
+import org.jahia.api.Constants;
+import org.jahia.dm.DocumentManagement;
+import org.jahia.dm.store.DerivativeStore;
+import org.jahia.services.content.JCRNodeWrapper;
+
+/**
+ * Utilities for storing generated derivatives (views, thumbnails etc.) of a document.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public final class DerivativeUtils {
+
+    public static final String DERIVATIVE_KEY = "j:derivativeKey";
+
+    public static final String DERIVATIVE_LENGTH = "j:derivativeLength";
+
+    public static final String EXTERNAL_DERIVATIVE = "jmix:externalDerivative";
+
+    /**
+     * Creates a binary value with the provided content using the value factory of the node's session. Unlike
+     * {@link BinaryImpl}, which buffers larger content in a temporary file first, the repository writes the stream
+     * directly into its data store. The provided stream is not closed by this method.
+     * 
+     * @param node
+     *            the node, the binary is created for
+     * @param data
+     *            the content of the binary
+     * @return the binary value with the provided content
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    public static Binary createBinary(JCRNodeWrapper node, InputStream data) throws RepositoryException {
+        return node.getSession().getValueFactory().createBinary(data);
+    }
+
+    /**
+     * Opens the stream to read the content of the provided derivative node, either from the external derivative store
+     * or from its <code>jcr:data</code> property.
+     * 
+     * @param derivativeNode
+     *            the derivative node
+     * @return the stream to read the content of the provided derivative node
+     * @throws RepositoryException
+     *             in case of a JCR error
+     * @throws IOException
+     *             in case the externally stored content cannot be read
+     */
+    public static InputStream getData(JCRNodeWrapper derivativeNode) throws RepositoryException,
+            IOException {
+        if (isExternal(derivativeNode)) {
+            DerivativeStore store = DocumentManagement.getInstance().getDerivativeStore();
+            if (store == null) {
+                throw new IOException("Derivative store is not available to read the content of the node "
+                        + derivativeNode.getPath());
+            }
+            return store.getStream(derivativeNode.getProperty(DERIVATIVE_KEY).getString());
+        }
+
+        return derivativeNode.getProperty(Constants.JCR_DATA).getBinary().getStream();
+    }
+
+    /**
+     * Returns the derivative sub-node with the specified name of the provided document node, creating it if it does not
+     * exist yet. The derivative sub-nodes are declared with the <code>ignore</code> OnParentVersion action, so they
+     * are neither copied into the versions of the document nor versionable themselves, and an existing derivative node
+     * is returned as is. The document node is only checked out if its structure has to be changed, i.e. the derivative
+     * node or the mixin, declaring it, have to be added.
+     * 
+     * @param fileNode
+     *            the document node
+     * @param name
+     *            the name of the derivative sub-node
+     * @param nodeType
+     *            the primary node type to be used for a new derivative node
+     * @param mixin
+     *            the mixin type, which declares the derivative sub-node; can be <code>null</code>
+     * @return the derivative sub-node of the document
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    public static JCRNodeWrapper getDerivativeNode(JCRNodeWrapper fileNode, String name, String nodeType,
+            String mixin) throws RepositoryException {
+        if (fileNode.hasNode(name)) {
+            return fileNode.getNode(name);
+        }
+
+        if (!fileNode.isCheckedOut()) {
+            fileNode.getSession().checkout(fileNode);
+        }
+        if (mixin != null && !fileNode.isNodeType(mixin)) {
+            fileNode.addMixin(mixin);
+        }
+
+        return fileNode.addNode(name, nodeType);
+    }
+
+    /**
+     * Returns <code>true</code> if the content of the provided derivative node is kept in the external derivative
+     * store.
+     * 
+     * @param derivativeNode
+     *            the derivative node
+     * @return <code>true</code> if the content of the provided derivative node is kept in the external derivative
+     *         store
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    public static boolean isExternal(JCRNodeWrapper derivativeNode) throws RepositoryException {
+        return derivativeNode.isNodeType(EXTERNAL_DERIVATIVE) && derivativeNode.hasProperty(DERIVATIVE_KEY);
+    }
+
+    /**
+     * Sets the content of the provided derivative node. If the external derivative store is enabled the content is
+     * written into the store and the node only holds its key; the mandatory <code>jcr:data</code> property is set to an
+     * empty binary in this case. Otherwise the content is stored in the <code>jcr:data</code> property. The provided
+     * stream is not closed by this method.
+     * 
+     * @param derivativeNode
+     *            the derivative node
+     * @param data
+     *            the content to be stored
+     * @throws RepositoryException
+     *             in case of a JCR error
+     * @throws IOException
+     *             in case the content cannot be written into the derivative store
+     */
+    public static void setData(JCRNodeWrapper derivativeNode, InputStream data) throws RepositoryException,
+            IOException {
+        if (derivativeNode.hasProperty(Constants.JCR_DATA)) {
+            derivativeNode.getProperty(Constants.JCR_DATA).remove();
+        }
+
+        DerivativeStore store = DocumentManagement.getInstance().getDerivativeStore();
+        if (store != null && store.isEnabled()) {
+            setExternal(derivativeNode, store, store.store(data));
+        } else {
+            if (derivativeNode.isNodeType(EXTERNAL_DERIVATIVE)) {
+                derivativeNode.removeMixin(EXTERNAL_DERIVATIVE);
+            }
+            Binary binary = createBinary(derivativeNode, data);
+            try {
+                derivativeNode.setProperty(Constants.JCR_DATA, binary);
+            } finally {
+                binary.dispose();
+            }
+        }
+    }
+
+    /**
+     * Sets the content of the provided derivative node from the provided file, e.g. the output of a conversion. If the
+     * external derivative store is enabled the file is moved into the store without copying its content, when located
+     * on the same file system; otherwise its content is streamed directly into the repository. The provided file
+     * should not be used by the caller after this method returns.
+     * 
+     * @param derivativeNode
+     *            the derivative node
+     * @param file
+     *            the file with the content to be stored
+     * @throws RepositoryException
+     *             in case of a JCR error
+     * @throws IOException
+     *             in case the file cannot be read or moved into the derivative store
+     */
+    public static void setData(JCRNodeWrapper derivativeNode, File file) throws RepositoryException,
+            IOException {
+        if (derivativeNode.hasProperty(Constants.JCR_DATA)) {
+            derivativeNode.getProperty(Constants.JCR_DATA).remove();
+        }
+
+        DerivativeStore store = DocumentManagement.getInstance().getDerivativeStore();
+        if (store != null && store.isEnabled()) {
+            setExternal(derivativeNode, store, store.store(file));
+        } else {
+            if (derivativeNode.isNodeType(EXTERNAL_DERIVATIVE)) {
+                derivativeNode.removeMixin(EXTERNAL_DERIVATIVE);
+            }
+            InputStream is = new BufferedInputStream(new FileInputStream(file));
+            Binary binary = null;
+            try {
+                binary = createBinary(derivativeNode, is);
+                derivativeNode.setProperty(Constants.JCR_DATA, binary);
+            } finally {
+                IOUtils.closeQuietly(is);
+                if (binary != null) {
+                    binary.dispose();
+                }
+            }
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    private static void setExternal(JCRNodeWrapper derivativeNode, DerivativeStore store, String key)
+            throws RepositoryException {
+        if (!derivativeNode.isNodeType(EXTERNAL_DERIVATIVE)) {
+            derivativeNode.addMixin(EXTERNAL_DERIVATIVE);
+        }
+        derivativeNode.setProperty(DERIVATIVE_KEY, key);
+        derivativeNode.setProperty(DERIVATIVE_LENGTH, store.getLength(key));
+        derivativeNode.setProperty(Constants.JCR_DATA, new BinaryImpl(new byte[0]));
+    }
+
+    private DerivativeUtils() {
+        super();
+    }
+}
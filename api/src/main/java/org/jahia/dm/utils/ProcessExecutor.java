@@ -0,0 +1,449 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Supervised execution of the external converter processes (pdf2swf, ffmpeg etc.). For each tool, identified by the
+ * executable name, the service limits the number of concurrently running processes, kills the whole process tree once
+ * a process exceeds its wall-clock time limit, optionally lowers the process priority using <code>nice</code>, captures
+ * the output into bounded ring buffers and collects execution statistics.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class ProcessExecutor implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessExecutor.class);
+
+    private static final boolean WINDOWS = File.separatorChar == '\\';
+
+    private int defaultMaxConcurrent = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    private long defaultTimeout = 600;
+
+    private int errorLimit = 16 * 1024;
+
+    private Map<String, Integer> maxConcurrent = Collections.emptyMap();
+
+    private final ConcurrentMap<String, ProcessMetrics> metrics = new ConcurrentHashMap<String, ProcessMetrics>();
+
+    private int niceness;
+
+    private int outputLimit = 64 * 1024;
+
+    private final ConcurrentMap<String, Semaphore> permits = new ConcurrentHashMap<String, Semaphore>();
+
+    private Map<String, Integer> threads = Collections.emptyMap();
+
+    private Map<String, Long> timeouts = Collections.emptyMap();
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "dm-process-watchdog");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private Semaphore acquire(String tool, ProcessMetrics toolMetrics, long timeout) throws IOException {
+        Semaphore toolPermits = getPermits(tool);
+        toolMetrics.waiting();
+        boolean acquired = false;
+        try {
+            acquired = toolPermits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!acquired) {
+            toolMetrics.rejected();
+            throw new IOException("No free execution slot for " + tool + " within " + timeout + " ms");
+        }
+        toolMetrics.started();
+
+        return toolPermits;
+    }
+
+    public void destroy() throws Exception {
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * Executes the specified command, waiting for it to finish, and captures its output with the default limits.
+     * 
+     * @param command
+     *            the command with its arguments
+     * @param workingDir
+     *            the working directory of the process; can be <code>null</code>
+     * @return the execution result
+     * @throws IOException
+     *             if the process cannot be started, no execution slot becomes free in time or the calling thread is
+     *             interrupted
+     */
+    public ProcessResult execute(String[] command, File workingDir) throws IOException {
+        return execute(command, workingDir, outputLimit);
+    }
+
+    /**
+     * Executes the specified command, waiting for it to finish. The process is killed with all its child processes if
+     * it exceeds the time limit of the tool. Only the last <code>outputLimit</code> bytes of the standard output are
+     * kept.
+     * 
+     * @param command
+     *            the command with its arguments
+     * @param workingDir
+     *            the working directory of the process; can be <code>null</code>
+     * @param outputLimit
+     *            the maximum number of bytes of the standard output to be kept
+     * @return the execution result
+     * @throws IOException
+     *             if the process cannot be started, no execution slot becomes free in time or the calling thread is
+     *             interrupted
+     */
+    public ProcessResult execute(String[] command, File workingDir, int outputLimit) throws IOException {
+        String tool = getTool(command);
+        ProcessMetrics toolMetrics = getMetrics(tool);
+        long timeout = getTimeout(tool);
+        Semaphore toolPermits = acquire(tool, toolMetrics, timeout);
+
+        long timer = System.currentTimeMillis();
+        boolean success = false;
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        try {
+            final Process process = start(command, workingDir);
+            IOUtils.closeQuietly(process.getOutputStream());
+
+            RingBufferOutputStream out = new RingBufferOutputStream(outputLimit);
+            RingBufferOutputStream err = new RingBufferOutputStream(errorLimit);
+            Thread outPump = pump(process.getInputStream(), out, tool + "-stdout");
+            Thread errPump = pump(process.getErrorStream(), err, tool + "-stderr");
+
+            ScheduledFuture<?> kill = watchdog.schedule(new Runnable() {
+                public void run() {
+                    timedOut.set(true);
+                    ProcessUtils.destroyTree(process);
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+
+            int exitValue;
+            try {
+                exitValue = process.waitFor();
+            } catch (InterruptedException e) {
+                ProcessUtils.destroyTree(process);
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the process " + tool + " to finish");
+            } finally {
+                kill.cancel(false);
+            }
+            join(outPump);
+            join(errPump);
+
+            ProcessResult result = new ProcessResult(exitValue, timedOut.get(), out.toString(), err.toString(),
+                    System.currentTimeMillis() - timer);
+            success = result.isSuccess();
+            if (timedOut.get()) {
+                logger.warn("Process {} was killed as it exceeded its time limit of {} ms", tool, timeout);
+            } else if (logger.isDebugEnabled()) {
+                logger.debug("Process {} finished with {}", tool, result);
+            }
+
+            return result;
+        } finally {
+            toolMetrics.finished(System.currentTimeMillis() - timer, success, timedOut.get());
+            toolPermits.release();
+        }
+    }
+
+    /**
+     * Returns the execution statistics per tool.
+     * 
+     * @return the execution statistics per tool
+     */
+    public Map<String, ProcessMetrics> getMetrics() {
+        return Collections.unmodifiableMap(new HashMap<String, ProcessMetrics>(metrics));
+    }
+
+    private ProcessMetrics getMetrics(String tool) {
+        ProcessMetrics toolMetrics = metrics.get(tool);
+        if (toolMetrics == null) {
+            toolMetrics = new ProcessMetrics();
+            ProcessMetrics existing = metrics.putIfAbsent(tool, toolMetrics);
+            if (existing != null) {
+                toolMetrics = existing;
+            }
+        }
+        return toolMetrics;
+    }
+
+    private Semaphore getPermits(String tool) {
+        Semaphore toolPermits = permits.get(tool);
+        if (toolPermits == null) {
+            Integer max = maxConcurrent.get(tool);
+            toolPermits = new Semaphore(max != null && max > 0 ? max : defaultMaxConcurrent, true);
+            Semaphore existing = permits.putIfAbsent(tool, toolPermits);
+            if (existing != null) {
+                toolPermits = existing;
+            }
+        }
+        return toolPermits;
+    }
+
+    /**
+     * Returns the number of threads, a process of the specified tool should use, or <code>0</code> to let the tool
+     * decide. The callers pass it to the tool using its own option (e.g. <code>-threads</code> for ffmpeg).
+     * 
+     * @param executable
+     *            the executable path or name of the tool
+     * @return the number of threads, a process of the specified tool should use, or <code>0</code> to let the tool
+     *         decide
+     */
+    public int getThreads(String executable) {
+        Integer count = threads.get(getTool(new String[] { executable }));
+        return count != null ? count : 0;
+    }
+
+    private long getTimeout(String tool) {
+        Long timeout = timeouts.get(tool);
+        return (timeout != null && timeout > 0 ? timeout : defaultTimeout) * 1000L;
+    }
+
+    private String getTool(String[] command) {
+        return FilenameUtils.getBaseName(command[0]).toLowerCase();
+    }
+
+    private void join(Thread t) {
+        try {
+            t.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Thread pump(final InputStream in, final RingBufferOutputStream out, String name) {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    IOUtils.copyLarge(in, out);
+                } catch (IOException e) {
+                    // the process was killed
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+            }
+        }, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    /**
+     * Sets the maximum number of concurrently running processes for a tool, which has no own limit configured.
+     * 
+     * @param defaultMaxConcurrent
+     *            the default maximum number of concurrently running processes per tool
+     */
+    public void setDefaultMaxConcurrent(int defaultMaxConcurrent) {
+        this.defaultMaxConcurrent = Math.max(1, defaultMaxConcurrent);
+    }
+
+    /**
+     * Sets the time limit in seconds for a tool, which has no own limit configured.
+     * 
+     * @param defaultTimeout
+     *            the default time limit in seconds
+     */
+    public void setDefaultTimeout(long defaultTimeout) {
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    public void setErrorLimit(int errorLimit) {
+        this.errorLimit = errorLimit;
+    }
+
+    /**
+     * Sets the maximum number of concurrently running processes per tool, keyed by the executable name (e.g.
+     * <code>ffmpeg</code>).
+     * 
+     * @param maxConcurrent
+     *            the maximum number of concurrently running processes per tool
+     */
+    public void setMaxConcurrent(Map<String, Integer> maxConcurrent) {
+        this.maxConcurrent = maxConcurrent != null ? maxConcurrent : Collections.<String, Integer> emptyMap();
+    }
+
+    /**
+     * Sets the niceness, the processes are started with on Unix-like systems; <code>0</code> keeps the priority of
+     * the server.
+     * 
+     * @param niceness
+     *            the niceness of the started processes
+     */
+    public void setNiceness(int niceness) {
+        this.niceness = niceness;
+    }
+
+    public void setOutputLimit(int outputLimit) {
+        this.outputLimit = outputLimit;
+    }
+
+    /**
+     * Sets the number of threads per tool, keyed by the executable name.
+     * 
+     * @param threads
+     *            the number of threads per tool
+     */
+    public void setThreads(Map<String, Integer> threads) {
+        this.threads = threads != null ? threads : Collections.<String, Integer> emptyMap();
+    }
+
+    /**
+     * Sets the time limits in seconds per tool, keyed by the executable name.
+     * 
+     * @param timeouts
+     *            the time limits in seconds per tool
+     */
+    public void setTimeouts(Map<String, Long> timeouts) {
+        this.timeouts = timeouts != null ? timeouts : Collections.<String, Long> emptyMap();
+    }
+
+    private Process start(String[] command, File workingDir) throws IOException {
+        List<String> cmd = new ArrayList<String>(command.length + 3);
+        if (niceness != 0 && !WINDOWS) {
+            cmd.add("nice");
+            cmd.add("-n");
+            cmd.add(String.valueOf(niceness));
+        }
+        cmd.addAll(Arrays.asList(command));
+        if (logger.isDebugEnabled()) {
+            logger.debug("Starting process: {}", StringUtils.join(cmd, " "));
+        }
+
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        if (workingDir != null) {
+            if (workingDir.exists() || workingDir.mkdirs()) {
+                pb.directory(workingDir);
+            }
+        }
+
+        return pb.start();
+    }
+
+    /**
+     * Starts the specified command and returns the stream over its standard output, piping the provided input into
+     * its standard input. The data flows through the process without intermediate files; the bounded pipe buffers
+     * provide the backpressure (see {@link ProcessInputStream}). The process occupies an execution slot of its tool
+     * until the returned stream is closed and is killed if it exceeds its time limit.
+     * 
+     * @param command
+     *            the command with its arguments
+     * @param stdin
+     *            the stream to be piped into the standard input of the process; can be <code>null</code>
+     * @param workingDir
+     *            the working directory of the process; can be <code>null</code>
+     * @return the stream over the standard output of the process
+     * @throws IOException
+     *             if the process cannot be started or no execution slot becomes free in time
+     */
+    public InputStream startStreaming(String[] command, InputStream stdin, File workingDir) throws IOException {
+        final String tool = getTool(command);
+        final ProcessMetrics toolMetrics = getMetrics(tool);
+        final long timeout = getTimeout(tool);
+        final Semaphore toolPermits = acquire(tool, toolMetrics, timeout);
+
+        final long timer = System.currentTimeMillis();
+        final ProcessInputStream in;
+        try {
+            in = new ProcessInputStream(start(command, workingDir), stdin, tool);
+        } catch (IOException e) {
+            toolMetrics.finished(System.currentTimeMillis() - timer, false, false);
+            toolPermits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            toolMetrics.finished(System.currentTimeMillis() - timer, false, false);
+            toolPermits.release();
+            throw e;
+        }
+
+        final ScheduledFuture<?> kill = watchdog.schedule(new Runnable() {
+            public void run() {
+                logger.warn("Process {} was killed as it exceeded its time limit of {} ms", tool, timeout);
+                in.kill();
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+
+        in.setCloseListener(new Runnable() {
+            public void run() {
+                kill.cancel(false);
+                toolMetrics.finished(System.currentTimeMillis() - timer, !in.isKilled(), in.isKilled());
+                toolPermits.release();
+            }
+        });
+
+        return in;
+    }
+}
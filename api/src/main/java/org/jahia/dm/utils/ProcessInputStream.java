@@ -0,0 +1,240 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stream over the standard output of an external process. The process input is fed from a separate thread; the
+ * operating system pipes are bounded, so the process is throttled when the output is not consumed and the feeder
+ * blocks while the process does not read its input. The standard error is drained, keeping its tail for diagnostics.
+ * Closing the stream waits for the process to finish and fails if it exited with an error.
+ * 
+ * @author Sergiy Shyrkov
+ */
+class ProcessInputStream extends FilterInputStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessInputStream.class);
+
+    private static final int ERROR_TAIL_SIZE = 8 * 1024;
+
+    private static Thread startDaemon(Runnable task, String name) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private boolean closed;
+
+    private Runnable closeListener;
+
+    private boolean eof;
+
+    private final StringBuilder errorTail = new StringBuilder();
+
+    private final Thread errorDrainer;
+
+    private final Thread feeder;
+
+    private final String name;
+
+    private final Process process;
+
+    private volatile boolean killed;
+
+    ProcessInputStream(final Process process, final InputStream stdin, String name) {
+        super(process.getInputStream());
+        this.process = process;
+        this.name = name;
+
+        if (stdin != null) {
+            feeder = startDaemon(new Runnable() {
+                public void run() {
+                    OutputStream out = process.getOutputStream();
+                    try {
+                        IOUtils.copyLarge(stdin, out);
+                    } catch (IOException e) {
+                        // the process may legitimately stop reading before the end of the input
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Process {} stopped reading its input: {}", ProcessInputStream.this.name,
+                                    e.getMessage());
+                        }
+                    } finally {
+                        IOUtils.closeQuietly(out);
+                    }
+                }
+            }, name + "-stdin");
+        } else {
+            IOUtils.closeQuietly(process.getOutputStream());
+            feeder = null;
+        }
+
+        errorDrainer = startDaemon(new Runnable() {
+            public void run() {
+                InputStream err = process.getErrorStream();
+                byte[] buffer = new byte[1024];
+                int read;
+                try {
+                    while ((read = err.read(buffer)) != -1) {
+                        synchronized (errorTail) {
+                            errorTail.append(new String(buffer, 0, read));
+                            if (errorTail.length() > ERROR_TAIL_SIZE) {
+                                errorTail.delete(0, errorTail.length() - ERROR_TAIL_SIZE);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    // ignore
+                } finally {
+                    IOUtils.closeQuietly(err);
+                }
+            }
+        }, name + "-stderr");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            IOUtils.closeQuietly(in);
+            if (!eof) {
+                // the caller is not interested in the rest of the output
+                ProcessUtils.destroyTree(process);
+            }
+
+            int exitValue;
+            try {
+                exitValue = process.waitFor();
+                if (feeder != null) {
+                    feeder.join();
+                }
+                errorDrainer.join();
+            } catch (InterruptedException e) {
+                ProcessUtils.destroyTree(process);
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the process " + name + " to finish");
+            }
+
+            if (killed) {
+                throw new IOException("Process " + name + " was killed as it exceeded its time limit");
+            }
+            if (eof && exitValue != 0) {
+                throw new IOException("Process " + name + " finished with exit code " + exitValue + ": "
+                        + getErrorOutput());
+            }
+        } finally {
+            if (closeListener != null) {
+                closeListener.run();
+            }
+        }
+    }
+
+    /**
+     * Kills the process tree, e.g. when the process exceeded its time limit.
+     */
+    void kill() {
+        killed = true;
+        ProcessUtils.destroyTree(process);
+    }
+
+    /**
+     * Returns the tail of the standard error output of the process.
+     * 
+     * @return the tail of the standard error output of the process
+     */
+    String getErrorOutput() {
+        synchronized (errorTail) {
+            return errorTail.toString();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the process was killed.
+     * 
+     * @return <code>true</code> if the process was killed
+     */
+    boolean isKilled() {
+        return killed;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b == -1) {
+            eof = true;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read == -1) {
+            eof = true;
+        }
+        return read;
+    }
+
+    /**
+     * Sets the callback, which is invoked once the stream is closed and the process has finished.
+     * 
+     * @param closeListener
+     *            the callback to be invoked on close
+     */
+    void setCloseListener(Runnable closeListener) {
+        this.closeListener = closeListener;
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Execution statistics of an external tool.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class ProcessMetrics {
+
+    private final AtomicLong executions = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong maxTime = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private final AtomicLong totalTime = new AtomicLong();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    void finished(long duration, boolean success, boolean timedOut) {
+        running.decrementAndGet();
+        executions.incrementAndGet();
+        totalTime.addAndGet(duration);
+        if (!success) {
+            failures.incrementAndGet();
+        }
+        if (timedOut) {
+            timeouts.incrementAndGet();
+        }
+        long max;
+        while ((max = maxTime.get()) < duration && !maxTime.compareAndSet(max, duration)) {
+            // retry
+        }
+    }
+
+    /**
+     * Returns the average execution time in milliseconds.
+     * 
+     * @return the average execution time in milliseconds
+     */
+    public long getAverageTime() {
+        long count = executions.get();
+        return count > 0 ? totalTime.get() / count : 0;
+    }
+
+    /**
+     * Returns the number of finished executions.
+     * 
+     * @return the number of finished executions
+     */
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    /**
+     * Returns the number of executions, which did not succeed (including the timed out ones).
+     * 
+     * @return the number of executions, which did not succeed
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getMaxTime() {
+        return maxTime.get();
+    }
+
+    /**
+     * Returns the number of executions, which were rejected as no execution slot became free in time.
+     * 
+     * @return the number of rejected executions
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns the number of currently running processes.
+     * 
+     * @return the number of currently running processes
+     */
+    public int getRunning() {
+        return running.get();
+    }
+
+    /**
+     * Returns the number of processes, killed because they exceeded their time limit.
+     * 
+     * @return the number of processes, killed because they exceeded their time limit
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getTotalTime() {
+        return totalTime.get();
+    }
+
+    /**
+     * Returns the number of executions, currently waiting for a free slot.
+     * 
+     * @return the number of executions, currently waiting for a free slot
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    void rejected() {
+        waiting.decrementAndGet();
+        rejected.incrementAndGet();
+    }
+
+    void started() {
+        waiting.decrementAndGet();
+        running.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "executions: " + executions + ", failures: " + failures + ", timeouts: " + timeouts + ", rejected: "
+                + rejected + ", running: " + running + ", waiting: " + waiting + ", avg time: " + getAverageTime()
+                + " ms, max time: " + maxTime + " ms";
+    }
+
+    void waiting() {
+        waiting.incrementAndGet();
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.utils;
+
+/**
+ * Outcome of an external process execution: the exit code, the (bounded) captured output and the execution time.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class ProcessResult {
+
+    private final long duration;
+
+    private final String errorOutput;
+
+    private final int exitValue;
+
+    private final String output;
+
+    private final boolean timedOut;
+
+    ProcessResult(int exitValue, boolean timedOut, String output, String errorOutput, long duration) {
+        super();
+        this.exitValue = exitValue;
+        this.timedOut = timedOut;
+        this.output = output;
+        this.errorOutput = errorOutput;
+        this.duration = duration;
+    }
+
+    /**
+     * Returns the wall-clock execution time in milliseconds.
+     * 
+     * @return the wall-clock execution time in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the tail of the standard error output of the process.
+     * 
+     * @return the tail of the standard error output of the process
+     */
+    public String getErrorOutput() {
+        return errorOutput;
+    }
+
+    public int getExitValue() {
+        return exitValue;
+    }
+
+    /**
+     * Returns the tail of the standard output of the process.
+     * 
+     * @return the tail of the standard output of the process
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * Returns <code>true</code> if the process exited with code 0 and was not killed on timeout.
+     * 
+     * @return <code>true</code> if the process exited with code 0 and was not killed on timeout
+     */
+    public boolean isSuccess() {
+        return exitValue == 0 && !timedOut;
+    }
+
+    /**
+     * Returns <code>true</code> if the process was killed because it exceeded its time limit.
+     * 
+     * @return <code>true</code> if the process was killed because it exceeded its time limit
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    @Override
+    public String toString() {
+        return "exit code " + exitValue + (timedOut ? " (killed on timeout)" : "") + " in " + duration + " ms";
+    }
+}
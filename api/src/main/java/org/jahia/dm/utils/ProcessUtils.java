@@ -44,8 +44,12 @@
 package org.jahia.dm.utils;
 
 import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.Map;
 
+import org.apache.commons.io.IOUtils;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,6 +62,20 @@ public final class ProcessUtils {
 
     private static Logger logger = LoggerFactory.getLogger(ProcessUtils.class);
 
+    private static final Method PID_METHOD;
+
+    private static volatile boolean pidUnavailableLogged;
+
+    static {
+        Method pid = null;
+        try {
+            pid = Process.class.getMethod("pid");
+        } catch (NoSuchMethodException e) {
+            // Java 8 or earlier
+        }
+        PID_METHOD = pid;
+    }
+
     public static boolean commandPresent(String executablePath, File workingDir) {
         boolean present = false;
         if (logger.isDebugEnabled()) {
@@ -94,4 +112,93 @@ public final class ProcessUtils {
 
         return present;
     }
+
+    /**
+     * Kills the provided process together with all its descendant processes, e.g. the helper processes spawned by a
+     * converter. On Unix-like systems the process tree is walked using <code>pgrep -P</code>; elsewhere only the
+     * process itself is destroyed.
+     * 
+     * @param process
+     *            the process to be killed
+     */
+    public static void destroyTree(Process process) {
+        long pid = getPid(process);
+        if (pid > 0) {
+            killTree(pid);
+        }
+        process.destroy();
+    }
+
+    /**
+     * Returns the operating system identifier of the provided process or <code>-1</code> if it cannot be determined.
+     * The <code>Process.pid()</code> method is used when running on Java 9 or later; on older versions the identifier
+     * is read from the Unix process implementation.
+     * 
+     * @param process
+     *            the process
+     * @return the operating system identifier of the provided process or <code>-1</code> if it cannot be determined
+     */
+    public static long getPid(Process process) {
+        try {
+            if (PID_METHOD != null) {
+                return ((Number) PID_METHOD.invoke(process)).longValue();
+            }
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (Exception e) {
+            if (!pidUnavailableLogged) {
+                pidUnavailableLogged = true;
+                logger.warn("Unable to determine the identifier of the started processes ({}). Only the processes"
+                        + " themselves, not their child processes, will be killed on timeout.", e.toString());
+            }
+            return -1;
+        }
+    }
+
+    private static void killTree(long pid) {
+        // stop the process first, so that it does not spawn new children while they are collected
+        signal(pid, "STOP");
+        Process pgrep = null;
+        try {
+            pgrep = new ProcessBuilder("pgrep", "-P", String.valueOf(pid)).redirectErrorStream(true).start();
+            for (String child : IOUtils.readLines(pgrep.getInputStream())) {
+                String childPid = child.trim();
+                if (childPid.length() > 0) {
+                    try {
+                        killTree(Long.parseLong(childPid));
+                    } catch (NumberFormatException e) {
+                        // ignore
+                    }
+                }
+            }
+            pgrep.waitFor();
+        } catch (Exception e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Unable to list child processes of " + pid + ". Cause: " + e.getMessage());
+            }
+        } finally {
+            if (pgrep != null) {
+                IOUtils.closeQuietly(pgrep.getInputStream());
+                IOUtils.closeQuietly(pgrep.getOutputStream());
+                IOUtils.closeQuietly(pgrep.getErrorStream());
+            }
+        }
+        signal(pid, "KILL");
+    }
+
+    private static void signal(long pid, String signal) {
+        try {
+            Process kill = new ProcessBuilder("kill", "-" + signal, String.valueOf(pid)).start();
+            kill.waitFor();
+            IOUtils.closeQuietly(kill.getInputStream());
+            IOUtils.closeQuietly(kill.getOutputStream());
+            IOUtils.closeQuietly(kill.getErrorStream());
+        } catch (Exception e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Unable to send signal " + signal + " to process " + pid + ". Cause: "
+                        + e.getMessage());
+            }
+        }
+    }
 }
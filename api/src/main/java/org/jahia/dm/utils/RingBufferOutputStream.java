@@ -0,0 +1,152 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.utils;
+
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Output stream, which keeps only the last <code>capacity</code> bytes written to it. Is used to capture the output of
+ * external processes with a bounded memory footprint: the tail of the output is usually the part, which explains a
+ * failure.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class RingBufferOutputStream extends OutputStream {
+
+    private final byte[] buffer;
+
+    private int position;
+
+    private long total;
+
+    /**
+     * Initializes an instance of this class.
+     * 
+     * @param capacity
+     *            the maximum number of bytes to be kept
+     */
+    public RingBufferOutputStream(int capacity) {
+        super();
+        buffer = new byte[Math.max(1, capacity)];
+    }
+
+    /**
+     * Returns the kept bytes in the order they were written.
+     * 
+     * @return the kept bytes in the order they were written
+     */
+    public synchronized byte[] toByteArray() {
+        if (total < buffer.length) {
+            byte[] result = new byte[position];
+            System.arraycopy(buffer, 0, result, 0, position);
+            return result;
+        }
+        byte[] result = new byte[buffer.length];
+        System.arraycopy(buffer, position, result, 0, buffer.length - position);
+        System.arraycopy(buffer, 0, result, buffer.length - position, position);
+        return result;
+    }
+
+    /**
+     * Returns the total number of bytes written to this stream, including the discarded ones.
+     * 
+     * @return the total number of bytes written to this stream
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns <code>true</code> if some of the written bytes were discarded.
+     * 
+     * @return <code>true</code> if some of the written bytes were discarded
+     */
+    public synchronized boolean isTruncated() {
+        return total > buffer.length;
+    }
+
+    /**
+     * Returns the kept output as a string, decoded using the platform encoding.
+     */
+    @Override
+    public String toString() {
+        return new String(toByteArray());
+    }
+
+    /**
+     * Returns the kept output as a string, decoded using the specified encoding.
+     * 
+     * @param encoding
+     *            the character encoding
+     * @return the kept output as a string
+     * @throws UnsupportedEncodingException
+     *             if the encoding is not supported
+     */
+    public String toString(String encoding) throws UnsupportedEncodingException {
+        return new String(toByteArray(), encoding);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        total += len;
+        if (len >= buffer.length) {
+            // only the tail of the chunk fits
+            System.arraycopy(b, off + len - buffer.length, buffer, 0, buffer.length);
+            position = 0;
+            return;
+        }
+        int first = Math.min(len, buffer.length - position);
+        System.arraycopy(b, off, buffer, position, first);
+        System.arraycopy(b, off + first, buffer, 0, len - first);
+        position = (position + len) % buffer.length;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        buffer[position] = (byte) b;
+        position = (position + 1) % buffer.length;
+        total++;
+    }
+}
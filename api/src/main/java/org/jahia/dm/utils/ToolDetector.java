@@ -0,0 +1,440 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jahia.dm.DocumentManagement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Detects the presence of the external tools (pdf2swf, ffmpeg etc.) in the background, so that the module start does
+ * not wait for the spawned processes. The detected path, version and capabilities of a tool are cached in memory and
+ * in a file, keyed by the modification time of the executable, so that the tool is not spawned again on a bundle or
+ * server restart unless the executable has changed. A tool, which was not found, is re-probed lazily on access after
+ * the retry interval; a tool, whose executable was removed or replaced, is re-probed after its next failed run.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class ToolDetector implements DisposableBean {
+
+    /**
+     * Detection status of an external tool.
+     */
+    public enum Status {
+        AVAILABLE, DETECTING, UNAVAILABLE;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    /**
+     * Detection result of an external tool.
+     */
+    public class Tool {
+
+        private volatile Set<String> capabilities = Collections.emptySet();
+
+        private final String executablePath;
+
+        private volatile long lastCheck;
+
+        private volatile long modified;
+
+        private volatile String path;
+
+        private volatile Status status = Status.DETECTING;
+
+        private volatile String version;
+
+        private final String[] versionArguments;
+
+        private final File workingDir;
+
+        Tool(String executablePath, File workingDir, String[] versionArguments) {
+            this.executablePath = executablePath;
+            this.workingDir = workingDir;
+            this.versionArguments = versionArguments;
+        }
+
+        /**
+         * Returns the build options of the tool, reported in its version information (e.g. <code>libx264</code> for
+         * ffmpeg configured with <code>--enable-libx264</code>).
+         * 
+         * @return the build options of the tool
+         */
+        public Set<String> getCapabilities() {
+            return capabilities;
+        }
+
+        public String getExecutablePath() {
+            return executablePath;
+        }
+
+        /**
+         * Returns the resolved location of the executable or <code>null</code> if it was not found in the path.
+         * 
+         * @return the resolved location of the executable or <code>null</code> if it was not found in the path
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the current detection status of the tool, triggering a new detection in the background if the tool
+         * was not available at the last check and the retry interval has passed.
+         * 
+         * @return the current detection status of the tool
+         */
+        public Status getStatus() {
+            if (status == Status.UNAVAILABLE && System.currentTimeMillis() - lastCheck > retryInterval) {
+                synchronized (this) {
+                    if (status == Status.UNAVAILABLE) {
+                        schedule(this);
+                    }
+                }
+            }
+            return status;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        /**
+         * Notifies about a failure to run the tool. If the executable was removed or replaced since the detection, the
+         * tool is marked as unavailable and its presence is checked again on the next access.
+         */
+        public void failed() {
+            if (status != Status.AVAILABLE) {
+                return;
+            }
+            File executable = resolve(executablePath);
+            if (executable != null && executable.getPath().equals(path) && executable.lastModified() == modified) {
+                // the executable is unchanged: the failure is related to the processed content
+                return;
+            }
+            logger.info("Command {} has changed or is no longer present. Its presence will be checked again.",
+                    executablePath);
+            forget(path);
+            status = Status.UNAVAILABLE;
+            lastCheck = 0;
+        }
+
+        /**
+         * Returns <code>true</code> if the tool is present and can be used.
+         * 
+         * @return <code>true</code> if the tool is present and can be used
+         */
+        public boolean isAvailable() {
+            return getStatus() == Status.AVAILABLE;
+        }
+
+        @Override
+        public String toString() {
+            return executablePath + " (" + status + (version != null ? ", " + version : "") + ")";
+        }
+    }
+
+    private static final Pattern CAPABILITY_PATTERN = Pattern.compile("--enable-([\\w-]+)");
+
+    private static final Logger logger = LoggerFactory.getLogger(ToolDetector.class);
+
+    private File cacheFile;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "dm-tool-detector");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private long retryInterval = 5 * 60 * 1000L;
+
+    private final ConcurrentMap<String, Tool> tools = new ConcurrentHashMap<String, Tool>();
+
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the detection result for the specified executable. If the executable was already detected, the known
+     * result is returned. If the executable is found in the path with the same modification time as at the last
+     * detection, the cached result is used. Otherwise the detection runs in the background and the returned tool
+     * reports the {@link Status#DETECTING} status until it is done.
+     * 
+     * @param executablePath
+     *            the executable name or path
+     * @param workingDir
+     *            the working directory for the process; can be <code>null</code>
+     * @param versionArguments
+     *            the arguments to print the version information of the tool, e.g. <code>-version</code>
+     * @return the detection result for the specified executable
+     */
+    public Tool detect(String executablePath, File workingDir, String... versionArguments) {
+        Tool tool = tools.get(executablePath);
+        if (tool != null) {
+            return tool;
+        }
+        tool = new Tool(executablePath, workingDir, versionArguments);
+        Tool existing = tools.putIfAbsent(executablePath, tool);
+        if (existing != null) {
+            return existing;
+        }
+
+        File executable = resolve(executablePath);
+        if (executable != null && readCached(tool, executable)) {
+            logger.info("Using cached detection result for {}: {}", executablePath, tool.version);
+        } else {
+            schedule(tool);
+        }
+
+        return tool;
+    }
+
+    private void doDetect(Tool tool) {
+        File executable = resolve(tool.executablePath);
+        String[] command = new String[tool.versionArguments.length + 1];
+        command[0] = executable != null ? executable.getPath() : tool.executablePath;
+        System.arraycopy(tool.versionArguments, 0, command, 1, tool.versionArguments.length);
+
+        logger.info("Checking if the {} is present in the current path", tool.executablePath);
+        try {
+            ProcessResult result = DocumentManagement.getInstance().getProcessExecutor()
+                    .execute(command, tool.workingDir);
+            // the tool is present if it could be started, some tools report their version with a non-zero exit code
+            String output = result.getOutput().length() > 0 ? result.getOutput() : result.getErrorOutput();
+            tool.path = command[0];
+            tool.modified = executable != null ? executable.lastModified() : 0;
+            tool.version = StringUtils.trimToNull(StringUtils.substringBefore(output.trim(), "\n"));
+            tool.capabilities = parseCapabilities(output);
+            tool.status = Status.AVAILABLE;
+            if (executable != null) {
+                store(tool, executable);
+            }
+            logger.info("Found {} ({}). Service will be enabled.", tool.executablePath, tool.version);
+        } catch (IOException e) {
+            tool.status = Status.UNAVAILABLE;
+            logger.info("Command {} cannot be found in the current system path. The service will be disabled.",
+                    tool.executablePath);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Unable to execute command " + tool.executablePath + ". Cause: " + e.getMessage(), e);
+            }
+        } finally {
+            tool.lastCheck = System.currentTimeMillis();
+        }
+    }
+
+    private synchronized void forget(String path) {
+        if (path == null || cacheFile == null) {
+            return;
+        }
+        Properties cache = load();
+        if (cache.remove(path + ".modified") != null) {
+            save(cache);
+        }
+    }
+
+    /**
+     * Returns the detection results of all known tools.
+     * 
+     * @return the detection results of all known tools
+     */
+    public Map<String, Tool> getTools() {
+        return Collections.unmodifiableMap(tools);
+    }
+
+    private Properties load() {
+        Properties cache = new Properties();
+        if (cacheFile != null && cacheFile.isFile()) {
+            InputStream is = null;
+            try {
+                is = new FileInputStream(cacheFile);
+                cache.load(is);
+            } catch (IOException e) {
+                logger.warn("Unable to read tool detection cache " + cacheFile + ". Cause: " + e.getMessage());
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+        }
+        return cache;
+    }
+
+    private static Set<String> parseCapabilities(String output) {
+        Set<String> capabilities = new LinkedHashSet<String>();
+        Matcher m = CAPABILITY_PATTERN.matcher(output);
+        while (m.find()) {
+            capabilities.add(m.group(1));
+        }
+        return Collections.unmodifiableSet(capabilities);
+    }
+
+    private synchronized boolean readCached(Tool tool, File executable) {
+        Properties cache = load();
+        String key = executable.getPath();
+        if (!String.valueOf(executable.lastModified()).equals(cache.getProperty(key + ".modified"))) {
+            return false;
+        }
+        tool.path = key;
+        tool.modified = executable.lastModified();
+        tool.version = cache.getProperty(key + ".version");
+        tool.capabilities = parseCapabilities(cache.getProperty(key + ".capabilities", ""));
+        tool.lastCheck = System.currentTimeMillis();
+        tool.status = Status.AVAILABLE;
+
+        return true;
+    }
+
+    /**
+     * Resolves the executable against the directories of the system path.
+     */
+    private static File resolve(String executablePath) {
+        File file = new File(executablePath);
+        if (executablePath.indexOf('/') != -1 || executablePath.indexOf(File.separatorChar) != -1) {
+            return file.isFile() ? file.getAbsoluteFile() : null;
+        }
+        String path = System.getenv("PATH");
+        if (path == null) {
+            path = System.getenv("Path");
+        }
+        if (path == null) {
+            return null;
+        }
+        String[] extensions = File.separatorChar == '\\' ? new String[] { "", ".exe", ".bat", ".cmd" }
+                : new String[] { "" };
+        for (String dir : StringUtils.split(path, File.pathSeparator)) {
+            for (String ext : extensions) {
+                File candidate = new File(dir, executablePath + ext);
+                if (candidate.isFile()) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private synchronized void save(Properties cache) {
+        OutputStream os = null;
+        try {
+            cacheFile.getParentFile().mkdirs();
+            os = new FileOutputStream(cacheFile);
+            cache.store(os, "Detected external tools");
+        } catch (IOException e) {
+            logger.warn("Unable to write tool detection cache " + cacheFile + ". Cause: " + e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    private void schedule(final Tool tool) {
+        tool.status = Status.DETECTING;
+        // prevent rescheduling until the detection is done
+        tool.lastCheck = System.currentTimeMillis();
+        executor.execute(new Runnable() {
+            public void run() {
+                doDetect(tool);
+            }
+        });
+    }
+
+    /**
+     * Sets the file, the detection results are persisted in; <code>null</code> to keep them in memory only.
+     * 
+     * @param cacheFile
+     *            the file to persist the detection results in
+     */
+    public void setCacheFile(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Sets the interval in seconds, after which a tool, which was not found, is checked again on access.
+     * 
+     * @param retryInterval
+     *            the interval in seconds, after which a missing tool is checked again
+     */
+    public void setRetryInterval(long retryInterval) {
+        this.retryInterval = retryInterval * 1000L;
+    }
+
+    private synchronized void store(Tool tool, File executable) {
+        if (cacheFile == null) {
+            return;
+        }
+        Properties cache = load();
+        String key = executable.getPath();
+        cache.setProperty(key + ".modified", String.valueOf(executable.lastModified()));
+        cache.setProperty(key + ".version", StringUtils.defaultString(tool.version));
+        StringBuilder capabilities = new StringBuilder();
+        for (String capability : tool.capabilities) {
+            capabilities.append("--enable-").append(capability).append(' ');
+        }
+        cache.setProperty(key + ".capabilities", capabilities.toString().trim());
+        save(cache);
+    }
+}
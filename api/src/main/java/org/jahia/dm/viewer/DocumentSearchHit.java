@@ -0,0 +1,122 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.viewer;
+
+import java.io.Serializable;
+
+/**
+ * Represents a single match of the in-document text search. The position of the match is expressed as fractions (0..1)
+ * of the page width and height with the origin in the top left corner of the page, so that it can be mapped to any
+ * rendering size of the page.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class DocumentSearchHit implements Serializable {
+
+    private static final long serialVersionUID = -3480587725049717063L;
+
+    private float height;
+
+    private int page;
+
+    private float width;
+
+    private float x;
+
+    private float y;
+
+    /**
+     * Initializes an instance of this class.
+     * 
+     * @param page
+     *            the page number (1-based)
+     * @param x
+     *            the left coordinate of the match as a fraction of the page width
+     * @param y
+     *            the top coordinate of the match as a fraction of the page height
+     * @param width
+     *            the width of the match as a fraction of the page width
+     * @param height
+     *            the height of the match as a fraction of the page height
+     */
+    public DocumentSearchHit(int page, float x, float y, float width, float height) {
+        super();
+        this.page = page;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the page number (1-based) of the match.
+     * 
+     * @return the page number (1-based) of the match
+     */
+    public int getPage() {
+        return page;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentSearchHit [page=" + page + ", x=" + x + ", y=" + y + ", width=" + width
+                + ", height=" + height + "]";
+    }
+}
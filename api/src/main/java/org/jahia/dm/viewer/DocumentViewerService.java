@@ -46,6 +46,7 @@ package org.jahia.dm.viewer;
 import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
 
 import javax.jcr.RepositoryException;
 
@@ -60,6 +61,33 @@ import org.jahia.services.content.JCRNodeWrapper;
  */
 public interface DocumentViewerService extends Serviceable {
 
+    /**
+     * Name of the property on the view node, which holds the number of pages, already available in the view. Is lower
+     * than the page count of the document while the view is being progressively generated.
+     */
+    String PAGES_READY = "j:pagesReady";
+
+    /**
+     * Name of the property on the view node, which holds the state of the progressively generated view: one of
+     * {@link #VIEW_STATUS_IN_PROGRESS}, {@link #VIEW_STATUS_COMPLETE} or {@link #VIEW_STATUS_FAILED}.
+     */
+    String VIEW_STATUS = "j:viewStatus";
+
+    /**
+     * All pages of the document are available in the view.
+     */
+    String VIEW_STATUS_COMPLETE = "complete";
+
+    /**
+     * The remaining pages of the document could not be converted; the view contains the first pages only.
+     */
+    String VIEW_STATUS_FAILED = "failed";
+
+    /**
+     * The first pages of the document are available in the view, the remaining ones are being converted.
+     */
+    String VIEW_STATUS_IN_PROGRESS = "inProgress";
+
     /**
      * Returns <code>true</code> if an SWF can be generated for the supplied document, i.e. the document viewer service is enabled and the
      * document format satisfies the requirements.
@@ -104,7 +132,10 @@ public interface DocumentViewerService extends Serviceable {
      * @return the output stream with the converted SWF content
      * @throws DocumentOperationException
      *             in case of a conversion error
+     * @deprecated the returned stream cannot be used to read the converted content; use
+     *             {@link #convertToStream(InputStream)} instead
      */
+    @Deprecated
     OutputStream convert(InputStream inputPdfStream) throws DocumentOperationException;
 
     /**
@@ -121,6 +152,18 @@ public interface DocumentViewerService extends Serviceable {
     boolean convert(InputStream inputPdfStream, OutputStream outputSwfStream)
             throws DocumentOperationException;
 
+    /**
+     * Converts the provided PDF input stream into SWF and returns a stream for reading the converted content. The
+     * returned stream must be closed after use to release the resources of the conversion.
+     * 
+     * @param inputPdfStream
+     *            the source PDF input stream
+     * @return the stream for reading the converted SWF content or <code>null</code> if the service is disabled
+     * @throws DocumentOperationException
+     *             in case of a conversion error
+     */
+    InputStream convertToStream(InputStream inputPdfStream) throws DocumentOperationException;
+
     /**
      * Creates the PDF view for the specified file node.
      * 
@@ -137,6 +180,21 @@ public interface DocumentViewerService extends Serviceable {
     boolean createPdfViewForNode(JCRNodeWrapper fileNode) throws RepositoryException,
             DocumentOperationException;
 
+    /**
+     * Completes the SWF view of the document, which first pages were created in the progressive mode (see
+     * {@link #createViewForNode(JCRNodeWrapper, boolean)}). Only the remaining pages are converted, in chunks, which
+     * are appended to the view as soon as they are ready, updating the {@link #PAGES_READY} property. The text layer
+     * is stored once all pages are available. Is called by the background job.
+     * 
+     * @param fileNode
+     *            the node to complete the view for
+     * @param pdfFile
+     *            the PDF representation of the document; if <code>null</code> the document is read or converted again
+     * @return <code>true</code> if the view was completed; <code>false</code> if the conversion failed, in which case
+     *         the view is marked as {@link #VIEW_STATUS_FAILED failed}
+     */
+    boolean createRemainingPages(JCRNodeWrapper fileNode, File pdfFile);
+
     /**
      * Creates the SWF view for the specified file node.
      * 
@@ -152,4 +210,47 @@ public interface DocumentViewerService extends Serviceable {
      */
     boolean createViewForNode(JCRNodeWrapper fileNode) throws RepositoryException,
             DocumentOperationException;
+
+    /**
+     * Creates the SWF view for the specified file node. In progressive mode only the first pages of the document are
+     * converted and stored synchronously together with the page geometry and the poster image, so that the view can
+     * be displayed immediately, and the remaining pages are converted in a background job (see
+     * {@link #createRemainingPages(JCRNodeWrapper, File)}). A document, which has no more pages than are converted
+     * first, is converted completely. The number of pages, available in the view, is exposed in the
+     * {@link #PAGES_READY} property of the view node and its state in the {@link #VIEW_STATUS} property.
+     * 
+     * @param fileNode
+     *            the node to create a view for
+     * @param progressive
+     *            if set to <code>true</code> only the first pages are converted synchronously
+     * @return <code>true</code> if the view was successfully created; returns <code>false</code> if e.g. the service is disabled or the
+     *         document cannot be converted to the required format
+     * @throws RepositoryException
+     *             in case of an error
+     * @throws DocumentOperationException
+     *             in case of a document conversion error
+     * 
+     */
+    boolean createViewForNode(JCRNodeWrapper fileNode, boolean progressive) throws RepositoryException,
+            DocumentOperationException;
+
+    /**
+     * Searches the text layer of the document, which is extracted when the view of the document is created, for the
+     * specified text. The search is case- and accent-insensitive; multiple words are matched as a phrase.
+     * 
+     * @param fileNode
+     *            the document node to search in
+     * @param text
+     *            the text to search for
+     * @param maxHits
+     *            the maximum number of matches to return
+     * @return the list of matches, ordered by page and position; an empty list is returned if there are no matches or
+     *         the document has no text layer
+     * @throws RepositoryException
+     *             in case of a JCR error
+     * @throws DocumentOperationException
+     *             in case the text layer cannot be read
+     */
+    List<DocumentSearchHit> search(JCRNodeWrapper fileNode, String text, int maxHits)
+            throws RepositoryException, DocumentOperationException;
 }
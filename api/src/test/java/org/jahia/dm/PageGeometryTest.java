@@ -0,0 +1,111 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link PageGeometry}.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class PageGeometryTest {
+
+    @Test
+    public void testAddPages() {
+        PDPage portrait = new PDPage(PDPage.PAGE_SIZE_LETTER);
+        PDPage landscape = new PDPage(PDPage.PAGE_SIZE_LETTER);
+        landscape.setRotation(90);
+        PDPage cropped = new PDPage(PDPage.PAGE_SIZE_A4);
+        cropped.setCropBox(new PDRectangle(500, 700));
+
+        PageGeometry geometry = new PageGeometry();
+        geometry.addPages(Arrays.asList(portrait, landscape, cropped));
+
+        assertEquals("612x792,792x612,500x700", geometry.toString());
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, PageGeometry.parse(null).getPageCount());
+        assertEquals(0, PageGeometry.parse("").getPageCount());
+        assertEquals("", new PageGeometry().toString());
+    }
+
+    @Test
+    public void testParse() {
+        PageGeometry geometry = PageGeometry.parse("612x792*10,792x612,612x792*3");
+
+        assertEquals(14, geometry.getPageCount());
+        assertEquals(612, geometry.getPageWidth(9));
+        assertEquals(792, geometry.getPageHeight(9));
+        assertEquals(792, geometry.getPageWidth(10));
+        assertEquals(612, geometry.getPageHeight(10));
+        assertEquals(612, geometry.getPageWidth(13));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        String pageSizes = "595x842,842x595*2,595x842*5";
+
+        assertEquals(pageSizes, PageGeometry.parse(pageSizes).toString());
+    }
+
+    @Test
+    public void testRunLengthEncoding() {
+        PageGeometry geometry = new PageGeometry();
+        geometry.addPage(612f, 792f);
+        geometry.addPage(611.6f, 792.4f);
+        geometry.addPage(792f, 612f);
+        geometry.addPage(612f, 792f);
+
+        assertEquals("612x792*2,792x612,612x792", geometry.toString());
+    }
+}
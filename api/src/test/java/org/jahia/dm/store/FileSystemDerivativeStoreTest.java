@@ -0,0 +1,152 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link FileSystemDerivativeStore}.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class FileSystemDerivativeStoreTest {
+
+    private static final byte[] CONTENT = "derivative content".getBytes();
+
+    // SHA-1 of the content
+    private static final String KEY = "c3d74b1331dc7d3103a769f5fd879d53b1bdfcdb";
+
+    private File rootDir;
+
+    private FileSystemDerivativeStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        rootDir = File.createTempFile("derivative-store-test", null);
+        rootDir.delete();
+        rootDir.mkdirs();
+        store = new FileSystemDerivativeStore();
+        store.setRootDir(rootDir);
+        store.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(rootDir);
+    }
+
+    private String read(String key) throws Exception {
+        InputStream is = store.getStream(key);
+        try {
+            return new String(IOUtils.toByteArray(is));
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    @Test
+    public void testDeleteUnreferenced() throws Exception {
+        String key = store.store(new ByteArrayInputStream(CONTENT));
+
+        assertEquals(0, store.deleteUnreferenced(Collections.singleton(key), Long.MAX_VALUE));
+        assertTrue(store.exists(key));
+
+        assertEquals(1, store.deleteUnreferenced(new HashSet<String>(), Long.MAX_VALUE));
+        assertFalse(store.exists(key));
+    }
+
+    @Test
+    public void testInvalidKey() throws Exception {
+        assertFalse(store.exists("../../etc/passwd"));
+        assertEquals(-1, store.getLength("abc"));
+        assertFalse(store.delete(null));
+    }
+
+    @Test
+    public void testStoreFile() throws Exception {
+        File file = File.createTempFile("derivative", null);
+        FileUtils.writeByteArrayToFile(file, CONTENT);
+
+        String key = store.store(file);
+
+        assertEquals(KEY, key);
+        assertFalse(file.exists());
+        assertEquals(CONTENT.length, store.getLength(key));
+        assertEquals(new String(CONTENT), read(key));
+        assertEquals(0, new File(rootDir, "tmp").list().length);
+    }
+
+    @Test
+    public void testStoreIdenticalContent() throws Exception {
+        File file = File.createTempFile("derivative", null);
+        FileUtils.writeByteArrayToFile(file, CONTENT);
+
+        assertEquals(store.store(new ByteArrayInputStream(CONTENT)), store.store(file));
+        assertFalse(file.exists());
+        assertEquals(new String(CONTENT), read(KEY));
+    }
+
+    @Test
+    public void testStoreStream() throws Exception {
+        String key = store.store(new ByteArrayInputStream(CONTENT));
+
+        assertEquals(KEY, key);
+        assertTrue(new File(rootDir, key.substring(0, 2) + "/" + key.substring(2, 4) + "/" + key).isFile());
+        assertEquals(new String(CONTENT), read(key));
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.jcr.Binary;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link BinaryRangeServer}, requesting an in-memory binary over HTTP.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class BinaryRangeServerTest {
+
+    private static final byte[] DATA = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes();
+
+    private static HttpURLConnection open(String url, String method, String range) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        return connection;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        InputStream is = connection.getInputStream();
+        try {
+            return IOUtils.toString(is, "US-ASCII");
+        } finally {
+            IOUtils.closeQuietly(is);
+            connection.disconnect();
+        }
+    }
+
+    private BinaryRangeServer server;
+
+    private String url;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new BinaryRangeServer(new Binary() {
+            public void dispose() {
+                // nothing to release
+            }
+
+            public long getSize() {
+                return DATA.length;
+            }
+
+            public InputStream getStream() {
+                return new ByteArrayInputStream(DATA);
+            }
+
+            public int read(byte[] b, long position) {
+                throw new UnsupportedOperationException();
+            }
+        }, "video/mp4");
+        url = server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testFullContent() throws Exception {
+        HttpURLConnection connection = open(url, "GET", null);
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("video/mp4", connection.getContentType());
+        assertEquals("bytes", connection.getHeaderField("Accept-Ranges"));
+        assertEquals(new String(DATA), read(connection));
+        assertEquals(DATA.length, server.getBytesServed());
+    }
+
+    @Test
+    public void testHead() throws Exception {
+        HttpURLConnection connection = open(url, "HEAD", null);
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(String.valueOf(DATA.length), connection.getHeaderField("Content-Length"));
+        connection.disconnect();
+        assertEquals(0, server.getBytesServed());
+    }
+
+    @Test
+    public void testOpenEndedRange() throws Exception {
+        HttpURLConnection connection = open(url, "GET", "bytes=30-");
+
+        assertEquals(206, connection.getResponseCode());
+        assertEquals("bytes 30-35/36", connection.getHeaderField("Content-Range"));
+        assertEquals("uvwxyz", read(connection));
+    }
+
+    @Test
+    public void testRange() throws Exception {
+        HttpURLConnection connection = open(url, "GET", "bytes=10-15");
+
+        assertEquals(206, connection.getResponseCode());
+        assertEquals("bytes 10-15/36", connection.getHeaderField("Content-Range"));
+        assertEquals("abcdef", read(connection));
+        assertEquals(6, server.getBytesServed());
+    }
+
+    @Test
+    public void testSuffixRange() throws Exception {
+        HttpURLConnection connection = open(url, "GET", "bytes=-4");
+
+        assertEquals(206, connection.getResponseCode());
+        assertEquals("wxyz", read(connection));
+    }
+
+    @Test
+    public void testUnknownPath() throws Exception {
+        HttpURLConnection connection = open(url.substring(0, url.lastIndexOf('/')) + "/other", "GET", null);
+
+        assertEquals(404, connection.getResponseCode());
+        connection.disconnect();
+    }
+
+    @Test
+    public void testUnsatisfiableRange() throws Exception {
+        HttpURLConnection connection = open(url, "GET", "bytes=36-");
+
+        assertEquals(416, connection.getResponseCode());
+        assertTrue(connection.getHeaderField("Content-Range").endsWith("/36"));
+        connection.disconnect();
+    }
+}
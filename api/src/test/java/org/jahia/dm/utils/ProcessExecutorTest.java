@@ -0,0 +1,131 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Collections;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link ProcessExecutor}, using the shell and <code>cat</code> of Unix-like systems.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class ProcessExecutorTest {
+
+    private ProcessExecutor executor;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(File.separatorChar == '/');
+        executor = new ProcessExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.destroy();
+        }
+    }
+
+    @Test
+    public void testExecute() throws Exception {
+        ProcessResult result = executor.execute(new String[] { "sh", "-c", "echo out; echo err >&2; exit 3" },
+                null);
+
+        assertEquals(3, result.getExitValue());
+        assertFalse(result.isSuccess());
+        assertFalse(result.isTimedOut());
+        assertEquals("out\n", result.getOutput());
+        assertEquals("err\n", result.getErrorOutput());
+        assertEquals(1, executor.getMetrics().get("sh").getExecutions());
+        assertEquals(1, executor.getMetrics().get("sh").getFailures());
+    }
+
+    @Test
+    public void testOutputLimit() throws Exception {
+        ProcessResult result = executor.execute(new String[] { "sh", "-c", "printf 0123456789" }, null, 4);
+
+        assertTrue(result.isSuccess());
+        assertEquals("6789", result.getOutput());
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        InputStream in = executor.startStreaming(new String[] { "cat" }, new ByteArrayInputStream(
+                "streamed data".getBytes("UTF-8")), null);
+        try {
+            assertEquals("streamed data", IOUtils.toString(in, "UTF-8"));
+        } finally {
+            in.close();
+        }
+
+        assertEquals(1, executor.getMetrics().get("cat").getExecutions());
+        assertEquals(0, executor.getMetrics().get("cat").getRunning());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        executor.setTimeouts(Collections.singletonMap("sh", 1L));
+        long timer = System.currentTimeMillis();
+
+        ProcessResult result = executor.execute(new String[] { "sh", "-c", "sleep 30" }, null);
+
+        assertTrue(result.isTimedOut());
+        assertFalse(result.isSuccess());
+        assertTrue(System.currentTimeMillis() - timer < 10000);
+        assertEquals(1, executor.getMetrics().get("sh").getTimeouts());
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link RingBufferOutputStream}.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class RingBufferOutputStreamTest {
+
+    @Test
+    public void testLargeChunk() throws Exception {
+        RingBufferOutputStream out = new RingBufferOutputStream(4);
+        out.write("ab".getBytes("US-ASCII"));
+        out.write("0123456789".getBytes("US-ASCII"));
+
+        assertEquals("6789", out.toString("US-ASCII"));
+        assertEquals(12, out.getTotal());
+        assertTrue(out.isTruncated());
+    }
+
+    @Test
+    public void testNotTruncated() throws Exception {
+        RingBufferOutputStream out = new RingBufferOutputStream(8);
+        out.write("abc".getBytes("US-ASCII"));
+        out.write('d');
+
+        assertEquals("abcd", out.toString("US-ASCII"));
+        assertEquals(4, out.getTotal());
+        assertFalse(out.isTruncated());
+    }
+
+    @Test
+    public void testWrapAround() throws Exception {
+        RingBufferOutputStream out = new RingBufferOutputStream(5);
+        out.write("abc".getBytes("US-ASCII"));
+        out.write("defg".getBytes("US-ASCII"));
+        out.write('h');
+
+        assertEquals("defgh", out.toString("US-ASCII"));
+        assertEquals(8, out.getTotal());
+        assertTrue(out.isTruncated());
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.dm.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import org.apache.commons.io.FileUtils;
+import org.jahia.dm.utils.ToolDetector.Status;
+import org.jahia.dm.utils.ToolDetector.Tool;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link ToolDetector}, using a shell script as the detected tool on Unix-like systems.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class ToolDetectorTest {
+
+    private static Status await(Tool tool) throws InterruptedException {
+        for (int i = 0; i < 100 && tool.getStatus() == Status.DETECTING; i++) {
+            Thread.sleep(100);
+        }
+        return tool.getStatus();
+    }
+
+    private File cacheFile;
+
+    private ToolDetector detector;
+
+    private File dir;
+
+    private File executable;
+
+    private boolean cacheFileMentionsModified() throws IOException {
+        return FileUtils.readFileToString(cacheFile).contains(".modified");
+    }
+
+    private ToolDetector createDetector() {
+        ToolDetector toolDetector = new ToolDetector();
+        toolDetector.setCacheFile(cacheFile);
+        return toolDetector;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue(File.separatorChar == '/');
+        dir = File.createTempFile("tool-detector-test", "");
+        dir.delete();
+        dir.mkdirs();
+        executable = new File(dir, "tool");
+        FileUtils.writeStringToFile(executable, "#!/bin/sh\necho 'tool version 1.2'\n"
+                + "echo 'configuration: --enable-gpl --enable-libx264'\n");
+        executable.setExecutable(true);
+        cacheFile = new File(dir, "tools.properties");
+        detector = createDetector();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (detector != null) {
+            detector.destroy();
+        }
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void testCachedResult() throws Exception {
+        assertEquals(Status.AVAILABLE, await(detector.detect(executable.getPath(), null, "-version")));
+
+        ToolDetector other = createDetector();
+        try {
+            // the unchanged executable is not started again
+            Tool tool = other.detect(executable.getPath(), null, "-version");
+            assertEquals(Status.AVAILABLE, tool.getStatus());
+            assertEquals("tool version 1.2", tool.getVersion());
+        } finally {
+            other.destroy();
+        }
+    }
+
+    @Test
+    public void testDetect() throws Exception {
+        Tool tool = detector.detect(executable.getPath(), null, "-version");
+
+        assertEquals(Status.AVAILABLE, await(tool));
+        assertTrue(tool.isAvailable());
+        assertEquals(executable.getPath(), tool.getPath());
+        assertEquals("tool version 1.2", tool.getVersion());
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("gpl", "libx264")), tool.getCapabilities());
+        assertTrue(tool == detector.detect(executable.getPath(), null, "-version"));
+    }
+
+    @Test
+    public void testFailedAfterChange() throws Exception {
+        Tool tool = detector.detect(executable.getPath(), null, "-version");
+        assertEquals(Status.AVAILABLE, await(tool));
+
+        // a failure with an unchanged executable is related to the processed content
+        tool.failed();
+        assertTrue(tool.isAvailable());
+
+        assertTrue(executable.setLastModified(executable.lastModified() - 60000));
+        tool.failed();
+        assertFalse(cacheFileMentionsModified());
+        // the next access detects the tool again
+        assertEquals(Status.AVAILABLE, await(tool));
+        assertTrue(cacheFileMentionsModified());
+    }
+
+    @Test
+    public void testMissing() throws Exception {
+        Tool tool = detector.detect(new File(dir, "missing").getPath(), null, "-version");
+
+        assertEquals(Status.UNAVAILABLE, await(tool));
+        assertFalse(tool.isAvailable());
+    }
+}
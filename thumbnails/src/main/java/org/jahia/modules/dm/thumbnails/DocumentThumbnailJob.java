@@ -71,7 +71,9 @@ public class DocumentThumbnailJob extends DocumentOperationJob {
     protected void doOperation(JCRNodeWrapper documentNode, JobExecutionContext jobExecutionContext)
             throws Exception {
         DocumentThumbnailService service = DocumentManagement.getInstance().getDocumentThumbnailService();
-        if (service == null || !service.isEnabled()) {
+        String mimeType = documentNode.getFileContent().getContentType();
+        if (service == null || !service.isEnabled() && !service.canRenderText(mimeType)
+                && !service.canReadSubsampled(mimeType)) {
             logger.info(
                     "Thumbnail generation service is not enabled. Skipping generation of a thumbnail for node {}",
                     documentNode.getPath());
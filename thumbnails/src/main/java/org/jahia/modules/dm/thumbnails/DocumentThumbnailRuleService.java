@@ -73,6 +73,33 @@ public class DocumentThumbnailRuleService {
 
     private DocumentThumbnailService thumbnailService;
 
+    /**
+     * Returns <code>true</code> if the thumbnail of the provided document is generated from its first image, read with
+     * subsampling, i.e. for large raster images, which does not require the PDF to image converter.
+     *
+     * @param nodeFact the document node
+     * @return <code>true</code> if the thumbnail of the provided document is generated from its first image, read with
+     *         subsampling
+     * @throws RepositoryException in case of an error
+     */
+    public boolean canReadSubsampled(AddedNodeFact nodeFact) throws RepositoryException {
+        return thumbnailService != null
+                && thumbnailService.canReadSubsampled(nodeFact.getNode().getFileContent().getContentType());
+    }
+
+    /**
+     * Returns <code>true</code> if the thumbnail of the provided document is rendered directly as text, i.e. for plain
+     * text, CSV, Markdown and HTML documents, which does not require the PDF to image converter.
+     *
+     * @param nodeFact the document node
+     * @return <code>true</code> if the thumbnail of the provided document is rendered directly as text
+     * @throws RepositoryException in case of an error
+     */
+    public boolean canRenderText(AddedNodeFact nodeFact) throws RepositoryException {
+        return thumbnailService != null
+                && thumbnailService.canRenderText(nodeFact.getNode().getFileContent().getContentType());
+    }
+
     /**
      * Generates thumbnail of the specified size for the provided document node.
      *
@@ -84,7 +111,8 @@ public class DocumentThumbnailRuleService {
      */
     public void createThumbnail(AddedNodeFact nodeFact, String thumbnailName, int thumbnailSize,
                                 KnowledgeHelper drools) throws RepositoryException {
-        if (thumbnailService == null || !thumbnailService.isEnabled()) {
+        if (thumbnailService == null || !thumbnailService.isEnabled() && !canRenderText(nodeFact)
+                && !canReadSubsampled(nodeFact)) {
             if (logger.isDebugEnabled()) {
                 logger.debug(
                         "Thumbnail generation service is not enabled. Skipping generation for node {}",
@@ -43,6 +43,12 @@
  */
 package org.jahia.modules.dm.thumbnails.impl;
 
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.InputStream;
+
+import org.jahia.dm.DocumentOperationException;
+
 /**
  * Creates images for PDF document pages.
  * 
@@ -52,6 +58,16 @@ abstract class AbstractPDF2ImageConverterService implements PDF2ImageConverter {
 
     private boolean enabled = true;
 
+    public BufferedImage getImageOfPage(File pdfFile, int pageNumber)
+            throws DocumentOperationException {
+        return getImageOfPage(pdfFile, pageNumber, null);
+    }
+
+    public BufferedImage getImageOfPage(InputStream pdfInputStream, int pageNumber)
+            throws DocumentOperationException {
+        return getImageOfPage(pdfInputStream, pageNumber, null);
+    }
+
     public boolean isEnabled() {
         return enabled;
     }
@@ -45,23 +45,27 @@ package org.jahia.modules.dm.thumbnails.impl;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Set;
 
 import javax.imageio.ImageIO;
 import javax.jcr.Binary;
-import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.lang.StringUtils;
 import org.apache.jackrabbit.value.BinaryImpl;
 import org.jahia.api.Constants;
 import org.jahia.dm.DocumentOperationException;
+import org.jahia.dm.DocumentSource;
+import org.jahia.dm.PageGeometry;
 import org.jahia.dm.thumbnails.DocumentThumbnailService;
+import org.jahia.dm.utils.DerivativeUtils;
 import org.jahia.services.content.JCRContentUtils;
 import org.jahia.services.content.JCRNodeWrapper;
 import org.jahia.services.image.JahiaImageService;
@@ -79,19 +83,38 @@ public class DocumentThumbnailServiceImpl implements DocumentThumbnailService {
 
     private static final Logger logger = LoggerFactory.getLogger(DocumentThumbnailServiceImpl.class);
 
+    private static final String[] VIEW_NODES = { "swfView", "pdfView" };
+
+    private boolean decodeScannedPages = true;
+
     private DocumentConverterService documentConverter;
 
     private boolean enabled = true;
 
+    private OfficeFirstPageConverter firstPageConverter;
+
     private JahiaImageService imageService;
 
     private PDF2ImageConverter pdf2ImageConverter;
 
+    private Set<String> rasterImageTypes = Collections.emptySet();
+
     private String[] supportedDocumentFormats;
     
+    private TextPreviewRenderer textRenderer;
+
+    private boolean useEmbeddedPreviews = true;
+
     private boolean usePNGForThumbnailImage = true;
 
     public boolean canHandle(JCRNodeWrapper fileNode) throws RepositoryException {
+        if (fileNode.isNodeType("nt:file")) {
+            String mimeType = fileNode.getFileContent().getContentType();
+            if (canRenderText(mimeType) || canReadSubsampled(mimeType)) {
+                // rendered directly: the PDF to image converter is not needed
+                return true;
+            }
+        }
         if (!isEnabled() || supportedDocumentFormats == null) {
             if (logger.isDebugEnabled()) {
                 logger.debug(
@@ -107,13 +130,22 @@ public class DocumentThumbnailServiceImpl implements DocumentThumbnailService {
             String mimeType = fileNode.getFileContent().getContentType();
             canHandle = JCRContentUtils.isMimeTypeGroup(mimeType, supportedDocumentFormats);
             if (canHandle && !JCRContentUtils.isMimeTypeGroup(mimeType, "pdf")) {
-                // if the document is not a PDF and the document converter service is not enabled, we cannot handle the file
-                canHandle = documentConverter != null && documentConverter.isEnabled();
+                // if the document is not a PDF and no document converter is enabled, we cannot handle the file
+                canHandle = documentConverter != null && documentConverter.isEnabled() || firstPageConverter != null
+                        && firstPageConverter.isEnabled();
             }
         }
         return canHandle;
     }
 
+    public boolean canReadSubsampled(String mimeType) {
+        return enabled && isRasterImage(mimeType);
+    }
+
+    public boolean canRenderText(String mimeType) {
+        return enabled && textRenderer != null && textRenderer.canRender(mimeType);
+    }
+
     public boolean createThumbnailForNode(JCRNodeWrapper fileNode, String thumbnailName,
             int thumbnailSize) throws RepositoryException, DocumentOperationException {
         if (!canHandle(fileNode)) {
@@ -126,12 +158,14 @@ public class DocumentThumbnailServiceImpl implements DocumentThumbnailService {
 
         BufferedImage image = null;
         BufferedImage thumbnail = null;
+        PageGeometry geometry = new PageGeometry();
         try {
-            image = getImageOfFirstPageForNode(fileNode);
+            image = getImageOfFirstPageForNode(fileNode, geometry, thumbnailSize);
 
             if (image != null) {
                 thumbnail = imageService.resizeImage(image, thumbnailSize, thumbnailSize, ResizeType.ADJUST_SIZE);
                 thumbNode = storeThumbnailNode(fileNode, thumbnail, thumbnailName);
+                storeGeometry(fileNode, thumbNode, geometry);
                 if (logger.isDebugEnabled()) {
                     logger.debug("Generated thumbnail {} for node {} in {} ms", new Object[] {
                             thumbNode.getPath(), fileNode.getPath(),
@@ -154,50 +188,121 @@ public class DocumentThumbnailServiceImpl implements DocumentThumbnailService {
 
     public BufferedImage getImageOfFirstPageForNode(JCRNodeWrapper fileNode)
             throws RepositoryException, DocumentOperationException {
+        return getImageOfFirstPageForNode(fileNode, null);
+    }
+
+    /**
+     * Generates a full-size image for the first page of the specified document, collecting the page count and page
+     * sizes of the document from the same parse.
+     * 
+     * @param fileNode
+     *            the JCR file node to generate image for
+     * @param geometry
+     *            the page geometry to be filled in; can be <code>null</code>
+     * @return the generated image for the first page
+     * @throws RepositoryException
+     *             in case of a JCR operation error
+     * @throws DocumentOperationException
+     *             if the document conversion exception occurs
+     */
+    protected BufferedImage getImageOfFirstPageForNode(JCRNodeWrapper fileNode, PageGeometry geometry)
+            throws RepositoryException, DocumentOperationException {
+        return getImageOfFirstPageForNode(fileNode, geometry, 0);
+    }
+
+    /**
+     * Generates an image for the first page of the specified document. Plain text, CSV, Markdown and simple HTML
+     * documents are rendered directly; for large raster images, e.g. multi-page TIFF, the first image is read
+     * subsampled. For Office Open XML and OpenDocument files the preview image, embedded into the
+     * package, is used if it has at least the specified size; the document is converted into PDF only if there is no
+     * such preview; only the first page is converted if LibreOffice is available for it. The page geometry is not
+     * collected if the direct rendering, the embedded preview or the first page conversion is used: it is taken from
+     * the document view then. For scanned PDF
+     * documents the page image is decoded directly, subsampled to about the specified size, instead of rendering the
+     * page. If no size is specified, a full-size image is generated: embedded previews and scanned page images are
+     * not used then.
+     * 
+     * @param fileNode
+     *            the JCR file node to generate image for
+     * @param geometry
+     *            the page geometry to be filled in; can be <code>null</code>
+     * @param size
+     *            the size of the longer side of the target image in pixels; <code>0</code> for a full-size image
+     * @return the generated image for the first page
+     * @throws RepositoryException
+     *             in case of a JCR operation error
+     * @throws DocumentOperationException
+     *             if the document conversion exception occurs
+     */
+    protected BufferedImage getImageOfFirstPageForNode(JCRNodeWrapper fileNode, PageGeometry geometry,
+            int size) throws RepositoryException, DocumentOperationException {
         BufferedImage image = null;
 
         long timer = System.currentTimeMillis();
         String sourceContentType = fileNode.getFileContent().getContentType();
-        InputStream pdfInputStream = null;
+        DocumentSource source = null;
         File pdfFile = null;
         try {
-            if (JCRContentUtils.isMimeTypeGroup(sourceContentType, "pdf")) {
-                pdfInputStream = fileNode.getFileContent().downloadFile();
+            boolean text = textRenderer != null && textRenderer.canRender(sourceContentType);
+            // the source is read in place if it is kept in a file data store; only the beginning of a text is
+            // rendered, so it is streamed instead of copied otherwise
+            source = text ? null : DocumentSource.get(fileNode);
+            if (text) {
+                InputStream in = DocumentSource.openStream(fileNode);
+                try {
+                    image = textRenderer.render(in, sourceContentType, size);
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+            } else if (isRasterImage(sourceContentType)) {
+                image = SubsampledImageReader.read(source.getFile(), size);
+            } else if (JCRContentUtils.isMimeTypeGroup(sourceContentType, "pdf")) {
+                if (decodeScannedPages && size > 0) {
+                    image = ScannedPdfPreviewExtractor.extract(source.getFile(), size, geometry);
+                }
+                if (image == null) {
+                    image = pdf2ImageConverter.getImageOfPage(source.getFile(), 0, geometry);
+                }
+            } else if (useEmbeddedPreviews && size > 0
+                    && (image = PackagePreviewExtractor.extract(source.getFile(), size)) != null) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Using the preview, embedded into the document {}", fileNode.getPath());
+                }
             } else {
-                if (documentConverter == null || !documentConverter.isEnabled()) {
+                boolean firstPageOnly = firstPageConverter != null && firstPageConverter.isEnabled();
+                if (!firstPageOnly && (documentConverter == null || !documentConverter.isEnabled())) {
                     logger.info("Document conversion service is not enabled."
                             + " Cannot convert node {} into a PDF. Skip generating image.",
                             fileNode.getPath());
                     return null;
                 } else {
                     long timerPdf = System.currentTimeMillis();
-                    File inFile = null;
-                    try {
-                        inFile = File.createTempFile("doc-thumbnail-source", null);
-                        JCRContentUtils.downloadFileContent(fileNode, inFile);
-                        pdfFile = documentConverter.convert(inFile, sourceContentType,
+                    if (firstPageOnly) {
+                        pdfFile = firstPageConverter.convertFirstPage(source.getFile(), sourceContentType);
+                    }
+                    // the PDF of the first page only does not tell the geometry of the document
+                    PageGeometry pdfGeometry = pdfFile != null ? null : geometry;
+                    if (pdfFile == null && documentConverter != null && documentConverter.isEnabled()) {
+                        pdfFile = documentConverter.convert(source.getFile(), sourceContentType,
                                 "application/pdf");
-                        pdfInputStream = new FileInputStream(pdfFile);
-                    } catch (IOException e) {
-                        throw new DocumentOperationException(
-                                "Error occurred trying to generate an image for the first page of the node {}"
-                                        + fileNode.getPath(), e);
-                    } finally {
-                        FileUtils.deleteQuietly(inFile);
-
-                        if (pdfInputStream != null && logger.isDebugEnabled()) {
+                    }
+                    if (pdfFile != null) {
+                        if (logger.isDebugEnabled()) {
                             logger.debug("Converted document {} into a PDF document in {} ms",
                                     fileNode.getPath(), System.currentTimeMillis() - timerPdf);
                         }
+                        image = pdf2ImageConverter.getImageOfPage(pdfFile, 0, pdfGeometry);
                     }
                 }
             }
-
-            if (pdfInputStream != null) {
-                image = pdf2ImageConverter.getImageOfPage(pdfInputStream, 0);
-            }
+        } catch (IOException e) {
+            throw new DocumentOperationException(
+                    "Error occurred trying to generate an image for the first page of the node "
+                            + fileNode.getPath(), e);
         } finally {
-            IOUtils.closeQuietly(pdfInputStream);
+            if (source != null) {
+                source.close();
+            }
             FileUtils.deleteQuietly(pdfFile);
 
             if (image != null && logger.isDebugEnabled()) {
@@ -224,6 +329,15 @@ public class DocumentThumbnailServiceImpl implements DocumentThumbnailService {
         return enabled && pdf2ImageConverter != null && pdf2ImageConverter.isEnabled();
     }
 
+    private boolean isRasterImage(String mimeType) {
+        return mimeType != null
+                && rasterImageTypes.contains(StringUtils.substringBefore(mimeType, ";").trim().toLowerCase());
+    }
+
+    public void setDecodeScannedPages(boolean decodeScannedPages) {
+        this.decodeScannedPages = decodeScannedPages;
+    }
+
     public void setDocumentConverter(DocumentConverterService documentConverter) {
         this.documentConverter = documentConverter;
     }
@@ -232,6 +346,10 @@ public class DocumentThumbnailServiceImpl implements DocumentThumbnailService {
         this.enabled = enabled;
     }
 
+    public void setFirstPageConverter(OfficeFirstPageConverter firstPageConverter) {
+        this.firstPageConverter = firstPageConverter;
+    }
+
     public void setImageService(JahiaImageService imageService) {
         this.imageService = imageService;
     }
@@ -240,14 +358,64 @@ public class DocumentThumbnailServiceImpl implements DocumentThumbnailService {
         this.pdf2ImageConverter = service;
     }
 
+    /**
+     * Sets the MIME types of raster images, e.g. TIFF, which first image is read with subsampling.
+     * 
+     * @param rasterImageTypes
+     *            the MIME types of raster images, which first image is read with subsampling
+     */
+    public void setRasterImageTypes(Set<String> rasterImageTypes) {
+        this.rasterImageTypes = rasterImageTypes;
+    }
+
     public void setSupportedDocumentFormats(String[] supportedDocumentFormats) {
         this.supportedDocumentFormats = supportedDocumentFormats;
     }
 
+    public void setTextRenderer(TextPreviewRenderer textRenderer) {
+        this.textRenderer = textRenderer;
+    }
+
+    public void setUseEmbeddedPreviews(boolean useEmbeddedPreviews) {
+        this.useEmbeddedPreviews = useEmbeddedPreviews;
+    }
+
     public void setUsePNGForThumbnailImage(boolean usePNGForThumbnailImage) {
         this.usePNGForThumbnailImage = usePNGForThumbnailImage;
     }
 
+    /**
+     * Records the page geometry of the document on the thumbnail node. If the geometry was not collected while
+     * generating the thumbnail, e.g. only the first page of an office document was converted, the one of the
+     * document view is taken, if the viewer has already converted the document; otherwise the viewer fills it in on
+     * conversion.
+     * 
+     * @param fileNode
+     *            the document node
+     * @param thumbNode
+     *            the thumbnail node
+     * @param geometry
+     *            the page geometry, collected while generating the thumbnail
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    protected void storeGeometry(JCRNodeWrapper fileNode, JCRNodeWrapper thumbNode, PageGeometry geometry)
+            throws RepositoryException {
+        if (geometry.getPageCount() > 0) {
+            geometry.store(thumbNode);
+            return;
+        }
+        for (String view : VIEW_NODES) {
+            if (fileNode.hasNode(view)) {
+                PageGeometry viewGeometry = PageGeometry.read(fileNode.getNode(view));
+                if (viewGeometry != null) {
+                    viewGeometry.store(thumbNode);
+                    return;
+                }
+            }
+        }
+    }
+
     protected JCRNodeWrapper storeThumbnailNode(JCRNodeWrapper fileNode, BufferedImage thumbnail,
             String thumbnailName) throws RepositoryException, IOException {
         JCRNodeWrapper node = null;
@@ -256,12 +424,9 @@ public class DocumentThumbnailServiceImpl implements DocumentThumbnailService {
             return null;
         }
 
-        fileNode.getSession().checkout(fileNode);
-
-        try {
-            node = fileNode.getNode(thumbnailName);
-        } catch (PathNotFoundException e) {
-            node = fileNode.addNode(thumbnailName, Constants.JAHIANT_RESOURCE);
+        node = DerivativeUtils.getDerivativeNode(fileNode, thumbnailName, Constants.JAHIANT_RESOURCE,
+                null);
+        if (!node.isNodeType("jmix:size")) {
             node.addMixin("jmix:size");
         }
 
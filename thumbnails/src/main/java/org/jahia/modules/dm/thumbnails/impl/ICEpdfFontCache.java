@@ -0,0 +1,230 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.icepdf.core.pobjects.fonts.FontManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists the results of the ICEpdf system font scan in a file, so that the fonts are not scanned again after a
+ * restart. The cache is invalidated when the content of the font directories changes, which is detected by comparing
+ * the names, sizes and modification times of the font files.
+ * 
+ * @author Sergiy Shyrkov
+ */
+final class ICEpdfFontCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ICEpdfFontCache.class);
+
+    private static final String SIGNATURE = "dm.fontDirectoriesSignature";
+
+    private final File cacheFile;
+
+    private final String[] fontPaths;
+
+    ICEpdfFontCache(File cacheFile, String[] fontPaths) {
+        this.cacheFile = cacheFile;
+        this.fontPaths = fontPaths;
+    }
+
+    /**
+     * Returns the directories, which ICEpdf scans for fonts on the current platform, including the configured ones.
+     */
+    private List<File> getFontDirectories() {
+        List<File> dirs = new ArrayList<File>();
+        String os = System.getProperty("os.name", "").toLowerCase();
+        String home = System.getProperty("user.home");
+        if (os.contains("win")) {
+            String windir = System.getenv("WINDIR");
+            dirs.add(new File(windir != null ? windir : "C:\\Windows", "Fonts"));
+        } else if (os.contains("mac")) {
+            dirs.add(new File("/Library/Fonts"));
+            dirs.add(new File("/System/Library/Fonts"));
+            dirs.add(new File(home, "Library/Fonts"));
+        } else {
+            dirs.add(new File("/usr/share/fonts"));
+            dirs.add(new File("/usr/local/share/fonts"));
+            dirs.add(new File("/usr/X11R6/lib/X11/fonts"));
+            dirs.add(new File(home, ".fonts"));
+        }
+        dirs.add(new File(System.getProperty("java.home"), "lib/fonts"));
+        if (fontPaths != null) {
+            for (String path : fontPaths) {
+                dirs.add(new File(path));
+            }
+        }
+        return dirs;
+    }
+
+    /**
+     * Computes a checksum over the paths, sizes and modification times of the files in the font directories and their
+     * sub-directories. The modification time of a directory is not reliable, e.g. a font file, replaced in place, or
+     * a package, which preserves the times of the installed files, does not change it.
+     */
+    String getSignature() {
+        CRC32 crc = new CRC32();
+        for (File dir : getFontDirectories()) {
+            update(crc, dir);
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Initializes the ICEpdf font manager, either from the cached font properties if the font directories are
+     * unchanged, or by scanning the system fonts and caching the result.
+     */
+    void initialize() {
+        long timer = System.currentTimeMillis();
+        FontManager fontManager = FontManager.getInstance();
+        String signature = getSignature();
+
+        Properties cached = load();
+        if (signature.equals(cached.remove(SIGNATURE)) && !cached.isEmpty()) {
+            try {
+                fontManager.setFontProperties(cached);
+                logger.info("Loaded {} cached font entries in {} ms", cached.size(),
+                        System.currentTimeMillis() - timer);
+                return;
+            } catch (Exception e) {
+                logger.warn("Cached font information is invalid and will be rebuilt. Cause: " + e.getMessage());
+            }
+        }
+
+        fontManager.readSystemFonts(fontPaths);
+        Properties scanned = fontManager.getFontProperties();
+        logger.info("Scanned system fonts in {} ms", System.currentTimeMillis() - timer);
+        if (scanned != null && !scanned.isEmpty()) {
+            Properties toStore = new Properties();
+            toStore.putAll(scanned);
+            toStore.setProperty(SIGNATURE, signature);
+            store(toStore);
+        }
+    }
+
+    private Properties load() {
+        Properties props = new Properties();
+        if (cacheFile == null || !cacheFile.isFile()) {
+            return props;
+        }
+        InputStream is = null;
+        try {
+            is = new FileInputStream(cacheFile);
+            props.load(is);
+        } catch (IOException e) {
+            logger.warn("Unable to read font cache " + cacheFile + ". Cause: " + e.getMessage());
+            props.clear();
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        return props;
+    }
+
+    private void store(Properties props) {
+        if (cacheFile == null) {
+            return;
+        }
+        // several worker JVMs may initialize their fonts at the same time: the file is replaced atomically
+        File tmp = null;
+        OutputStream os = null;
+        try {
+            cacheFile.getParentFile().mkdirs();
+            tmp = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+            os = new FileOutputStream(tmp);
+            props.store(os, "ICEpdf font cache");
+            os.close();
+            if (!tmp.renameTo(cacheFile)) {
+                FileUtils.deleteQuietly(cacheFile);
+                if (!tmp.renameTo(cacheFile)) {
+                    throw new IOException("Unable to rename " + tmp + " to " + cacheFile);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to write font cache " + cacheFile + ". Cause: " + e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(os);
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+    private static void update(CRC32 crc, File dir) {
+        if (!dir.isDirectory()) {
+            return;
+        }
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                update(crc, child);
+            } else {
+                crc.update(child.getPath().getBytes());
+                update(crc, child.length());
+                update(crc, child.lastModified());
+            }
+        }
+    }
+
+    private static void update(CRC32 crc, long value) {
+        for (int i = 0; i < 8; i++) {
+            crc.update((int) (value >>> (i * 8)));
+        }
+    }
+}
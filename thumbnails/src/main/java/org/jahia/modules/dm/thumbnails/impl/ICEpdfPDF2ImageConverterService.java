@@ -44,28 +44,159 @@
 package org.jahia.modules.dm.thumbnails.impl;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.icepdf.core.pobjects.Document;
+import org.icepdf.core.pobjects.PDimension;
 import org.icepdf.core.pobjects.Page;
 import org.icepdf.core.util.GraphicsRenderingHints;
 import org.jahia.dm.DocumentOperationException;
+import org.jahia.dm.PageGeometry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 
 /**
  * Creates images for PDF document pages using ICEpdf library.
  * 
  * @author Sergiy Shyrkov
  */
-public class ICEpdfPDF2ImageConverterService extends AbstractPDF2ImageConverterService {
+public class ICEpdfPDF2ImageConverterService extends AbstractPDF2ImageConverterService implements
+        InitializingBean, DisposableBean {
 
     private static final Logger logger = LoggerFactory
             .getLogger(ICEpdfPDF2ImageConverterService.class);
 
-    public BufferedImage getImageOfPage(File pdfFile, int pageNumber)
+    private static final long WARM_UP_WAIT = 5;
+
+    private File fontCacheFile;
+
+    private String[] fontPaths;
+
+    private boolean warmUp = true;
+
+    private final CountDownLatch warmedUp = new CountDownLatch(1);
+
+    private Thread warmUpThread;
+
+    /**
+     * Starts the renderer warm-up in the background: the font manager is initialized (from the font cache if it is
+     * still valid) and a small generated document is rendered to load the rendering classes. The warm-up is disabled
+     * in the configuration if the pages are rendered in worker JVMs, which initialize their fonts themselves.
+     */
+    public void afterPropertiesSet() throws Exception {
+        if (!warmUp) {
+            warmedUp.countDown();
+            return;
+        }
+        warmUpThread = new Thread(new Runnable() {
+            public void run() {
+                long timer = System.currentTimeMillis();
+                try {
+                    new ICEpdfFontCache(fontCacheFile, fontPaths).initialize();
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    renderWarmUpDocument();
+                    logger.info("ICEpdf renderer warmed up in {} ms", System.currentTimeMillis() - timer);
+                } catch (Throwable e) {
+                    logger.warn("Unable to warm up ICEpdf renderer. Cause: " + e.getMessage(), e);
+                } finally {
+                    warmedUp.countDown();
+                }
+            }
+        }, "dm-icepdf-warm-up");
+        warmUpThread.setDaemon(true);
+        warmUpThread.setPriority(Thread.MIN_PRIORITY);
+        warmUpThread.start();
+    }
+
+    /**
+     * Waits shortly for the warm-up to finish, so that a conversion does not trigger a second font scan. A conversion
+     * is not blocked for the whole duration of a first font scan.
+     */
+    private void awaitWarmUp() {
+        try {
+            if (!warmedUp.await(WARM_UP_WAIT, TimeUnit.SECONDS)) {
+                logger.warn("ICEpdf renderer warm-up is not finished after {} seconds. Continuing.", WARM_UP_WAIT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void collectGeometry(Document document, PageGeometry geometry) {
+        if (geometry == null) {
+            return;
+        }
+        for (int i = 0; i < document.getNumberOfPages(); i++) {
+            PDimension size = document.getPageDimension(i, 0);
+            geometry.addPage(size.getWidth(), size.getHeight());
+        }
+    }
+
+    /**
+     * Generates a one-page PDF document with a text in a standard font, which requires the font substitution.
+     */
+    private static byte[] createWarmUpDocument() {
+        String content = "BT /F1 24 Tf 20 50 Td (Warm-up) Tj ET";
+        String[] objects = new String[] {
+                "<< /Type /Catalog /Pages 2 0 R >>",
+                "<< /Type /Pages /Kids [3 0 R] /Count 1 >>",
+                "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 200 100] /Resources << /Font << /F1 5 0 R >> >> /Contents 4 0 R >>",
+                "<< /Length " + content.length() + " >>\nstream\n" + content + "\nendstream",
+                "<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica >>" };
+
+        StringBuilder pdf = new StringBuilder(1024);
+        pdf.append("%PDF-1.4\n");
+        List<Integer> offsets = new ArrayList<Integer>(objects.length);
+        for (int i = 0; i < objects.length; i++) {
+            offsets.add(pdf.length());
+            pdf.append(i + 1).append(" 0 obj\n").append(objects[i]).append("\nendobj\n");
+        }
+        int xref = pdf.length();
+        pdf.append("xref\n0 ").append(objects.length + 1).append("\n0000000000 65535 f \n");
+        for (Integer offset : offsets) {
+            pdf.append(String.format("%010d 00000 n \n", offset));
+        }
+        pdf.append("trailer\n<< /Size ").append(objects.length + 1).append(" /Root 1 0 R >>\nstartxref\n")
+                .append(xref).append("\n%%EOF\n");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(pdf.length());
+        for (int i = 0; i < pdf.length(); i++) {
+            out.write(pdf.charAt(i));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Stops the warm-up thread if it is still running, so that it does not outlive the module.
+     */
+    public void destroy() throws Exception {
+        Thread t = warmUpThread;
+        warmUpThread = null;
+        if (t != null && t.isAlive()) {
+            t.interrupt();
+            t.join(TimeUnit.SECONDS.toMillis(WARM_UP_WAIT));
+            if (t.isAlive()) {
+                logger.warn("ICEpdf renderer warm-up thread did not stop within {} seconds", WARM_UP_WAIT);
+            }
+        }
+        warmedUp.countDown();
+    }
+
+    public BufferedImage getImageOfPage(File pdfFile, int pageNumber, PageGeometry geometry)
             throws DocumentOperationException {
+        awaitWarmUp();
+
         BufferedImage image = null;
 
         long timer = System.currentTimeMillis();
@@ -76,6 +207,7 @@ public class ICEpdfPDF2ImageConverterService extends AbstractPDF2ImageConverterS
             document.setFile(pdfFile.getPath());
             image = (BufferedImage) document.getPageImage(pageNumber, GraphicsRenderingHints.PRINT,
                     Page.BOUNDARY_CROPBOX, 0, 1);
+            collectGeometry(document, geometry);
             if (image != null && logger.isDebugEnabled()) {
                 logger.debug("Generated an image for the page {} of the file {} in {} ms",
                         new Object[] { pageNumber, pdfFile, (System.currentTimeMillis() - timer) });
@@ -97,8 +229,10 @@ public class ICEpdfPDF2ImageConverterService extends AbstractPDF2ImageConverterS
         return image;
     }
 
-    public BufferedImage getImageOfPage(InputStream pdfInputStream, int pageNumber)
-            throws DocumentOperationException {
+    public BufferedImage getImageOfPage(InputStream pdfInputStream, int pageNumber,
+            PageGeometry geometry) throws DocumentOperationException {
+        awaitWarmUp();
+
         BufferedImage image = null;
 
         long timer = System.currentTimeMillis();
@@ -109,6 +243,7 @@ public class ICEpdfPDF2ImageConverterService extends AbstractPDF2ImageConverterS
             document.setInputStream(pdfInputStream, null);
             image = (BufferedImage) document.getPageImage(pageNumber, GraphicsRenderingHints.PRINT,
                     Page.BOUNDARY_CROPBOX, 0, 1);
+            collectGeometry(document, geometry);
 
             if (image != null && logger.isDebugEnabled()) {
                 logger.debug(
@@ -132,4 +267,44 @@ public class ICEpdfPDF2ImageConverterService extends AbstractPDF2ImageConverterS
         return image;
     }
 
+    private void renderWarmUpDocument() throws Exception {
+        Document document = new Document();
+        try {
+            document.setInputStream(new ByteArrayInputStream(createWarmUpDocument()), null);
+            document.getPageImage(0, GraphicsRenderingHints.PRINT, Page.BOUNDARY_CROPBOX, 0, 1);
+        } finally {
+            document.dispose();
+        }
+    }
+
+    /**
+     * Sets the file, the results of the system font scan are cached in; <code>null</code> to scan the fonts on each
+     * start.
+     * 
+     * @param fontCacheFile
+     *            the file to cache the font scan results in
+     */
+    public void setFontCacheFile(File fontCacheFile) {
+        this.fontCacheFile = fontCacheFile;
+    }
+
+    /**
+     * Sets additional directories to scan for fonts.
+     * 
+     * @param fontPaths
+     *            additional directories to scan for fonts
+     */
+    public void setFontPaths(String[] fontPaths) {
+        this.fontPaths = fontPaths != null && fontPaths.length > 0 ? fontPaths : null;
+    }
+
+    /**
+     * Enables or disables the renderer warm-up at start.
+     * 
+     * @param warmUp
+     *            set to <code>true</code> to warm up the renderer in the background at start
+     */
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
 }
@@ -0,0 +1,181 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.artofsolving.jodconverter.document.DocumentFamily;
+import org.artofsolving.jodconverter.document.DocumentFormat;
+import org.jahia.dm.DocumentOperationException;
+import org.jahia.services.transform.DocumentConverterService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts only the first page (slide, sheet page) of an office document into PDF, using the document converter
+ * service of Jahia with the <code>PageRange</code> option of the PDF export filter. This is used for thumbnails, which
+ * need only the first page, to avoid converting large documents in full. The conversion runs in the office instances,
+ * managed by the converter service.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class OfficeFirstPageConverter {
+
+    private static final String FILTER_DATA = "FilterData";
+
+    private static final Logger logger = LoggerFactory.getLogger(OfficeFirstPageConverter.class);
+
+    private static final String PDF = "application/pdf";
+
+    /**
+     * Returns a copy of the PDF output format, which exports only the first page of documents of the specified
+     * family, or <code>null</code> if the format does not support that family.
+     */
+    @SuppressWarnings("unchecked")
+    private static DocumentFormat getFirstPageFormat(DocumentFormat pdfFormat, DocumentFamily family) {
+        Map<String, ?> storeProperties = pdfFormat.getStoreProperties(family);
+        if (storeProperties == null) {
+            return null;
+        }
+        Map<String, Object> properties = new HashMap<String, Object>(storeProperties);
+        Map<String, Object> filterData = new HashMap<String, Object>();
+        if (properties.get(FILTER_DATA) instanceof Map) {
+            filterData.putAll((Map<String, Object>) properties.get(FILTER_DATA));
+        }
+        filterData.put("PageRange", "1");
+        properties.put(FILTER_DATA, filterData);
+
+        DocumentFormat format = new DocumentFormat(pdfFormat.getName(), pdfFormat.getExtension(),
+                pdfFormat.getMediaType());
+        format.setStoreProperties(family, properties);
+        return format;
+    }
+
+    private DocumentConverterService documentConverter;
+
+    private boolean enabled = true;
+
+    /**
+     * Converts the first page of the specified document into PDF.
+     * 
+     * @param inputFile
+     *            the document file
+     * @param mimeType
+     *            the MIME type of the document
+     * @return the PDF file with the first page of the document or <code>null</code> if the document format does not
+     *         support the page range or the conversion did not succeed
+     * @throws DocumentOperationException
+     *             in case of a conversion error
+     */
+    public File convertFirstPage(File inputFile, String mimeType) throws DocumentOperationException {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        DocumentFormat inputFormat = documentConverter.getFormatByMimeType(mimeType);
+        DocumentFormat pdfFormat = documentConverter.getFormatByMimeType(PDF);
+        if (inputFormat == null || inputFormat.getInputFamily() == null || pdfFormat == null) {
+            return null;
+        }
+        DocumentFormat outputFormat = getFirstPageFormat(pdfFormat, inputFormat.getInputFamily());
+        if (outputFormat == null) {
+            return null;
+        }
+
+        long timer = System.currentTimeMillis();
+        File out = null;
+        try {
+            out = File.createTempFile("doc-first-page", ".pdf");
+            documentConverter.convert(inputFile, inputFormat, out, outputFormat);
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(out);
+            throw new DocumentOperationException("Unable to convert the first page of " + inputFile, e);
+        } catch (RuntimeException e) {
+            FileUtils.deleteQuietly(out);
+            logger.warn("First page conversion of {} failed: {}", inputFile, e.getMessage());
+            return null;
+        }
+        if (out.length() == 0) {
+            FileUtils.deleteQuietly(out);
+            logger.warn("First page conversion of {} produced no output", inputFile);
+            return null;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Converted the first page of {} into PDF in {} ms", inputFile, System.currentTimeMillis()
+                    - timer);
+        }
+
+        return out;
+    }
+
+    /**
+     * Returns <code>true</code> if the first page conversion is enabled and the document converter service is
+     * available.
+     * 
+     * @return <code>true</code> if the first page conversion is enabled and the document converter service is
+     *         available
+     */
+    public boolean isEnabled() {
+        return enabled && documentConverter != null && documentConverter.isEnabled();
+    }
+
+    public void setDocumentConverter(DocumentConverterService documentConverter) {
+        this.documentConverter = documentConverter;
+    }
+
+    /**
+     * Enables or disables the first page conversion.
+     * 
+     * @param enabled
+     *            set to <code>false</code> to always convert office documents in full
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+}
@@ -48,6 +48,7 @@ import java.io.File;
 import java.io.InputStream;
 
 import org.jahia.dm.DocumentOperationException;
+import org.jahia.dm.PageGeometry;
 import org.jahia.services.Serviceable;
 
 /**
@@ -83,4 +84,38 @@ public interface PDF2ImageConverter extends Serviceable {
      */
     BufferedImage getImageOfPage(InputStream pdfInputStream, int pageNumber)
             throws DocumentOperationException;
-}
\ No newline at end of file
+
+    /**
+     * Generates an image for the specified page of the document, collecting the page count and page sizes of the
+     * document from the same parse.
+     * 
+     * @param pdfFile
+     *            the PDF file to generate image for
+     * @param pageNumber
+     *            the page number to generate the image for
+     * @param geometry
+     *            the page geometry to be filled in; can be <code>null</code>
+     * @return the generated image for the specified page
+     * @throws DocumentOperationException
+     *             if the document conversion exception occurs
+     */
+    BufferedImage getImageOfPage(File pdfFile, int pageNumber, PageGeometry geometry)
+            throws DocumentOperationException;
+
+    /**
+     * Generates an image for the specified page of the document, collecting the page count and page sizes of the
+     * document from the same parse.
+     * 
+     * @param pdfInputStream
+     *            the input stream of the PDF document to generate image for
+     * @param pageNumber
+     *            the page number to generate the image for
+     * @param geometry
+     *            the page geometry to be filled in; can be <code>null</code>
+     * @return the generated image for the specified page
+     * @throws DocumentOperationException
+     *             if the document conversion exception occurs
+     */
+    BufferedImage getImageOfPage(InputStream pdfInputStream, int pageNumber, PageGeometry geometry)
+            throws DocumentOperationException;
+}
@@ -0,0 +1,209 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.icepdf.core.pobjects.Document;
+import org.icepdf.core.pobjects.PDimension;
+import org.icepdf.core.pobjects.Page;
+import org.icepdf.core.util.GraphicsRenderingHints;
+
+/**
+ * Entry point of a forked worker JVM, which renders PDF pages with ICEpdf outside of the Jahia heap. The worker reads
+ * requests from its standard input and writes the responses to its standard output; besides ICEpdf it depends only on
+ * the SLF4J API and Commons IO (for the font cache), so that its class path stays small. See {@link WorkerPDF2ImageConverterService} for the pool of workers.
+ * <p>
+ * Arguments: the path of the font cache file (an empty string if fonts should be scanned without caching), followed
+ * by additional font directories. The font manager is initialized before the first request is read, so that the
+ * rendering of the first page does not pay for the font scan.
+ * <p>
+ * Request: an <code>int</code> operation code; for {@link #RENDER} followed by the PDF file path (UTF), the page number
+ * (<code>int</code>) and a flag (<code>boolean</code>) whether the page sizes should be collected.<br>
+ * Response: an <code>int</code> status code and the used heap of the worker (<code>long</code>); for {@link #OK}
+ * followed by the page count (<code>int</code>, <code>-1</code> if not collected), the width and height of each page
+ * (<code>float</code>), the image width and height (<code>int</code>, <code>-1</code> if there is no image), the alpha
+ * flag (<code>boolean</code>) and the ARGB pixels of the image as one block of <code>width * height * 4</code> bytes
+ * in big-endian order; for {@link #ERROR} followed by the fatal flag (<code>boolean</code>) and the error message
+ * (UTF).
+ * 
+ * @author Sergiy Shyrkov
+ */
+public final class PDF2ImageWorker {
+
+    static final int ERROR = 1;
+
+    static final int EXIT = 3;
+
+    static final int OK = 0;
+
+    static final int PING = 2;
+
+    static final int RENDER = 1;
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out, 64 * 1024));
+        // nothing else may write to the protocol stream
+        System.setOut(System.err);
+
+        File fontCacheFile = args.length > 0 && args[0].length() > 0 ? new File(args[0]) : null;
+        String[] fontPaths = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : null;
+        try {
+            new ICEpdfFontCache(fontCacheFile, fontPaths).initialize();
+        } catch (Throwable e) {
+            System.err.println("Unable to initialize fonts: " + e);
+        }
+
+        while (true) {
+            int op;
+            try {
+                op = in.readInt();
+            } catch (EOFException e) {
+                // the parent process is gone
+                break;
+            }
+            if (op == EXIT) {
+                break;
+            } else if (op == PING) {
+                writeStatus(out, OK);
+                out.flush();
+            } else if (op == RENDER) {
+                String path = in.readUTF();
+                int pageNumber = in.readInt();
+                boolean geometry = in.readBoolean();
+                boolean fatal = render(path, pageNumber, geometry, out);
+                out.flush();
+                if (fatal) {
+                    // the heap state is not reliable after an out of memory error
+                    System.exit(1);
+                }
+            } else {
+                throw new IOException("Unknown operation " + op);
+            }
+        }
+    }
+
+    private static boolean render(String path, int pageNumber, boolean collectGeometry, DataOutputStream out)
+            throws IOException {
+        Document document = new Document();
+        BufferedImage image;
+        float[] sizes = null;
+        try {
+            document.setFile(path);
+            image = (BufferedImage) document.getPageImage(pageNumber, GraphicsRenderingHints.PRINT,
+                    Page.BOUNDARY_CROPBOX, 0, 1);
+            if (collectGeometry) {
+                sizes = new float[document.getNumberOfPages() * 2];
+                for (int i = 0; i < document.getNumberOfPages(); i++) {
+                    PDimension size = document.getPageDimension(i, 0);
+                    sizes[i * 2] = size.getWidth();
+                    sizes[i * 2 + 1] = size.getHeight();
+                }
+            }
+        } catch (Throwable e) {
+            boolean fatal = e instanceof OutOfMemoryError;
+            image = null;
+            writeStatus(out, ERROR);
+            out.writeBoolean(fatal);
+            out.writeUTF(String.valueOf(e));
+            return fatal;
+        } finally {
+            try {
+                document.dispose();
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+
+        writeStatus(out, OK);
+        if (sizes != null) {
+            out.writeInt(sizes.length / 2);
+            for (float size : sizes) {
+                out.writeFloat(size);
+            }
+        } else {
+            out.writeInt(-1);
+        }
+        if (image != null) {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeBoolean(image.getColorModel().hasAlpha());
+            // the pixels are sent as a single block instead of an int at a time
+            int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+            image.flush();
+            byte[] data = new byte[pixels.length * 4];
+            ByteBuffer.wrap(data).asIntBuffer().put(pixels);
+            pixels = null;
+            out.write(data);
+        } else {
+            out.writeInt(-1);
+            out.writeInt(-1);
+        }
+
+        return false;
+    }
+
+    private static void writeStatus(DataOutputStream out, int status) throws IOException {
+        out.writeInt(status);
+        Runtime rt = Runtime.getRuntime();
+        out.writeLong(rt.totalMemory() - rt.freeMemory());
+    }
+
+    private PDF2ImageWorker() {
+        super();
+    }
+}
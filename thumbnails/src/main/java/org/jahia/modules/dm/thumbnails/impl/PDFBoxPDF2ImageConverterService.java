@@ -44,17 +44,15 @@
 package org.jahia.modules.dm.thumbnails.impl;
 
 import java.awt.image.BufferedImage;
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.jahia.dm.DocumentOperationException;
+import org.jahia.dm.PageGeometry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -72,35 +70,45 @@ public class PDFBoxPDF2ImageConverterService extends AbstractPDF2ImageConverterS
 
     private int resolution = 96;
 
-    public BufferedImage getImageOfPage(File pdfFile, int pageNumber)
+    private static void close(PDDocument pdfDoc) {
+        if (pdfDoc != null) {
+            try {
+                pdfDoc.close();
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+    }
+
+    public BufferedImage getImageOfPage(File pdfFile, int pageNumber, PageGeometry geometry)
             throws DocumentOperationException {
         BufferedImage image = null;
 
         long timer = System.currentTimeMillis();
 
-        InputStream is = null;
+        PDDocument pdfDoc = null;
         try {
-            is = new BufferedInputStream(new FileInputStream(pdfFile));
-            image = getImageOfPage(is, pageNumber);
+            pdfDoc = PDDocument.load(pdfFile);
+            image = getImageOfPage(pdfDoc, pageNumber, geometry);
 
             if (image != null && logger.isDebugEnabled()) {
                 logger.debug("Generated an image for the page {} of the file {} in {} ms",
                         new Object[] { pageNumber, pdfFile, (System.currentTimeMillis() - timer) });
 
             }
-        } catch (FileNotFoundException e) {
+        } catch (IOException e) {
             throw new DocumentOperationException(
                     "Error occurred trying to generate an image for the page " + pageNumber
                             + " of the file " + pdfFile, e);
         } finally {
-            IOUtils.closeQuietly(is);
+            close(pdfDoc);
         }
 
         return image;
     }
 
-    public BufferedImage getImageOfPage(InputStream pdfInputStream, int pageNumber)
-            throws DocumentOperationException {
+    public BufferedImage getImageOfPage(InputStream pdfInputStream, int pageNumber,
+            PageGeometry geometry) throws DocumentOperationException {
         BufferedImage image = null;
 
         long timer = System.currentTimeMillis();
@@ -108,28 +116,34 @@ public class PDFBoxPDF2ImageConverterService extends AbstractPDF2ImageConverterS
         PDDocument pdfDoc = null;
         try {
             pdfDoc = PDDocument.load(pdfInputStream);
-            PDPage page = (PDPage) pdfDoc.getDocumentCatalog().getAllPages().get(pageNumber);
-            image = page.convertToImage(imageType, resolution);
+            image = getImageOfPage(pdfDoc, pageNumber, geometry);
 
             if (image != null && logger.isDebugEnabled()) {
                 logger.debug(
                         "Generated an image for the page {} of the supplied input stream in {} ms",
                         pageNumber, (System.currentTimeMillis() - timer));
             }
-        } catch (IndexOutOfBoundsException e) {
-            logger.warn("No page with the number {} found in the PDF document", pageNumber);
         } catch (IOException e) {
             throw new DocumentOperationException(
                     "Error occurred trying to generate an image for the page " + pageNumber
                             + " of the supplied input stream", e);
         } finally {
-            try {
-                if (pdfDoc != null) {
-                    pdfDoc.close();
-                }
-            } catch (Exception e) {
-                // ignore
-            }
+            close(pdfDoc);
+        }
+
+        return image;
+    }
+
+    private BufferedImage getImageOfPage(PDDocument pdfDoc, int pageNumber, PageGeometry geometry)
+            throws IOException {
+        List<?> pages = pdfDoc.getDocumentCatalog().getAllPages();
+        if (pageNumber < 0 || pageNumber >= pages.size()) {
+            logger.warn("No page with the number {} found in the PDF document", pageNumber);
+            return null;
+        }
+        BufferedImage image = ((PDPage) pages.get(pageNumber)).convertToImage(imageType, resolution);
+        if (geometry != null) {
+            geometry.addPages(pages);
         }
 
         return image;
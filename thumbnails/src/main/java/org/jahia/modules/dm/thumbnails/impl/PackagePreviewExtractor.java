@@ -0,0 +1,218 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the preview image, embedded into Office Open XML (<code>docProps/thumbnail.*</code>) and OpenDocument
+ * (<code>Thumbnails/thumbnail.png</code>) packages, so that a thumbnail can be created without converting the document
+ * into PDF.
+ * 
+ * @author Sergiy Shyrkov
+ */
+final class PackagePreviewExtractor {
+
+    private static final String[] KNOWN_LOCATIONS = new String[] { "Thumbnails/thumbnail.png",
+            "docProps/thumbnail.jpeg", "docProps/thumbnail.jpg", "docProps/thumbnail.png" };
+
+    private static final Logger logger = LoggerFactory.getLogger(PackagePreviewExtractor.class);
+
+    private static final long MAX_PREVIEW_BYTES = 8L * 1024 * 1024;
+
+    private static final long MAX_PREVIEW_PIXELS = 4096L * 4096;
+
+    private static final long MAX_RELATIONSHIPS_BYTES = 1024L * 1024;
+
+    private static final Pattern THUMBNAIL_RELATIONSHIP = Pattern.compile(
+            "<Relationship\\s[^>]*Type=\"[^\"]*/metadata/thumbnail\"[^>]*>", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern TARGET = Pattern.compile("Target=\"([^\"]+)\"");
+
+    /**
+     * Returns the preview image, embedded into the specified document package, if it is present, can be decoded and
+     * has at least the specified size on its longer side. The uncompressed size of the package entries and the
+     * dimensions of the preview are checked before it is decoded, so that a crafted package cannot exhaust the memory.
+     * 
+     * @param file
+     *            the document file
+     * @param minSize
+     *            the minimum size of the longer side of the preview in pixels
+     * @return the embedded preview image or <code>null</code> if the document has no suitable one
+     */
+    static BufferedImage extract(File file, int minSize) {
+        ZipFile zip = null;
+        try {
+            zip = new ZipFile(file);
+            for (String location : getLocations(zip)) {
+                ZipEntry entry = zip.getEntry(location);
+                if (entry == null) {
+                    continue;
+                }
+                if (entry.getSize() < 0 || entry.getSize() > MAX_PREVIEW_BYTES) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Embedded preview {} of {} is too large ({} bytes)", new Object[] { location,
+                                file, entry.getSize() });
+                    }
+                    continue;
+                }
+                BufferedImage image = read(zip, entry, minSize);
+                if (image != null) {
+                    return image;
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Embedded preview {} of {} cannot be decoded or has an unsuitable size",
+                            location, file);
+                }
+            }
+        } catch (IOException e) {
+            // not a ZIP package, e.g. a legacy binary Office document
+            if (logger.isDebugEnabled()) {
+                logger.debug("Unable to read embedded preview of " + file + ". Cause: " + e.getMessage());
+            }
+        } finally {
+            if (zip != null) {
+                try {
+                    zip.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the candidate preview locations: the one, declared by the package relationships, followed by the
+     * well-known ones.
+     */
+    private static Set<String> getLocations(ZipFile zip) throws IOException {
+        Set<String> locations = new LinkedHashSet<String>();
+        ZipEntry rels = zip.getEntry("_rels/.rels");
+        if (rels != null && rels.getSize() >= 0 && rels.getSize() <= MAX_RELATIONSHIPS_BYTES) {
+            InputStream is = new BoundedInputStream(zip.getInputStream(rels), MAX_RELATIONSHIPS_BYTES);
+            try {
+                Matcher relationship = THUMBNAIL_RELATIONSHIP.matcher(IOUtils.toString(is, "UTF-8"));
+                if (relationship.find()) {
+                    Matcher target = TARGET.matcher(relationship.group());
+                    if (target.find()) {
+                        locations.add(StringUtils.removeStart(target.group(1), "/"));
+                    }
+                }
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+        }
+        for (String location : KNOWN_LOCATIONS) {
+            locations.add(location);
+        }
+        return locations;
+    }
+
+    /**
+     * Decodes the preview image if its dimensions, read from the image header, are within the limits.
+     */
+    private static BufferedImage read(ZipFile zip, ZipEntry entry, int minSize) {
+        ImageInputStream iis = null;
+        ImageReader reader = null;
+        try {
+            iis = ImageIO.createImageInputStream(new BoundedInputStream(zip.getInputStream(entry),
+                    MAX_PREVIEW_BYTES));
+            Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : null;
+            if (readers == null || !readers.hasNext()) {
+                // e.g. a WMF or EMF preview, which cannot be decoded
+                return null;
+            }
+            reader = readers.next();
+            reader.setInput(iis, true, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            if (Math.max(width, height) < minSize || (long) width * height > MAX_PREVIEW_PIXELS) {
+                return null;
+            }
+            return reader.read(0);
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // the decoders throw unchecked exceptions on some malformed images
+            return null;
+        } finally {
+            if (reader != null) {
+                reader.dispose();
+            }
+            if (iis != null) {
+                try {
+                    iis.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private PackagePreviewExtractor() {
+        super();
+    }
+}
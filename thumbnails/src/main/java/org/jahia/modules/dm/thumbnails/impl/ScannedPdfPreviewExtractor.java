@@ -0,0 +1,366 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdfparser.PDFStreamParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpaceFactory;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
+import org.apache.pdfbox.pdmodel.graphics.color.PDICCBased;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectImage;
+import org.apache.pdfbox.util.PDFOperator;
+import org.jahia.dm.PageGeometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fast path for scanned PDF documents: if the first page consists of a single full-page JPEG image (optionally with
+ * invisible OCR text) or carries an embedded page thumbnail (<code>/Thumb</code>) of sufficient size, the image is
+ * decoded directly, subsampled to about the requested size, instead of rendering the page. The document structure is
+ * read with PDFBox; only the image data is decoded with the standard image readers, which support subsampling. Scans
+ * stored as JBIG2, CCITT fax or JPEG 2000 images, which are common for black and white scans, have no such reader and
+ * are always rendered in full.
+ * 
+ * @author Sergiy Shyrkov
+ */
+final class ScannedPdfPreviewExtractor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScannedPdfPreviewExtractor.class);
+
+    /**
+     * Maximum number of content stream tokens of a scanned page.
+     */
+    private static final int MAX_TOKENS = 10000;
+
+    private static final COSName THUMB = COSName.getPDFName("Thumb");
+
+    /**
+     * Checks that the page content draws the specified image exactly once, without rotation or skew and covering at
+     * least 90% of the page box, and that any text is invisible (rendering mode 3) and nothing else is painted. The
+     * current transformation matrix and the text rendering mode are saved and restored with the graphics state.
+     */
+    private static boolean coversPage(PDPage page, String imageName, PDRectangle box) throws IOException {
+        PDStream contents = page.getContents();
+        if (contents == null) {
+            return false;
+        }
+        PDFStreamParser parser = new PDFStreamParser(contents);
+        try {
+            List<float[]> stack = new ArrayList<float[]>();
+            List<Integer> textModes = new ArrayList<Integer>();
+            float[] ctm = new float[] { 1, 0, 0, 1, 0, 0 };
+            List<COSBase> operands = new ArrayList<COSBase>();
+            int textMode = 0;
+            int tokens = 0;
+            boolean drawn = false;
+            for (Iterator<Object> it = parser.getTokenIterator(); it.hasNext();) {
+                Object token = it.next();
+                if (++tokens > MAX_TOKENS) {
+                    // too much content for a scanned page
+                    return false;
+                }
+                if (!(token instanceof PDFOperator)) {
+                    if (token instanceof COSBase) {
+                        operands.add((COSBase) token);
+                    }
+                    continue;
+                }
+                String op = ((PDFOperator) token).getOperation();
+                if ("q".equals(op)) {
+                    stack.add(ctm.clone());
+                    textModes.add(textMode);
+                } else if ("Q".equals(op)) {
+                    if (!stack.isEmpty()) {
+                        ctm = stack.remove(stack.size() - 1);
+                        textMode = textModes.remove(textModes.size() - 1);
+                    }
+                } else if ("cm".equals(op)) {
+                    float[] m = toNumbers(operands, 6);
+                    if (m == null) {
+                        return false;
+                    }
+                    ctm = multiply(m, ctm);
+                } else if ("Tr".equals(op)) {
+                    float[] mode = toNumbers(operands, 1);
+                    textMode = mode != null ? (int) mode[0] : 0;
+                } else if ("Tj".equals(op) || "TJ".equals(op) || "'".equals(op) || "\"".equals(op)) {
+                    if (textMode != 3) {
+                        return false;
+                    }
+                } else if ("Do".equals(op)) {
+                    if (drawn || operands.size() != 1 || !(operands.get(0) instanceof COSName)
+                            || !imageName.equals(((COSName) operands.get(0)).getName())) {
+                        return false;
+                    }
+                    // the image must be placed without rotation or skew and its unit square, translated to
+                    // (ctm[4], ctm[5]), must cover the page box
+                    if (ctm[1] != 0 || ctm[2] != 0 || ctm[0] <= 0 || ctm[3] <= 0) {
+                        return false;
+                    }
+                    float width = Math.min(ctm[4] + ctm[0], box.getUpperRightX())
+                            - Math.max(ctm[4], box.getLowerLeftX());
+                    float height = Math.min(ctm[5] + ctm[3], box.getUpperRightY())
+                            - Math.max(ctm[5], box.getLowerLeftY());
+                    if (width <= 0 || height <= 0 || width * height < box.getWidth() * box.getHeight() * 0.9f) {
+                        return false;
+                    }
+                    drawn = true;
+                } else if (isPainting(op)) {
+                    return false;
+                }
+                operands.clear();
+            }
+            return drawn;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Decodes a JPEG image stream, subsampling it so that its longer side is about twice the requested size.
+     */
+    private static BufferedImage decodeJpeg(COSStream image, int size) throws IOException {
+        COSBase filter = image.getFilters();
+        if (filter instanceof COSArray && ((COSArray) filter).size() == 1) {
+            filter = ((COSArray) filter).getObject(0);
+        }
+        if (!COSName.DCT_DECODE.equals(filter) || image.containsKey(COSName.DECODE)
+                || !isSupportedColorSpace(image.getDictionaryObject(COSName.COLORSPACE))) {
+            // JBIG2, CCITT, JPEG 2000 and CMYK images cannot be decoded with the standard image readers
+            return null;
+        }
+
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("jpeg");
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader imageReader = readers.next();
+        InputStream data = image.getFilteredStream();
+        ImageInputStream iis = null;
+        try {
+            iis = ImageIO.createImageInputStream(data);
+            imageReader.setInput(iis, true, true);
+            int longer = Math.max(imageReader.getWidth(0), imageReader.getHeight(0));
+            int step = Math.max(1, longer / Math.max(1, size * 2));
+            ImageReadParam param = imageReader.getDefaultReadParam();
+            param.setSourceSubsampling(step, step, 0, 0);
+            return imageReader.read(0, param);
+        } finally {
+            imageReader.dispose();
+            if (iis != null) {
+                iis.close();
+            }
+            IOUtils.closeQuietly(data);
+        }
+    }
+
+    /**
+     * Returns the image of the first page of the specified PDF file if the page is a scanned image or has an embedded
+     * thumbnail, which is at least of the requested size.
+     * 
+     * @param pdfFile
+     *            the PDF file
+     * @param size
+     *            the requested size of the longer side of the image in pixels
+     * @param geometry
+     *            the page geometry to be filled in if the image is found; can be <code>null</code>
+     * @return the image of the first page or <code>null</code> if the page has to be rendered
+     */
+    static BufferedImage extract(File pdfFile, int size, PageGeometry geometry) {
+        long timer = System.currentTimeMillis();
+        PDDocument document = null;
+        try {
+            // objects are parsed on demand, so only the first page is read
+            document = PDDocument.loadNonSeq(pdfFile, null);
+            List<?> pages = document.getDocumentCatalog().getAllPages();
+            if (pages.isEmpty()) {
+                return null;
+            }
+            PDPage page = (PDPage) pages.get(0);
+
+            BufferedImage image = extractThumb(page, size);
+            if (image == null) {
+                image = extractScan(page, size);
+            }
+            if (image != null) {
+                if (geometry != null) {
+                    geometry.addPages(pages);
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Decoded the image of the first page of {} directly in {} ms", pdfFile,
+                            System.currentTimeMillis() - timer);
+                }
+            }
+            return image;
+        } catch (Exception e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Unable to check the structure of " + pdfFile + ". Cause: " + e.getMessage());
+            }
+            return null;
+        } finally {
+            if (document != null) {
+                try {
+                    document.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the image of a page, which consists of a single full-page image and, optionally, invisible text.
+     */
+    private static BufferedImage extractScan(PDPage page, int size) throws IOException {
+        PDRectangle box = page.findCropBox();
+        PDResources resources = page.findResources();
+        if (box == null || page.findRotation() % 360 != 0 || resources == null) {
+            return null;
+        }
+        Map<String, PDXObject> xobjects = resources.getXObjects();
+        if (xobjects == null || xobjects.size() != 1) {
+            return null;
+        }
+        Map.Entry<String, PDXObject> xobject = xobjects.entrySet().iterator().next();
+        if (!(xobject.getValue() instanceof PDXObjectImage)) {
+            return null;
+        }
+        PDXObjectImage image = (PDXObjectImage) xobject.getValue();
+        COSStream stream = image.getCOSStream();
+        if (image.getImageMask() || stream.containsKey(COSName.SMASK) || stream.containsKey(COSName.MASK)) {
+            // masked images are composed with the page background by the renderer
+            return null;
+        }
+        if (!coversPage(page, xobject.getKey(), box)) {
+            return null;
+        }
+
+        return decodeJpeg(stream, size);
+    }
+
+    /**
+     * Decodes the embedded page thumbnail, if it is present and large enough.
+     */
+    private static BufferedImage extractThumb(PDPage page, int size) throws IOException {
+        COSBase thumb = page.getCOSDictionary().getDictionaryObject(THUMB);
+        if (!(thumb instanceof COSStream)) {
+            return null;
+        }
+        COSStream stream = (COSStream) thumb;
+        if (Math.max(stream.getInt(COSName.WIDTH), stream.getInt(COSName.HEIGHT)) < size) {
+            return null;
+        }
+        return decodeJpeg(stream, size);
+    }
+
+    private static boolean isPainting(String op) {
+        return "S".equals(op) || "s".equals(op) || "f".equals(op) || "F".equals(op) || "f*".equals(op)
+                || "B".equals(op) || "B*".equals(op) || "b".equals(op) || "b*".equals(op) || "sh".equals(op)
+                || "BI".equals(op);
+    }
+
+    private static boolean isSupportedColorSpace(COSBase colorSpace) throws IOException {
+        if (colorSpace == null) {
+            return true;
+        }
+        PDColorSpace cs = PDColorSpaceFactory.createColorSpace(colorSpace);
+        // CMYK, indexed, separation and other color spaces are left to the renderer
+        return cs instanceof PDDeviceRGB || cs instanceof PDDeviceGray || cs instanceof PDICCBased
+                && cs.getNumberOfComponents() != 4;
+    }
+
+    /**
+     * Multiplies the transformation matrices <code>m1 x m2</code>, given as <code>[a b c d e f]</code>.
+     */
+    private static float[] multiply(float[] m1, float[] m2) {
+        return new float[] { m1[0] * m2[0] + m1[1] * m2[2], m1[0] * m2[1] + m1[1] * m2[3],
+                m1[2] * m2[0] + m1[3] * m2[2], m1[2] * m2[1] + m1[3] * m2[3],
+                m1[4] * m2[0] + m1[5] * m2[2] + m2[4], m1[4] * m2[1] + m1[5] * m2[3] + m2[5] };
+    }
+
+    private static float[] toNumbers(List<COSBase> operands, int count) {
+        if (operands.size() != count) {
+            return null;
+        }
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            if (!(operands.get(i) instanceof COSNumber)) {
+                return null;
+            }
+            values[i] = ((COSNumber) operands.get(i)).floatValue();
+        }
+        return values;
+    }
+
+    private ScannedPdfPreviewExtractor() {
+        super();
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the first image (page) of large raster images, e.g. scanned multi-page TIFF files, with the source subsampling,
+ * so that the memory used is proportional to the requested size and not to the size of the image. Tiled images are
+ * read by regions of a tile row, written directly into the subsampled destination image.
+ * 
+ * @author Sergiy Shyrkov
+ */
+final class SubsampledImageReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubsampledImageReader.class);
+
+    /**
+     * Returns the image with the standard RGB(A) layout for images of custom types (e.g. CMYK or 16 bit per sample).
+     */
+    private static BufferedImage normalize(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_CUSTOM) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(),
+                image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        try {
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        image.flush();
+        return rgb;
+    }
+
+    /**
+     * Reads the first image of the specified file, subsampling it so that its longer side is about twice the requested
+     * size. The image is read in full if no size is requested.
+     * 
+     * @param file
+     *            the image file
+     * @param size
+     *            the requested size of the longer side of the image; <code>0</code> for the full size
+     * @return the subsampled image or <code>null</code> if there is no image reader for the file format
+     * @throws IOException
+     *             in case of a read error
+     */
+    static BufferedImage read(File file, int size) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(file);
+        if (iis == null) {
+            return null;
+        }
+        ImageReader reader = null;
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                logger.info("No image reader found for the file {}. Skip generating image.", file);
+                return null;
+            }
+            reader = readers.next();
+            // the file stream is random access: the tiles can be read in any order
+            reader.setInput(iis, false, true);
+
+            long timer = System.currentTimeMillis();
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            int step = size > 0 ? Math.max(1, Math.max(width, height) / (size * 2)) : 1;
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(step, step, 0, 0);
+
+            BufferedImage image;
+            int bandHeight = reader.isImageTiled(0) ? reader.getTileHeight(0) * step : height;
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            if (bandHeight < height && types.hasNext()) {
+                // read a row of tiles at once, subsampled into the destination image
+                image = types.next().createBufferedImage((width + step - 1) / step, (height + step - 1) / step);
+                param.setDestination(image);
+                for (int y = 0; y < height; y += bandHeight) {
+                    param.setSourceRegion(new Rectangle(0, y, width, Math.min(bandHeight, height - y)));
+                    param.setDestinationOffset(new Point(0, y / step));
+                    reader.read(0, param);
+                }
+            } else {
+                image = reader.read(0, param);
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Read {}x{} image {} with subsampling {} in {} ms", new Object[] { width, height,
+                        file, step, System.currentTimeMillis() - timer });
+            }
+
+            return normalize(image);
+        } finally {
+            if (reader != null) {
+                reader.dispose();
+            }
+            iis.close();
+        }
+    }
+
+    private SubsampledImageReader() {
+        super();
+    }
+}
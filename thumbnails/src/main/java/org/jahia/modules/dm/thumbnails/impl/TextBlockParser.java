@@ -0,0 +1,273 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Splits the beginning of a plain text, Markdown or simple HTML document into a list of blocks (paragraphs, headings,
+ * list items, code etc.) for the {@link TextPreviewRenderer}. Inline formatting is dropped, only the text is kept.
+ * 
+ * @author Sergiy Shyrkov
+ */
+final class TextBlockParser {
+
+    /**
+     * A block of text to be laid out.
+     */
+    static final class Block {
+
+        final int level;
+
+        final String text;
+
+        final BlockType type;
+
+        Block(BlockType type, int level, String text) {
+            this.type = type;
+            this.level = level;
+            this.text = text;
+        }
+    }
+
+    enum BlockType {
+        CODE, HEADING, LIST_ITEM, PARAGRAPH, QUOTE, RULE;
+    }
+
+    private static final Pattern HTML_BLOCK_TAGS = Pattern
+            .compile("address|article|blockquote|br|caption|dd|div|dl|dt|footer|h[1-6]|header|hr|li|ol|p|pre|section|table|tr|ul");
+
+    private static final Pattern HTML_IGNORED = Pattern.compile(
+            "<!--.*?-->|<(script|style|head|noscript)\\b[^>]*>.*?</\\1\\s*>", Pattern.CASE_INSENSITIVE
+                    | Pattern.DOTALL);
+
+    private static final Pattern HTML_TAG = Pattern.compile("<(/?)([a-zA-Z][a-zA-Z0-9]*)[^>]*>");
+
+    private static final Pattern MD_HEADING = Pattern.compile("(#{1,6})\\s+(.*?)\\s*#*\\s*");
+
+    private static final Pattern MD_IMAGE_OR_LINK = Pattern.compile("!?\\[([^\\]]*)\\]\\([^)]*\\)");
+
+    private static final Pattern MD_INLINE_MARKUP = Pattern.compile("\\*\\*|__|`|~~|(?<![\\w*])[*_](?=\\S)|(?<=\\S)[*_](?![\\w*])");
+
+    private static final Pattern MD_LIST_ITEM = Pattern.compile("\\s{0,3}([-*+]|\\d{1,9}[.)])\\s+(.*)");
+
+    private static final Pattern MD_RULE = Pattern.compile("\\s{0,3}([-*_])(\\s*\\1){2,}\\s*");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static void flush(List<Block> blocks, BlockType type, int level, StringBuilder text) {
+        String value = WHITESPACE.matcher(text).replaceAll(" ").trim();
+        if (value.length() > 0) {
+            blocks.add(new Block(type, level, value));
+        }
+        text.setLength(0);
+    }
+
+    private static String inline(String markdown) {
+        String text = MD_IMAGE_OR_LINK.matcher(markdown).replaceAll("$1");
+        return MD_INLINE_MARKUP.matcher(text).replaceAll("");
+    }
+
+    /**
+     * Parses simple HTML, honouring block level elements only.
+     */
+    static List<Block> parseHtml(String html) {
+        List<Block> blocks = new LinkedList<Block>();
+        String content = HTML_IGNORED.matcher(html).replaceAll("");
+        int bodyStart = StringUtils.indexOfIgnoreCase(content, "<body");
+        if (bodyStart >= 0) {
+            content = content.substring(bodyStart);
+        }
+
+        StringBuilder text = new StringBuilder();
+        BlockType type = BlockType.PARAGRAPH;
+        int level = 0;
+        boolean pre = false;
+        int pos = 0;
+        Matcher tag = HTML_TAG.matcher(content);
+        while (tag.find()) {
+            text.append(content, pos, tag.start());
+            pos = tag.end();
+            String name = tag.group(2).toLowerCase();
+            boolean closing = tag.group(1).length() > 0;
+            if (name.equals("td") || name.equals("th")) {
+                text.append(closing ? "" : "  ");
+                continue;
+            }
+            if (!HTML_BLOCK_TAGS.matcher(name).matches()) {
+                continue;
+            }
+
+            if (pre) {
+                if (name.equals("pre") && closing) {
+                    addPreformatted(blocks, StringEscapeUtils.unescapeHtml(text.toString()));
+                    text.setLength(0);
+                    pre = false;
+                } else if (name.equals("br")) {
+                    text.append('\n');
+                }
+                continue;
+            }
+            flush(blocks, type, level, unescape(text));
+            type = BlockType.PARAGRAPH;
+            level = 0;
+            if (closing) {
+                continue;
+            }
+            if (name.length() == 2 && name.charAt(0) == 'h' && Character.isDigit(name.charAt(1))) {
+                type = BlockType.HEADING;
+                level = name.charAt(1) - '0';
+            } else if (name.equals("li") || name.equals("dt")) {
+                type = BlockType.LIST_ITEM;
+            } else if (name.equals("blockquote")) {
+                type = BlockType.QUOTE;
+            } else if (name.equals("hr")) {
+                blocks.add(new Block(BlockType.RULE, 0, ""));
+            } else if (name.equals("pre")) {
+                pre = true;
+            }
+        }
+        text.append(content, pos, content.length());
+        if (pre) {
+            addPreformatted(blocks, StringEscapeUtils.unescapeHtml(text.toString()));
+        } else {
+            flush(blocks, type, level, unescape(text));
+        }
+
+        return blocks;
+    }
+
+    /**
+     * Parses the Markdown text, recognizing headings, lists, quotes, rules and code.
+     */
+    static List<Block> parseMarkdown(String markdown) {
+        List<Block> blocks = new LinkedList<Block>();
+        StringBuilder paragraph = new StringBuilder();
+        BlockType type = BlockType.PARAGRAPH;
+        boolean fenced = false;
+        for (String line : StringUtils.splitPreserveAllTokens(markdown, '\n')) {
+            line = StringUtils.stripEnd(line, null).replace("\t", "    ");
+            if (line.trim().startsWith("```") || line.trim().startsWith("~~~")) {
+                flush(blocks, type, 0, paragraph);
+                type = BlockType.PARAGRAPH;
+                fenced = !fenced;
+                continue;
+            }
+            if (fenced) {
+                blocks.add(new Block(BlockType.CODE, 0, line));
+                continue;
+            }
+            if (line.trim().length() == 0) {
+                flush(blocks, type, 0, paragraph);
+                type = BlockType.PARAGRAPH;
+                continue;
+            }
+
+            Matcher m;
+            if (paragraph.length() > 0 && type == BlockType.PARAGRAPH && line.matches("\\s{0,3}(=+|-+)")) {
+                // setext heading
+                String heading = paragraph.toString();
+                paragraph.setLength(0);
+                flush(blocks, BlockType.HEADING, line.trim().charAt(0) == '=' ? 1 : 2, new StringBuilder(heading));
+            } else if (MD_RULE.matcher(line).matches()) {
+                flush(blocks, type, 0, paragraph);
+                type = BlockType.PARAGRAPH;
+                blocks.add(new Block(BlockType.RULE, 0, ""));
+            } else if ((m = MD_HEADING.matcher(line.trim())).matches()) {
+                flush(blocks, type, 0, paragraph);
+                type = BlockType.PARAGRAPH;
+                flush(blocks, BlockType.HEADING, m.group(1).length(), new StringBuilder(inline(m.group(2))));
+            } else if ((m = MD_LIST_ITEM.matcher(line)).matches()) {
+                flush(blocks, type, 0, paragraph);
+                type = BlockType.LIST_ITEM;
+                paragraph.append(inline(m.group(2)));
+            } else if (line.trim().startsWith(">")) {
+                if (type != BlockType.QUOTE) {
+                    flush(blocks, type, 0, paragraph);
+                    type = BlockType.QUOTE;
+                }
+                paragraph.append(' ').append(inline(line.trim().substring(1)));
+            } else if (line.startsWith("    ") && paragraph.length() == 0 || line.trim().startsWith("|")) {
+                // indented code or a table row
+                blocks.add(new Block(BlockType.CODE, 0, line.startsWith("    ") ? line.substring(4) : line.trim()));
+            } else {
+                paragraph.append(' ').append(inline(line));
+            }
+        }
+        flush(blocks, type, 0, paragraph);
+
+        return blocks;
+    }
+
+    /**
+     * Returns the plain text as a list of preformatted lines.
+     */
+    static List<Block> parseText(String text) {
+        List<Block> blocks = new LinkedList<Block>();
+        addPreformatted(blocks, text);
+        return blocks;
+    }
+
+    private static void addPreformatted(List<Block> blocks, String text) {
+        for (String line : StringUtils.splitPreserveAllTokens(text, '\n')) {
+            blocks.add(new Block(BlockType.CODE, 0, StringUtils.stripEnd(line, null).replace("\t", "    ")));
+        }
+    }
+
+    private static StringBuilder unescape(StringBuilder html) {
+        String text = StringEscapeUtils.unescapeHtml(html.toString()).replace('\u00A0', ' ');
+        html.setLength(0);
+        return html.append(text);
+    }
+
+    private TextBlockParser() {
+        super();
+    }
+}
@@ -0,0 +1,488 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jahia.modules.dm.thumbnails.impl.TextBlockParser.Block;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders the first page of plain text, CSV, Markdown and simple HTML documents directly with Java2D, without
+ * converting them into PDF. Only the beginning of the document, which fits onto an A4 page, is read and laid out.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class TextPreviewRenderer {
+
+    /**
+     * Supported formats.
+     */
+    public enum Format {
+        CSV, HTML, MARKDOWN, TEXT;
+    }
+
+    private static final Color BACKGROUND = Color.WHITE;
+
+    private static final Color CODE_BACKGROUND = new Color(0xF3F3F3);
+
+    private static final Color GRID = new Color(0xC8C8C8);
+
+    private static final Color HEADER_BACKGROUND = new Color(0xE4E8EE);
+
+    private static final Logger logger = LoggerFactory.getLogger(TextPreviewRenderer.class);
+
+    private static final int MARGIN = 40;
+
+    private static final int MAX_CELL_WIDTH = 160;
+
+    private static final int PAGE_HEIGHT = 842;
+
+    private static final int PAGE_WIDTH = 595;
+
+    private static final Color TEXT = new Color(0x222222);
+
+    private static final Charset WINDOWS_1252 = Charset.isSupported("windows-1252") ? Charset
+            .forName("windows-1252") : Charset.forName("ISO-8859-1");
+
+    /**
+     * Decodes the text, detecting the UTF byte order marks and falling back to windows-1252 for non UTF-8 content.
+     * Returns <code>null</code> if the content does not look like text.
+     */
+    static String decode(byte[] data, int length, boolean truncated) {
+        if (length >= 2 && (data[0] == (byte) 0xFE && data[1] == (byte) 0xFF)) {
+            return new String(data, 2, length - 2, Charset.forName("UTF-16BE"));
+        } else if (length >= 2 && (data[0] == (byte) 0xFF && data[1] == (byte) 0xFE)) {
+            return new String(data, 2, length - 2, Charset.forName("UTF-16LE"));
+        }
+        int offset = length >= 3 && data[0] == (byte) 0xEF && data[1] == (byte) 0xBB && data[2] == (byte) 0xBF ? 3 : 0;
+        for (int i = offset; i < length; i++) {
+            if (data[i] == 0) {
+                // binary content
+                return null;
+            }
+        }
+        int end = length;
+        if (truncated) {
+            // do not cut a multi-byte character at the end
+            int i = length - 1;
+            while (i > offset && (data[i] & 0xC0) == 0x80 && length - i < 4) {
+                i--;
+            }
+            if ((data[i] & 0xC0) == 0xC0) {
+                end = i;
+            }
+        }
+        try {
+            return Charset.forName("UTF-8").newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(data, offset, end - offset)).toString();
+        } catch (CharacterCodingException e) {
+            return new String(data, 0, length, WINDOWS_1252);
+        }
+    }
+
+    /**
+     * Returns the MIME type without parameters in lower case.
+     */
+    private static String normalize(String mimeType) {
+        return mimeType != null ? StringUtils.substringBefore(mimeType, ";").trim().toLowerCase(Locale.ENGLISH)
+                : null;
+    }
+
+    /**
+     * Parses the first rows of the CSV data. The delimiter (comma, semicolon or tab) is detected from the first line.
+     */
+    static List<List<String>> parseCsv(String data, int maxRows, int maxColumns) {
+        String firstLine = StringUtils.substringBefore(data, "\n");
+        char delimiter = ',';
+        int count = StringUtils.countMatches(firstLine, ",");
+        if (StringUtils.countMatches(firstLine, ";") > count) {
+            delimiter = ';';
+            count = StringUtils.countMatches(firstLine, ";");
+        }
+        if (StringUtils.countMatches(firstLine, "\t") > count) {
+            delimiter = '\t';
+        }
+
+        List<List<String>> rows = new LinkedList<List<String>>();
+        List<String> row = new LinkedList<String>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < data.length() && rows.size() < maxRows; i++) {
+            char c = data.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < data.length() && data.charAt(i + 1) == '"') {
+                    cell.append(c);
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    cell.append(c == '\n' || c == '\r' ? ' ' : c);
+                }
+            } else if (c == '"' && cell.length() == 0) {
+                quoted = true;
+            } else if (c == delimiter || c == '\n') {
+                if (row.size() < maxColumns) {
+                    row.add(cell.toString().trim());
+                }
+                cell.setLength(0);
+                if (c == '\n') {
+                    rows.add(row);
+                    row = new LinkedList<String>();
+                }
+            } else if (c != '\r') {
+                cell.append(c);
+            }
+        }
+        if ((cell.length() > 0 || !row.isEmpty()) && rows.size() < maxRows) {
+            if (row.size() < maxColumns) {
+                row.add(cell.toString().trim());
+            }
+            rows.add(row);
+        }
+
+        return rows;
+    }
+
+    private static List<String> wrap(String text, FontMetrics metrics, int width, boolean breakWords) {
+        List<String> lines = new LinkedList<String>();
+        if (breakWords) {
+            int start = 0;
+            while (start < text.length()) {
+                int end = start + 1;
+                while (end < text.length() && metrics.stringWidth(text.substring(start, end + 1)) <= width) {
+                    end++;
+                }
+                lines.add(text.substring(start, end));
+                start = end;
+            }
+            if (lines.isEmpty()) {
+                lines.add("");
+            }
+            return lines;
+        }
+
+        StringBuilder line = new StringBuilder();
+        for (String word : StringUtils.split(text)) {
+            if (line.length() > 0 && metrics.stringWidth(line + " " + word) > width) {
+                lines.add(line.toString());
+                line.setLength(0);
+            }
+            if (line.length() > 0) {
+                line.append(' ');
+            }
+            line.append(word);
+        }
+        if (line.length() > 0) {
+            lines.add(line.toString());
+        }
+
+        return lines;
+    }
+
+    private Map<String, Format> formats = new HashMap<String, Format>();
+
+    private int maxBytes = 16 * 1024;
+
+    /**
+     * Returns <code>true</code> if the documents of the specified MIME type can be rendered.
+     * 
+     * @param mimeType
+     *            the MIME type of the document
+     * @return <code>true</code> if the documents of the specified MIME type can be rendered
+     */
+    public boolean canRender(String mimeType) {
+        return formats.containsKey(normalize(mimeType));
+    }
+
+    private int drawBlocks(Graphics2D g, List<Block> blocks) {
+        Font body = new Font(Font.SANS_SERIF, Font.PLAIN, 11);
+        Font mono = new Font(Font.MONOSPACED, Font.PLAIN, 10);
+        int width = PAGE_WIDTH - 2 * MARGIN;
+        int y = MARGIN;
+        TextBlockParser.BlockType previous = null;
+        for (Block block : blocks) {
+            if (y >= PAGE_HEIGHT - MARGIN) {
+                break;
+            }
+            switch (block.type) {
+            case RULE:
+                y += 6;
+                g.setColor(GRID);
+                g.drawLine(MARGIN, y, MARGIN + width, y);
+                y += 8;
+                break;
+            case CODE:
+                g.setFont(mono);
+                FontMetrics metrics = g.getFontMetrics();
+                if (previous != null && previous != TextBlockParser.BlockType.CODE) {
+                    y += 6;
+                }
+                for (String line : wrap(block.text, metrics, width - 8, true)) {
+                    g.setColor(CODE_BACKGROUND);
+                    g.fillRect(MARGIN, y, width, metrics.getHeight());
+                    g.setColor(TEXT);
+                    g.drawString(line, MARGIN + 4, y + metrics.getAscent());
+                    y += metrics.getHeight();
+                }
+                break;
+            default:
+                int indent = 0;
+                String prefix = null;
+                if (block.type == TextBlockParser.BlockType.HEADING) {
+                    g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, Math.max(12, 24 - 3 * block.level)));
+                    y += previous != null ? 10 : 0;
+                } else {
+                    g.setFont(body);
+                    if (block.type == TextBlockParser.BlockType.LIST_ITEM) {
+                        indent = 16;
+                        prefix = "•";
+                    } else if (block.type == TextBlockParser.BlockType.QUOTE) {
+                        indent = 14;
+                    }
+                    if (previous != null && previous != TextBlockParser.BlockType.LIST_ITEM
+                            || block.type != TextBlockParser.BlockType.LIST_ITEM) {
+                        y += 6;
+                    }
+                }
+                metrics = g.getFontMetrics();
+                int top = y;
+                g.setColor(TEXT);
+                if (prefix != null) {
+                    g.drawString(prefix, MARGIN + 4, y + metrics.getAscent());
+                }
+                for (String line : wrap(block.text, metrics, width - indent, false)) {
+                    g.drawString(line, MARGIN + indent, y + metrics.getAscent());
+                    y += metrics.getHeight();
+                }
+                if (block.type == TextBlockParser.BlockType.QUOTE) {
+                    g.setColor(GRID);
+                    g.fillRect(MARGIN + 2, top, 3, y - top);
+                }
+            }
+            previous = block.type;
+        }
+
+        return y;
+    }
+
+    private void drawTable(Graphics2D g, List<List<String>> rows) {
+        Font body = new Font(Font.SANS_SERIF, Font.PLAIN, 9);
+        Font header = body.deriveFont(Font.BOLD);
+        g.setFont(header);
+        FontMetrics metrics = g.getFontMetrics();
+        int rowHeight = metrics.getHeight() + 4;
+
+        int columns = 0;
+        for (List<String> row : rows) {
+            columns = Math.max(columns, row.size());
+        }
+        int[] widths = new int[columns];
+        for (List<String> row : rows) {
+            int i = 0;
+            for (String cell : row) {
+                widths[i] = Math.min(MAX_CELL_WIDTH, Math.max(widths[i], metrics.stringWidth(cell) + 8));
+                i++;
+            }
+        }
+
+        int right = MARGIN;
+        for (int width : widths) {
+            right += width;
+        }
+        right = Math.min(right, PAGE_WIDTH - MARGIN);
+        int y = MARGIN;
+        boolean first = true;
+        for (List<String> row : rows) {
+            if (y + rowHeight > PAGE_HEIGHT - MARGIN) {
+                break;
+            }
+            if (first) {
+                g.setColor(HEADER_BACKGROUND);
+                g.fillRect(MARGIN, y, right - MARGIN, rowHeight);
+            }
+            g.setFont(first ? header : body);
+            g.setColor(TEXT);
+            int x = MARGIN;
+            int i = 0;
+            for (String cell : row) {
+                if (x >= right) {
+                    break;
+                }
+                g.setClip(x, y, Math.min(widths[i], right - x) - 2, rowHeight);
+                g.drawString(cell, x + 4, y + 2 + metrics.getAscent());
+                g.setClip(null);
+                x += widths[i++];
+            }
+            y += rowHeight;
+            g.setColor(GRID);
+            g.drawLine(MARGIN, y, right, y);
+            first = false;
+        }
+
+        g.setColor(GRID);
+        g.drawLine(MARGIN, MARGIN, right, MARGIN);
+        int x = MARGIN;
+        for (int i = 0; i < columns && x < right; x += widths[i++]) {
+            g.drawLine(x, MARGIN, x, y);
+        }
+        g.drawLine(right, MARGIN, right, y);
+    }
+
+    /**
+     * Renders the beginning of the document as an image of an A4 page, which longer side is of the specified size. If
+     * no size is specified, the page is rendered at 72 DPI.
+     * 
+     * @param in
+     *            the document content stream
+     * @param mimeType
+     *            the MIME type of the document
+     * @param size
+     *            the size of the longer side of the image in pixels; <code>0</code> for the natural page size
+     * @return the rendered image or <code>null</code> if the document is empty, is not a text or its format is not
+     *         supported
+     * @throws IOException
+     *             in case of a read error
+     */
+    public BufferedImage render(InputStream in, String mimeType, int size) throws IOException {
+        Format format = formats.get(normalize(mimeType));
+        if (format == null) {
+            return null;
+        }
+
+        long timer = System.currentTimeMillis();
+        byte[] data = new byte[maxBytes];
+        int length = IOUtils.read(in, data);
+        String text = decode(data, length, length == maxBytes && in.read() != -1);
+        if (StringUtils.isBlank(text)) {
+            return null;
+        }
+        text = StringUtils.replace(text, "\r\n", "\n").replace('\r', '\n');
+
+        if (size <= 0) {
+            size = PAGE_HEIGHT;
+        }
+        double scale = (double) size / PAGE_HEIGHT;
+        BufferedImage image = new BufferedImage(Math.max(1, (int) Math.round(PAGE_WIDTH * scale)), size,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(BACKGROUND);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.scale(scale, scale);
+            g.setStroke(new BasicStroke(0.75f));
+
+            switch (format) {
+            case CSV:
+                drawTable(g, parseCsv(text, 60, 30));
+                break;
+            case HTML:
+                drawBlocks(g, TextBlockParser.parseHtml(text));
+                break;
+            case MARKDOWN:
+                drawBlocks(g, TextBlockParser.parseMarkdown(text));
+                break;
+            default:
+                drawBlocks(g, TextBlockParser.parseText(text));
+            }
+        } finally {
+            g.dispose();
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Rendered {} document preview in {} ms", format, System.currentTimeMillis() - timer);
+        }
+
+        return image;
+    }
+
+    /**
+     * Sets the mapping of MIME types to the formats ({@link Format} names) they are rendered as.
+     * 
+     * @param formats
+     *            the mapping of MIME types to the formats they are rendered as
+     */
+    public void setFormats(Map<String, String> formats) {
+        Map<String, Format> mapping = new HashMap<String, Format>();
+        for (Map.Entry<String, String> entry : formats.entrySet()) {
+            mapping.put(normalize(entry.getKey()), Format.valueOf(entry.getValue().trim().toUpperCase(Locale.ENGLISH)));
+        }
+        this.formats = mapping;
+    }
+
+    /**
+     * Sets the maximum number of bytes, read from the beginning of the document.
+     * 
+     * @param maxBytes
+     *            the maximum number of bytes, read from the beginning of the document
+     */
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+}
@@ -0,0 +1,610 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.icepdf.core.pobjects.Document;
+import org.jahia.dm.DocumentOperationException;
+import org.jahia.dm.PageGeometry;
+import org.jahia.dm.utils.ProcessUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Creates images for PDF document pages in a small pool of forked worker JVMs (see {@link PDF2ImageWorker}), so that
+ * large renders do not put pressure on the Jahia heap and a renderer crash does not affect the server. Idle workers are
+ * checked with a heartbeat, a worker is recycled after a number of jobs or when its heap grows over a limit and a
+ * crashed or hung worker is replaced by a new one. The workers are started together with the service. If the worker
+ * mode is disabled, the calls are delegated to the in-process converter.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class WorkerPDF2ImageConverterService extends AbstractPDF2ImageConverterService implements
+        InitializingBean, DisposableBean {
+
+    /**
+     * A forked worker JVM with its protocol streams.
+     */
+    private class Worker {
+
+        private volatile boolean dead;
+
+        private final DataInputStream in;
+
+        private int jobs;
+
+        private boolean ready;
+
+        private final DataOutputStream out;
+
+        private final Process process;
+
+        private long usedMemory;
+
+        Worker() throws IOException {
+            List<String> cmd = new ArrayList<String>();
+            cmd.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+            cmd.add("-Xmx" + heapSize);
+            cmd.add("-Djava.awt.headless=true");
+            if (StringUtils.isNotBlank(jvmOptions)) {
+                for (String option : StringUtils.split(jvmOptions)) {
+                    cmd.add(option);
+                }
+            }
+            cmd.add("-cp");
+            cmd.add(classpath);
+            cmd.add(PDF2ImageWorker.class.getName());
+            cmd.add(fontCacheFile != null ? fontCacheFile.getAbsolutePath() : "");
+            if (fontPaths != null) {
+                for (String path : fontPaths) {
+                    cmd.add(path);
+                }
+            }
+
+            process = new ProcessBuilder(cmd).start();
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream(), 64 * 1024));
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            drain(process.getErrorStream());
+            logger.info("Started PDF rendering worker JVM");
+        }
+
+        private void drain(final InputStream err) {
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (String line : IOUtils.readLines(err)) {
+                            logger.debug("[worker] {}", line);
+                        }
+                    } catch (IOException e) {
+                        // the worker is gone
+                    } finally {
+                        IOUtils.closeQuietly(err);
+                    }
+                }
+            }, "dm-pdf-worker-stderr");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        void kill() {
+            dead = true;
+            ProcessUtils.destroyTree(process);
+            IOUtils.closeQuietly(in);
+            IOUtils.closeQuietly(out);
+        }
+
+        void ping() throws IOException {
+            // the first answer comes only after the worker has initialized its fonts
+            ScheduledFuture<?> watchdog = watch(this, ready ? heartbeatTimeout : timeout);
+            try {
+                out.writeInt(PDF2ImageWorker.PING);
+                out.flush();
+                readStatus();
+            } finally {
+                watchdog.cancel(false);
+            }
+        }
+
+        private int readStatus() throws IOException {
+            int status = in.readInt();
+            usedMemory = in.readLong();
+            ready = true;
+            return status;
+        }
+
+        BufferedImage render(File pdfFile, int pageNumber, PageGeometry geometry) throws IOException,
+                DocumentOperationException {
+            jobs++;
+            ScheduledFuture<?> watchdog = watch(this, timeout);
+            try {
+                out.writeInt(PDF2ImageWorker.RENDER);
+                out.writeUTF(pdfFile.getAbsolutePath());
+                out.writeInt(pageNumber);
+                out.writeBoolean(geometry != null);
+                out.flush();
+
+                if (readStatus() == PDF2ImageWorker.ERROR) {
+                    boolean fatal = in.readBoolean();
+                    String message = in.readUTF();
+                    if (fatal) {
+                        kill();
+                    }
+                    throw new DocumentOperationException("Error occurred trying to generate an image for the page "
+                            + pageNumber + " of the file " + pdfFile + ": " + message);
+                }
+
+                int pages = in.readInt();
+                for (int i = 0; i < pages; i++) {
+                    float width = in.readFloat();
+                    float height = in.readFloat();
+                    geometry.addPage(width, height);
+                }
+                int width = in.readInt();
+                int height = in.readInt();
+                if (width < 0) {
+                    return null;
+                }
+                boolean alpha = in.readBoolean();
+                BufferedImage image = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB
+                        : BufferedImage.TYPE_INT_RGB);
+                byte[] data = new byte[width * height * 4];
+                in.readFully(data);
+                // both image types store the pixels as ARGB ints, so the block is copied into the raster directly
+                ByteBuffer.wrap(data).asIntBuffer()
+                        .get(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+                return image;
+            } finally {
+                watchdog.cancel(false);
+            }
+        }
+
+        void shutdown() {
+            try {
+                out.writeInt(PDF2ImageWorker.EXIT);
+                out.flush();
+            } catch (IOException e) {
+                // already gone
+            }
+            kill();
+        }
+
+        boolean shouldRecycle() {
+            return jobs >= maxJobs || usedMemory >= maxMemory * 1024L * 1024L;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkerPDF2ImageConverterService.class);
+
+    private String classpath;
+
+    private PDF2ImageConverter delegate;
+
+    private File fontCacheFile;
+
+    private String[] fontPaths;
+
+    private ScheduledExecutorService scheduler;
+
+    private String heapSize = "512m";
+
+    private long heartbeatInterval = 30;
+
+    private long heartbeatTimeout = 10;
+
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<Worker>();
+
+    private String jvmOptions;
+
+    private int maxJobs = 200;
+
+    private long maxMemory = 384;
+
+    private volatile boolean shutdown;
+
+    private Semaphore slots;
+
+    private long timeout = 120;
+
+    private int workers;
+
+    public void afterPropertiesSet() throws Exception {
+        if (workers <= 0) {
+            return;
+        }
+        if (StringUtils.isBlank(classpath)) {
+            classpath = detectClasspath();
+            if (classpath == null) {
+                throw new IllegalStateException("Unable to determine the class path for the " + workers
+                        + " configured PDF rendering worker JVMs, as the classes are not loaded from plain files."
+                        + " Please set the jahia.dm.thumbnails.worker.classpath property to the locations of"
+                        + " this module's classes, ICEpdf, SLF4J API and Commons IO or set"
+                        + " jahia.dm.thumbnails.workers to 0 to render the pages in-process.");
+            }
+        } else {
+            for (String entry : StringUtils.split(classpath, File.pathSeparator)) {
+                if (!new File(entry).exists()) {
+                    throw new IllegalStateException("The entry " + entry
+                            + " of the PDF rendering worker class path (jahia.dm.thumbnails.worker.classpath)"
+                            + " does not exist. The class path must list the JAR files or directories of this"
+                            + " module's classes, ICEpdf, SLF4J API and Commons IO.");
+                }
+            }
+        }
+        slots = new Semaphore(workers, true);
+        // a second thread lets the watchdog kill a worker, which blocks the heartbeat
+        scheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "dm-pdf-worker-watchdog");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // pre-start the workers, so that the first render does not pay for the JVM start and the font scan
+        for (int i = 0; i < workers; i++) {
+            try {
+                idle.offer(new Worker());
+            } catch (IOException e) {
+                logger.warn("Unable to start a PDF rendering worker. It will be started on demand. Cause: "
+                        + e.getMessage());
+                break;
+            }
+        }
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                heartbeat();
+            }
+        }, heartbeatInterval, heartbeatInterval, TimeUnit.SECONDS);
+        logger.info("PDF pages will be rendered in up to {} worker JVMs", workers);
+    }
+
+    private Worker borrow() throws DocumentOperationException {
+        try {
+            if (!slots.tryAcquire(timeout, TimeUnit.SECONDS)) {
+                throw new DocumentOperationException("No PDF rendering worker became free within " + timeout
+                        + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DocumentOperationException("Interrupted while waiting for a PDF rendering worker");
+        }
+        Worker worker = idle.poll();
+        if (worker == null) {
+            try {
+                worker = new Worker();
+            } catch (IOException e) {
+                slots.release();
+                throw new DocumentOperationException("Unable to start a PDF rendering worker", e);
+            }
+        }
+        return worker;
+    }
+
+    public void destroy() throws Exception {
+        shutdown = true;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            worker.shutdown();
+        }
+    }
+
+    /**
+     * Builds the worker class path from the locations of the worker class, the ICEpdf library and the libraries used
+     * by the font cache, if they are all available as plain files or directories.
+     */
+    private static String detectClasspath() {
+        Set<String> entries = new LinkedHashSet<String>();
+        for (Class<?> clazz : new Class<?>[] { PDF2ImageWorker.class, Document.class, LoggerFactory.class,
+                IOUtils.class }) {
+            String entry = getLocation(clazz);
+            if (entry == null) {
+                return null;
+            }
+            entries.add(entry);
+        }
+        return StringUtils.join(entries, File.pathSeparator);
+    }
+
+    private static String getLocation(Class<?> clazz) {
+        URL url = clazz.getResource(clazz.getSimpleName() + ".class");
+        if (url == null) {
+            return null;
+        }
+        String location = url.toString();
+        String resource = clazz.getName().replace('.', '/') + ".class";
+        try {
+            if (location.startsWith("jar:file:") && location.endsWith("!/" + resource)) {
+                location = location.substring("jar:file:".length(), location.length() - resource.length() - 2);
+            } else if (location.startsWith("file:") && location.endsWith(resource)) {
+                location = location.substring("file:".length(), location.length() - resource.length());
+            } else {
+                // bundle resource URLs cannot be used in a class path
+                return null;
+            }
+            return new File(URLDecoder.decode(location, "UTF-8")).getPath();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public BufferedImage getImageOfPage(File pdfFile, int pageNumber, PageGeometry geometry)
+            throws DocumentOperationException {
+        if (workers <= 0) {
+            return delegate.getImageOfPage(pdfFile, pageNumber, geometry);
+        }
+
+        long timer = System.currentTimeMillis();
+        Worker worker = borrow();
+        boolean healthy = false;
+        try {
+            BufferedImage image = worker.render(pdfFile, pageNumber, geometry);
+            healthy = true;
+            if (image != null && logger.isDebugEnabled()) {
+                logger.debug("Generated an image for the page {} of the file {} in a worker JVM in {} ms",
+                        new Object[] { pageNumber, pdfFile, (System.currentTimeMillis() - timer) });
+            }
+            return image;
+        } catch (DocumentOperationException e) {
+            // the worker is still usable unless the error was fatal
+            healthy = true;
+            throw e;
+        } catch (IOException e) {
+            throw new DocumentOperationException("PDF rendering worker failed or was killed while generating"
+                    + " an image for the page " + pageNumber + " of the file " + pdfFile, e);
+        } finally {
+            release(worker, healthy);
+        }
+    }
+
+    public BufferedImage getImageOfPage(InputStream pdfInputStream, int pageNumber, PageGeometry geometry)
+            throws DocumentOperationException {
+        if (workers <= 0) {
+            return delegate.getImageOfPage(pdfInputStream, pageNumber, geometry);
+        }
+
+        File pdfFile = null;
+        OutputStream os = null;
+        try {
+            pdfFile = File.createTempFile("doc-thumbnail", ".pdf");
+            os = new FileOutputStream(pdfFile);
+            IOUtils.copyLarge(pdfInputStream, os);
+            os.close();
+            return getImageOfPage(pdfFile, pageNumber, geometry);
+        } catch (IOException e) {
+            throw new DocumentOperationException(e);
+        } finally {
+            IOUtils.closeQuietly(os);
+            FileUtils.deleteQuietly(pdfFile);
+        }
+    }
+
+    /**
+     * Pings the idle workers, replacing the ones, which do not answer.
+     */
+    private void heartbeat() {
+        int count = idle.size();
+        for (int i = 0; i < count; i++) {
+            if (!slots.tryAcquire()) {
+                return;
+            }
+            Worker worker = idle.poll();
+            if (worker == null) {
+                slots.release();
+                return;
+            }
+            boolean healthy = false;
+            try {
+                worker.ping();
+                healthy = true;
+            } catch (IOException e) {
+                logger.warn("PDF rendering worker did not answer the heartbeat and will be replaced");
+            } finally {
+                release(worker, healthy);
+            }
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return super.isEnabled() && (workers > 0 || delegate != null && delegate.isEnabled());
+    }
+
+    private void release(Worker worker, boolean healthy) {
+        try {
+            if (!healthy || worker.dead) {
+                worker.kill();
+            } else if (shutdown || worker.shouldRecycle()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Recycling PDF rendering worker after {} jobs ({} bytes of heap used)",
+                            worker.jobs, worker.usedMemory);
+                }
+                worker.shutdown();
+            } else {
+                idle.offer(worker);
+            }
+        } finally {
+            slots.release();
+        }
+    }
+
+    /**
+     * Sets the class path of the worker JVMs, which must contain this module's classes, ICEpdf, SLF4J API and Commons
+     * IO. If not set, it is derived from the locations of the classes.
+     * 
+     * @param classpath
+     *            the class path of the worker JVMs
+     */
+    public void setClasspath(String classpath) {
+        this.classpath = classpath;
+    }
+
+    /**
+     * Sets the in-process converter, used when the worker mode is disabled.
+     * 
+     * @param delegate
+     *            the in-process converter
+     */
+    public void setDelegate(PDF2ImageConverter delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Sets the file, the results of the system font scan of the workers are cached in; <code>null</code> to scan the
+     * fonts on each worker start.
+     * 
+     * @param fontCacheFile
+     *            the file to cache the font scan results in
+     */
+    public void setFontCacheFile(File fontCacheFile) {
+        this.fontCacheFile = fontCacheFile;
+    }
+
+    /**
+     * Sets additional directories to scan for fonts.
+     * 
+     * @param fontPaths
+     *            additional directories to scan for fonts
+     */
+    public void setFontPaths(String[] fontPaths) {
+        this.fontPaths = fontPaths != null && fontPaths.length > 0 ? fontPaths : null;
+    }
+
+    public void setHeapSize(String heapSize) {
+        this.heapSize = heapSize;
+    }
+
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        this.heartbeatInterval = Math.max(1, heartbeatInterval);
+    }
+
+    public void setHeartbeatTimeout(long heartbeatTimeout) {
+        this.heartbeatTimeout = heartbeatTimeout;
+    }
+
+    public void setJvmOptions(String jvmOptions) {
+        this.jvmOptions = jvmOptions;
+    }
+
+    /**
+     * Sets the number of jobs, after which a worker JVM is replaced by a new one.
+     * 
+     * @param maxJobs
+     *            the number of jobs per worker JVM
+     */
+    public void setMaxJobs(int maxJobs) {
+        this.maxJobs = maxJobs;
+    }
+
+    /**
+     * Sets the used heap size in megabytes, after which a worker JVM is replaced by a new one.
+     * 
+     * @param maxMemory
+     *            the used heap size in megabytes
+     */
+    public void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Sets the time limit in seconds for rendering a page; a worker exceeding it is killed.
+     * 
+     * @param timeout
+     *            the time limit in seconds for rendering a page
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sets the number of worker JVMs; <code>0</code> disables the worker mode.
+     * 
+     * @param workers
+     *            the number of worker JVMs
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    private ScheduledFuture<?> watch(final Worker worker, long seconds) {
+        return scheduler.schedule(new Runnable() {
+            public void run() {
+                logger.warn("PDF rendering worker exceeded its time limit and is killed");
+                worker.kill();
+            }
+        }, seconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the invalidation of the {@link ICEpdfFontCache}.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class ICEpdfFontCacheTest {
+
+    private ICEpdfFontCache cache;
+
+    private File fontDir;
+
+    private File font;
+
+    @Before
+    public void setUp() throws Exception {
+        fontDir = File.createTempFile("font-cache-test", null);
+        fontDir.delete();
+        new File(fontDir, "truetype").mkdirs();
+        font = new File(fontDir, "truetype/Test.ttf");
+        FileUtils.writeByteArrayToFile(font, new byte[] { 1, 2, 3, 4 });
+        font.setLastModified(1000000000000L);
+        cache = new ICEpdfFontCache(null, new String[] { fontDir.getPath() });
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(fontDir);
+    }
+
+    @Test
+    public void testFileAdded() throws Exception {
+        String signature = cache.getSignature();
+        long dirModified = font.getParentFile().lastModified();
+
+        File added = new File(font.getParentFile(), "Other.ttf");
+        FileUtils.writeByteArrayToFile(added, new byte[] { 5 });
+        font.getParentFile().setLastModified(dirModified);
+
+        assertFalse(signature.equals(cache.getSignature()));
+    }
+
+    @Test
+    public void testFileReplacedInPlace() throws Exception {
+        String signature = cache.getSignature();
+        long dirModified = font.getParentFile().lastModified();
+
+        // same name, same directory modification time, different size
+        FileUtils.writeByteArrayToFile(font, new byte[] { 1, 2, 3, 4, 5, 6 });
+        font.setLastModified(1000000000000L);
+        font.getParentFile().setLastModified(dirModified);
+
+        assertFalse(signature.equals(cache.getSignature()));
+    }
+
+    @Test
+    public void testFileTouched() throws Exception {
+        String signature = cache.getSignature();
+
+        font.setLastModified(1100000000000L);
+
+        assertFalse(signature.equals(cache.getSignature()));
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        assertEquals(cache.getSignature(), cache.getSignature());
+    }
+}
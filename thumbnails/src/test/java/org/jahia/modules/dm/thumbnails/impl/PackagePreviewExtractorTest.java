@@ -0,0 +1,165 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link PackagePreviewExtractor}, using OpenDocument and Office Open XML packages with embedded
+ * preview images.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class PackagePreviewExtractorTest {
+
+    private static final String RELS = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+            + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+            + "<Relationship Id=\"rId1\""
+            + " Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\""
+            + " Target=\"word/document.xml\"/>"
+            + "<Relationship Id=\"rId2\""
+            + " Type=\"http://schemas.openxmlformats.org/package/2006/relationships/metadata/thumbnail\""
+            + " Target=\"/docProps/preview.png\"/>"
+            + "</Relationships>";
+
+    private static byte[] png(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+
+    private File dir;
+
+    private File create(String name, Object... entries) throws IOException {
+        File file = new File(dir, name);
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < entries.length; i += 2) {
+                zip.putNextEntry(new ZipEntry((String) entries[i]));
+                zip.write(entries[i + 1] instanceof String ? ((String) entries[i + 1]).getBytes("UTF-8")
+                        : (byte[]) entries[i + 1]);
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+        return file;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("package-preview-test", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void testNotAPackage() throws Exception {
+        File file = new File(dir, "legacy.doc");
+        FileUtils.writeStringToFile(file, "not a ZIP file");
+
+        assertNull(PackagePreviewExtractor.extract(file, 150));
+    }
+
+    @Test
+    public void testOpenDocument() throws Exception {
+        File file = create("document.odt", "mimetype", "application/vnd.oasis.opendocument.text",
+                "Thumbnails/thumbnail.png", png(181, 256));
+
+        BufferedImage image = PackagePreviewExtractor.extract(file, 150);
+
+        assertNotNull(image);
+        assertEquals(181, image.getWidth());
+        assertEquals(256, image.getHeight());
+    }
+
+    @Test
+    public void testPreviewDeclaredByRelationship() throws Exception {
+        File file = create("document.docx", "_rels/.rels", RELS, "docProps/preview.png", png(300, 200),
+                "docProps/thumbnail.png", png(160, 100));
+
+        BufferedImage image = PackagePreviewExtractor.extract(file, 150);
+
+        assertNotNull(image);
+        assertEquals(300, image.getWidth());
+    }
+
+    @Test
+    public void testTooSmallPreview() throws Exception {
+        File file = create("small.odt", "Thumbnails/thumbnail.png", png(90, 128));
+
+        assertNull(PackagePreviewExtractor.extract(file, 150));
+    }
+
+    @Test
+    public void testUndecodablePreview() throws Exception {
+        // e.g. a WMF preview of a legacy converted document
+        File file = create("metafile.docx", "docProps/thumbnail.jpeg", new byte[] { (byte) 0xD7, (byte) 0xCD,
+                (byte) 0xC6, (byte) 0x9A, 0, 0, 0, 0 });
+
+        assertNull(PackagePreviewExtractor.extract(file, 150));
+    }
+}
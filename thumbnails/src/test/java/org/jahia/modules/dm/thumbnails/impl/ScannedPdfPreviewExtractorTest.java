@@ -0,0 +1,206 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.pdfbox.exceptions.COSVisitorException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDJpeg;
+import org.jahia.dm.PageGeometry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link ScannedPdfPreviewExtractor}, using documents laid out as scanners produce them: a JPEG page
+ * image, optionally with an invisible OCR text layer.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class ScannedPdfPreviewExtractorTest {
+
+    private static final int SCAN_HEIGHT = 3508;
+
+    private static final int SCAN_WIDTH = 2480;
+
+    private File dir;
+
+    private File create(String name, String text, boolean invisibleText, String stamp, int rotation,
+            float imageScale, PDRectangle... pageSizes) throws IOException, COSVisitorException {
+        BufferedImage scan = new BufferedImage(SCAN_WIDTH, SCAN_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scan.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, SCAN_WIDTH, SCAN_HEIGHT);
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, SCAN_WIDTH, SCAN_HEIGHT / 2);
+        g.dispose();
+
+        PDDocument document = new PDDocument();
+        try {
+            PDJpeg image = new PDJpeg(document, scan, 0.8f);
+            for (PDRectangle size : pageSizes) {
+                PDPage page = new PDPage(size);
+                page.setRotation(rotation);
+                document.addPage(page);
+                PDPageContentStream content = new PDPageContentStream(document, page);
+                content.drawXObject(image, 0, 0, size.getWidth() * imageScale, size.getHeight() * imageScale);
+                if (text != null) {
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    // the text rendering mode is part of the graphics state
+                    content.appendRawCommands("q\n");
+                    content.beginText();
+                    if (invisibleText) {
+                        content.appendRawCommands("3 Tr\n");
+                    }
+                    content.moveTextPositionByAmount(72, 720);
+                    content.drawString(text);
+                    content.endText();
+                    content.appendRawCommands("Q\n");
+                }
+                if (stamp != null) {
+                    content.beginText();
+                    content.moveTextPositionByAmount(72, 700);
+                    content.drawString(stamp);
+                    content.endText();
+                }
+                content.close();
+            }
+            File file = new File(dir, name);
+            document.save(file.getPath());
+            return file;
+        } finally {
+            document.close();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("scanned-pdf-test", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void testPartialImageIsRendered() throws Exception {
+        File pdf = create("partial.pdf", null, false, null, 0, 0.5f, PDPage.PAGE_SIZE_A4);
+
+        assertNull(ScannedPdfPreviewExtractor.extract(pdf, 150, null));
+    }
+
+    @Test
+    public void testOffPageImageIsRendered() throws Exception {
+        float width = PDPage.PAGE_SIZE_A4.getWidth();
+        PDRectangle box = new PDRectangle(width, PDPage.PAGE_SIZE_A4.getHeight());
+        // the image is drawn at the origin, to the left of the page box
+        box.setUpperRightX(width * 2);
+        box.setLowerLeftX(width);
+        File pdf = create("offpage.pdf", null, false, null, 0, 1, box);
+
+        assertNull(ScannedPdfPreviewExtractor.extract(pdf, 150, null));
+    }
+
+    @Test
+    public void testRotatedPageIsRendered() throws Exception {
+        File pdf = create("rotated.pdf", null, false, null, 90, 1, PDPage.PAGE_SIZE_A4);
+
+        assertNull(ScannedPdfPreviewExtractor.extract(pdf, 150, null));
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        File pdf = create("scan.pdf", null, false, null, 0, 1, PDPage.PAGE_SIZE_A4, new PDRectangle(842, 595));
+        PageGeometry geometry = new PageGeometry();
+
+        BufferedImage image = ScannedPdfPreviewExtractor.extract(pdf, 150, geometry);
+
+        assertNotNull(image);
+        // subsampled to about twice the requested size
+        assertEquals(319, image.getHeight());
+        assertEquals(226, image.getWidth());
+        Color top = new Color(image.getRGB(100, 50));
+        assertTrue(top.getBlue() > 200 && top.getRed() < 50);
+        assertEquals("595x842,842x595", geometry.toString());
+    }
+
+    @Test
+    public void testScanWithInvisibleText() throws Exception {
+        File pdf = create("ocr.pdf", "Scanned text", true, null, 0, 1, PDPage.PAGE_SIZE_A4);
+
+        assertNotNull(ScannedPdfPreviewExtractor.extract(pdf, 150, null));
+    }
+
+    @Test
+    public void testScanWithTextAfterRestoredStateIsRendered() throws Exception {
+        File pdf = create("stamp.pdf", "Scanned text", true, "Stamped text", 0, 1, PDPage.PAGE_SIZE_A4);
+
+        assertNull(ScannedPdfPreviewExtractor.extract(pdf, 150, null));
+    }
+
+    @Test
+    public void testScanWithVisibleTextIsRendered() throws Exception {
+        File pdf = create("text.pdf", "Stamped text", false, null, 0, 1, PDPage.PAGE_SIZE_A4);
+
+        assertNull(ScannedPdfPreviewExtractor.extract(pdf, 150, null));
+    }
+}
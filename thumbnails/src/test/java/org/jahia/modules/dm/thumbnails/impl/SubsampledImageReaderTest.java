@@ -0,0 +1,129 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link SubsampledImageReader}.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class SubsampledImageReaderTest {
+
+    private File dir;
+
+    private File createBmp(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, width, height / 2);
+        g.dispose();
+
+        File file = new File(dir, "image.bmp");
+        ImageIO.write(image, "bmp", file);
+        return file;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("subsampled-image-test", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    @Test
+    public void testFullSize() throws Exception {
+        BufferedImage image = SubsampledImageReader.read(createBmp(300, 200), 0);
+
+        assertNotNull(image);
+        assertEquals(300, image.getWidth());
+        assertEquals(200, image.getHeight());
+    }
+
+    @Test
+    public void testNoReader() throws Exception {
+        File file = new File(dir, "image.bmp");
+        FileUtils.writeStringToFile(file, "not an image");
+
+        assertNull(SubsampledImageReader.read(file, 150));
+    }
+
+    @Test
+    public void testSubsampled() throws Exception {
+        BufferedImage image = SubsampledImageReader.read(createBmp(3000, 2000), 150);
+
+        assertNotNull(image);
+        // subsampled to about twice the requested size
+        assertEquals(300, image.getWidth());
+        assertEquals(200, image.getHeight());
+        Color top = new Color(image.getRGB(150, 20));
+        Color bottom = new Color(image.getRGB(150, 180));
+        assertTrue(top.getRed() > 200 && top.getGreen() < 50);
+        assertTrue(bottom.getRed() > 200 && bottom.getGreen() > 200);
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.jahia.modules.dm.thumbnails.impl.TextBlockParser.Block;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link TextBlockParser}.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class TextBlockParserTest {
+
+    private static String toString(List<Block> blocks) {
+        StringBuilder out = new StringBuilder();
+        for (Block block : blocks) {
+            out.append(block.type).append(block.level > 0 ? String.valueOf(block.level) : "").append(':')
+                    .append(block.text).append('\n');
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void testHtml() {
+        List<Block> blocks = TextBlockParser.parseHtml("<html><head><title>Ignored</title>"
+                + "<style>p { color: red }</style></head><body><h2>Title &amp; more</h2><p>First\n  paragraph"
+                + " with <b>bold</b> text</p><!-- comment --><ul><li>one</li><li>two</li></ul><hr>"
+                + "<blockquote>Quoted</blockquote><table><tr><td>a</td><td>b</td></tr></table></body></html>");
+
+        assertEquals("HEADING2:Title & more\nPARAGRAPH:First paragraph with bold text\nLIST_ITEM:one\n"
+                + "LIST_ITEM:two\nRULE:\nQUOTE:Quoted\nPARAGRAPH:a b\n", toString(blocks));
+    }
+
+    @Test
+    public void testHtmlPreformatted() {
+        List<Block> blocks = TextBlockParser.parseHtml("<p>Code:</p><pre>if (a &lt; b)\n\treturn;</pre>");
+
+        assertEquals("PARAGRAPH:Code:\nCODE:if (a < b)\nCODE:    return;\n", toString(blocks));
+    }
+
+    @Test
+    public void testMarkdown() {
+        List<Block> blocks = TextBlockParser.parseMarkdown("# Title #\n\nSome **bold** and _emphasized_ text\n"
+                + "with a [link](http://www.jahia.com).\n\n- first\n2. second\n\n> quoted\n> text\n\n---\n"
+                + "Setext\n======\n");
+
+        assertEquals("HEADING1:Title\nPARAGRAPH:Some bold and emphasized text with a link.\nLIST_ITEM:first\n"
+                + "LIST_ITEM:second\nQUOTE:quoted text\nRULE:\nHEADING1:Setext\n", toString(blocks));
+    }
+
+    @Test
+    public void testMarkdownCode() {
+        List<Block> blocks = TextBlockParser.parseMarkdown("Text\n\n```\n# not a heading\n```\n\n    indented\n"
+                + "| a | b |\n");
+
+        assertEquals("PARAGRAPH:Text\nCODE:# not a heading\nCODE:indented\nCODE:| a | b |\n", toString(blocks));
+    }
+
+    @Test
+    public void testText() {
+        List<Block> blocks = TextBlockParser.parseText("first\t line  \n\nlast");
+
+        assertEquals("CODE:first     line\nCODE:\nCODE:last\n", toString(blocks));
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.video;
+
+import org.jahia.dm.DocumentManagement;
+import org.jahia.dm.DocumentOperationJob;
+import org.jahia.dm.thumbnails.VideoThumbnailService;
+import org.jahia.services.content.JCRNodeWrapper;
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background task for creating a storyboard for the video.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class VideoStoryboardJob extends DocumentOperationJob {
+
+    public static final String COLUMNS = "columns";
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoStoryboardJob.class);
+
+    public static final String ROWS = "rows";
+
+    public static final String TILE_WIDTH = "tileWidth";
+
+    protected void doOperation(JCRNodeWrapper documentNode, JobExecutionContext jobExecutionContext)
+            throws Exception {
+        VideoThumbnailService service = DocumentManagement.getInstance().getVideoThumbnailService();
+        if (service == null || !service.isEnabled()) {
+            logger.info(
+                    "Thumbnail generation service is not enabled. Skipping generation of a storyboard for node {}",
+                    documentNode.getPath());
+            return;
+        }
+
+        JobDataMap jobDataMap = jobExecutionContext.getJobDetail().getJobDataMap();
+
+        service.createStoryboardForNode(documentNode, jobDataMap.getIntValue(COLUMNS),
+                jobDataMap.getIntValue(ROWS), jobDataMap.getIntValue(TILE_WIDTH));
+
+        // also persists the probed media information, if any
+        documentNode.getSession().save();
+    }
+}
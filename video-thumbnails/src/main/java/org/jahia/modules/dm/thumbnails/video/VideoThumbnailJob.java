@@ -71,6 +71,8 @@ public class VideoThumbnailJob extends DocumentOperationJob {
 
     public static final String THUMBNAIL_SIZE = "thumbnailSize";
 
+    public static final String THUMBNAILS = "thumbnails";
+
     protected void doOperation(JCRNodeWrapper documentNode, JobExecutionContext jobExecutionContext)
             throws Exception {
         VideoThumbnailService service = DocumentManagement.getInstance().getVideoThumbnailService();
@@ -83,9 +85,15 @@ public class VideoThumbnailJob extends DocumentOperationJob {
 
         JobDataMap jobDataMap = jobExecutionContext.getJobDetail().getJobDataMap();
 
-        service.createThumbnailForNode(documentNode,
-                StringUtils.defaultIfBlank(jobDataMap.getString(THUMBNAIL_NAME), "thumbnail"),
-                jobDataMap.getIntValue(THUMBNAIL_OFFSET), jobDataMap.getString(THUMBNAIL_SIZE));
+        if (jobDataMap.containsKey(THUMBNAILS)) {
+            service.createThumbnailsForNode(documentNode,
+                    VideoThumbnailRuleService.parseThumbnails(jobDataMap.getString(THUMBNAILS)),
+                    jobDataMap.getIntValue(THUMBNAIL_OFFSET));
+        } else {
+            service.createThumbnailForNode(documentNode,
+                    StringUtils.defaultIfBlank(jobDataMap.getString(THUMBNAIL_NAME), "thumbnail"),
+                    jobDataMap.getIntValue(THUMBNAIL_OFFSET), jobDataMap.getString(THUMBNAIL_SIZE));
+        }
 
         documentNode.getSession().save();
     }
@@ -43,6 +43,7 @@
  */
 package org.jahia.modules.dm.thumbnails.video;
 
+import org.apache.commons.lang.StringUtils;
 import org.drools.core.spi.KnowledgeHelper;
 import org.jahia.dm.DocumentOperationJob;
 import org.jahia.dm.thumbnails.VideoThumbnailService;
@@ -58,6 +59,9 @@ import org.slf4j.LoggerFactory;
 
 import javax.jcr.RepositoryException;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Service class for generating video thumbnails from the right-hand-side (consequences) of rules.
  *
@@ -74,6 +78,104 @@ public class VideoThumbnailRuleService {
 
     private VideoThumbnailService thumbnailService;
 
+    /**
+     * Generates a storyboard (sprite sheet with evenly spaced frames and WebVTT cues) for the provided video node.
+     *
+     * @param nodeFact  the node to create a storyboard for
+     * @param columns   the number of frames per sprite row
+     * @param rows      the number of sprite rows
+     * @param tileWidth the width of a single frame in the sprite
+     * @param drools    the rule engine helper class
+     * @throws RepositoryException in case of an error
+     */
+    public void createStoryboard(AddedNodeFact nodeFact, int columns, int rows, int tileWidth,
+                                 KnowledgeHelper drools) throws RepositoryException {
+        if (thumbnailService == null || !thumbnailService.isEnabled()) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Thumbnail generation service is not enabled."
+                        + " Skipping storyboard generation for node {}", nodeFact.getPath());
+            }
+            return;
+        } else if (!thumbnailService.canHandle(nodeFact.getNode())) {
+            return;
+        }
+
+        try {
+            if (asBackgroundJob) {
+                JCRNodeWrapper doc = nodeFact.getNode();
+                JobDetail jobDetail = BackgroundJob.createJahiaJob("Video storyboard for " + doc.getName(),
+                        VideoStoryboardJob.class);
+                JobDataMap jobDataMap = jobDetail.getJobDataMap();
+                jobDataMap.put(DocumentOperationJob.JOB_UUID, doc.getIdentifier());
+                jobDataMap.put(DocumentOperationJob.JOB_WORKSPACE, doc.getSession().getWorkspace()
+                        .getName());
+                jobDataMap.put(VideoStoryboardJob.COLUMNS, columns);
+                jobDataMap.put(VideoStoryboardJob.ROWS, rows);
+                jobDataMap.put(VideoStoryboardJob.TILE_WIDTH, tileWidth);
+
+                schedulerService.scheduleJobAtEndOfRequest(jobDetail);
+            } else {
+                thumbnailService.createStoryboardForNode(nodeFact.getNode(), columns, rows, tileWidth);
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses the specification of several thumbnails in the form <code>name:size,name:size</code>, e.g.
+     * <code>thumbnail:320x240,thumbnail2:640x480</code>.
+     *
+     * @param thumbnails the specification of thumbnails
+     * @return the thumbnail sizes, keyed by thumbnail names, in the specified order
+     */
+    public static Map<String, String> parseThumbnails(String thumbnails) {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (String thumbnail : StringUtils.split(StringUtils.defaultString(thumbnails), ", ")) {
+            String name = StringUtils.substringBefore(thumbnail, ":").trim();
+            String size = StringUtils.substringAfter(thumbnail, ":").trim();
+            if (name.length() > 0) {
+                result.put(name, size.length() > 0 ? size : null);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generates thumbnails of several sizes for the provided video node, decoding the video frame only once.
+     *
+     * @param nodeFact        the node to create thumbnails for
+     * @param thumbnails      the thumbnails to be created in the form <code>name:size,name:size</code>, e.g.
+     *                        <code>thumbnail:320x240,thumbnail2:640x480</code>
+     * @param thumbnailOffset the input time offset in seconds. Specifying a positive offset means that the corresponding streams are delayed by offset
+     *                        seconds.
+     * @param drools          the rule engine helper class
+     * @throws RepositoryException in case of an error
+     */
+    public void createThumbnails(AddedNodeFact nodeFact, String thumbnails, int thumbnailOffset,
+                                 KnowledgeHelper drools) throws RepositoryException {
+        if (thumbnailService == null || !thumbnailService.isEnabled()) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Thumbnail generation service is not enabled."
+                        + " Skipping generation for node {}", nodeFact.getPath());
+            }
+            return;
+        } else if (!thumbnailService.canHandle(nodeFact.getNode())) {
+            return;
+        }
+
+        try {
+            if (asBackgroundJob) {
+                scheduleThumbnailsAsJob(nodeFact.getNode(), thumbnails, thumbnailOffset);
+            } else {
+                thumbnailService.createThumbnailsForNode(nodeFact.getNode(),
+                        parseThumbnails(thumbnails), thumbnailOffset);
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
     /**
      * Generates thumbnail of the specified size for the provided video node.
      *
@@ -135,6 +237,21 @@ public class VideoThumbnailRuleService {
         schedulerService.scheduleJobAtEndOfRequest(jobDetail);
     }
 
+    protected void scheduleThumbnailsAsJob(JCRNodeWrapper doc, String thumbnails, int thumbnailOffset)
+            throws SchedulerException, RepositoryException {
+        // execute as a background job
+        JobDetail jobDetail = BackgroundJob.createJahiaJob("Video thumbnails for " + doc.getName(),
+                VideoThumbnailJob.class);
+        JobDataMap jobDataMap = jobDetail.getJobDataMap();
+        jobDataMap.put(DocumentOperationJob.JOB_UUID, doc.getIdentifier());
+        jobDataMap.put(DocumentOperationJob.JOB_WORKSPACE, doc.getSession().getWorkspace()
+                .getName());
+        jobDataMap.put(VideoThumbnailJob.THUMBNAILS, thumbnails);
+        jobDataMap.put(VideoThumbnailJob.THUMBNAIL_OFFSET, thumbnailOffset);
+
+        schedulerService.scheduleJobAtEndOfRequest(jobDetail);
+    }
+
     public void setAsBackgroundJob(boolean asBackgorundJob) {
         this.asBackgroundJob = asBackgorundJob;
     }
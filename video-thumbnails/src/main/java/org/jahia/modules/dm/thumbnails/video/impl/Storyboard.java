@@ -0,0 +1,131 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.video.impl;
+
+/**
+ * Layout of a video storyboard: a sprite sheet with evenly spaced frames of the video, tiled row by row. Produces the
+ * WebVTT cues, which map the time ranges of the video to the regions of the sprite using media fragments
+ * (<code>#xywh=x,y,w,h</code>).
+ * 
+ * @author Sergiy Shyrkov
+ */
+class Storyboard {
+
+    private static void appendTime(StringBuilder out, long millis) {
+        long hours = millis / 3600000;
+        long minutes = millis / 60000 % 60;
+        long seconds = millis / 1000 % 60;
+        out.append(String.format("%02d:%02d:%02d.%03d", hours, minutes, seconds, millis % 1000));
+    }
+
+    private final int columns;
+
+    private final long durationMillis;
+
+    private final int rows;
+
+    private final int tileHeight;
+
+    private final int tileWidth;
+
+    Storyboard(int columns, int rows, int tileWidth, int tileHeight, long durationMillis) {
+        super();
+        this.columns = columns;
+        this.rows = rows;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Returns the number of frames in the storyboard.
+     * 
+     * @return the number of frames in the storyboard
+     */
+    int getFrameCount() {
+        return columns * rows;
+    }
+
+    /**
+     * Returns the frame rate for sampling the video in the ffmpeg rational form, e.g. <code>50000/123400</code>.
+     * 
+     * @return the frame rate for sampling the video
+     */
+    String getFrameRate() {
+        return (getFrameCount() * 1000L) + "/" + Math.max(durationMillis, 1);
+    }
+
+    /**
+     * Returns the tile layout in the ffmpeg form, e.g. <code>10x5</code>.
+     * 
+     * @return the tile layout
+     */
+    String getLayout() {
+        return columns + "x" + rows;
+    }
+
+    /**
+     * Returns the WebVTT document with one cue per storyboard frame.
+     * 
+     * @param spriteUrl
+     *            the URL of the sprite image, relative to the URL of the cues
+     * @return the WebVTT document with one cue per storyboard frame
+     */
+    String toWebVtt(String spriteUrl) {
+        int count = getFrameCount();
+        StringBuilder out = new StringBuilder(64 + count * (spriteUrl.length() + 64));
+        out.append("WEBVTT\n");
+        for (int i = 0; i < count; i++) {
+            out.append('\n');
+            appendTime(out, durationMillis * i / count);
+            out.append(" --> ");
+            appendTime(out, durationMillis * (i + 1) / count);
+            out.append('\n').append(spriteUrl).append("#xywh=").append(i % columns * tileWidth)
+                    .append(',').append(i / columns * tileHeight).append(',').append(tileWidth)
+                    .append(',').append(tileHeight).append('\n');
+        }
+
+        return out.toString();
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.video.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.jahia.dm.thumbnails.VideoMetadata;
+
+/**
+ * Parses the output of ffprobe in the <code>flat</code> format into the {@link VideoMetadata}. The expected output
+ * contains the format duration, the video streams with their disposition (for detecting embedded cover art) and
+ * rotation, and the video packets (position and flags) of the beginning of the file, for collecting the keyframe
+ * positions.
+ * 
+ * @author Sergiy Shyrkov
+ */
+final class VideoProbe {
+
+    /**
+     * Maximum number of keyframe positions to be recorded.
+     */
+    static final int MAX_KEYFRAMES = 200;
+
+    private static long toMillis(String seconds) {
+        try {
+            return Math.round(Double.parseDouble(seconds) * 1000);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int toInt(String value) {
+        try {
+            return value != null ? (int) Math.round(Double.parseDouble(value)) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Parses the provided ffprobe output.
+     * 
+     * @param output
+     *            the ffprobe output in the <code>flat</code> format
+     * @return the parsed video metadata
+     */
+    static VideoMetadata parse(String output) {
+        // group the entries by section, e.g. "streams.stream.0" or "format"
+        Map<String, Map<String, String>> sections = new LinkedHashMap<String, Map<String, String>>();
+        for (String line : StringUtils.split(output, "\r\n")) {
+            int eq = line.indexOf('=');
+            if (eq == -1) {
+                continue;
+            }
+            String key = line.substring(0, eq);
+            String value = StringUtils.removeEnd(StringUtils.removeStart(line.substring(eq + 1).trim(), "\""),
+                    "\"");
+            String[] segments = StringUtils.split(key, '.');
+            int prefixLength = segments.length > 3
+                    && ("streams".equals(segments[0]) || "packets".equals(segments[0])) ? 3 : 1;
+            String section = StringUtils.join(segments, '.', 0, prefixLength);
+            String attribute = StringUtils.join(segments, '.', prefixLength, segments.length);
+            Map<String, String> entries = sections.get(section);
+            if (entries == null) {
+                entries = new LinkedHashMap<String, String>();
+                sections.put(section, entries);
+            }
+            entries.put(attribute, value);
+        }
+
+        VideoMetadata metadata = new VideoMetadata();
+        Map<String, String> format = sections.get("format");
+        if (format != null && format.containsKey("duration")) {
+            metadata.setDuration(toMillis(format.get("duration")));
+        }
+
+        String videoIndex = null;
+        for (Map.Entry<String, Map<String, String>> section : sections.entrySet()) {
+            Map<String, String> entries = section.getValue();
+            if (section.getKey().startsWith("streams.stream.")) {
+                if (entries.containsKey("codec_type") && !"video".equals(entries.get("codec_type"))) {
+                    continue;
+                }
+                // cover art is exposed as a video stream with a single attached picture
+                if ("1".equals(entries.get("disposition.attached_pic"))) {
+                    if (!metadata.hasCoverArt()) {
+                        metadata.setCoverArtStream(toInt(entries.get("index")));
+                    }
+                    continue;
+                }
+                if (videoIndex != null) {
+                    continue;
+                }
+                videoIndex = entries.get("index");
+                metadata.setVideo(true);
+                metadata.setCodec(entries.get("codec_name"));
+                metadata.setResolution(toInt(entries.get("width")), toInt(entries.get("height")));
+                String rotate = entries.get("tags.rotate");
+                if (rotate != null) {
+                    metadata.setRotation(toInt(rotate));
+                } else if (entries.containsKey("side_data_list.side_data.0.rotation")) {
+                    metadata.setRotation(-toInt(entries.get("side_data_list.side_data.0.rotation")));
+                }
+            } else if (section.getKey().startsWith("packets.packet.") && videoIndex != null
+                    && videoIndex.equals(entries.get("stream_index"))
+                    && StringUtils.contains(entries.get("flags"), "K")) {
+                long position = toMillis(entries.get("pts_time"));
+                if (position >= 0 && metadata.getKeyframes().size() < MAX_KEYFRAMES) {
+                    metadata.addKeyframe(position);
+                }
+            }
+        }
+
+        return metadata;
+    }
+
+    private VideoProbe() {
+        super();
+    }
+}
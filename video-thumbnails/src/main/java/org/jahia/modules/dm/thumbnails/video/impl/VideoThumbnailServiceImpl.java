@@ -43,33 +43,44 @@
  */
 package org.jahia.modules.dm.thumbnails.video.impl;
 
+import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import javax.imageio.ImageIO;
 import javax.jcr.Binary;
-import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 
 import org.apache.commons.exec.CommandLine;
-import org.apache.commons.exec.DefaultExecutor;
-import org.apache.commons.exec.PumpStreamHandler;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
-import org.apache.jackrabbit.value.BinaryImpl;
+import org.apache.jackrabbit.util.Text;
 import org.jahia.api.Constants;
+import org.jahia.dm.DocumentManagement;
 import org.jahia.dm.DocumentOperationException;
+import org.jahia.dm.DocumentSource;
+import org.jahia.dm.thumbnails.VideoMetadata;
 import org.jahia.dm.thumbnails.VideoThumbnailService;
-import org.jahia.dm.utils.ProcessUtils;
+import org.jahia.dm.utils.BinaryRangeServer;
+import org.jahia.dm.utils.DerivativeUtils;
+import org.jahia.dm.utils.ProcessExecutor;
+import org.jahia.dm.utils.ProcessResult;
+import org.jahia.dm.utils.ToolDetector;
 import org.jahia.services.content.JCRContentUtils;
 import org.jahia.services.content.JCRNodeWrapper;
-import org.jahia.utils.StringOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
@@ -82,22 +93,72 @@ import org.springframework.beans.factory.InitializingBean;
  */
 public class VideoThumbnailServiceImpl implements VideoThumbnailService, InitializingBean {
 
+    private static final Pattern DURATION_PATTERN = Pattern
+            .compile("Duration: (\\d+):(\\d{2}):(\\d{2}(?:\\.\\d+)?)");
+
     private static final Logger logger = LoggerFactory.getLogger(VideoThumbnailServiceImpl.class);
 
+    /**
+     * Frame-exact thumbnails: the video is decoded from its start with the streams shifted by the offset.
+     */
+    public static final String PROFILE_EXACT = "exact";
+
+    /**
+     * Fast thumbnails: only keyframes are decoded, the nearest keyframe before the offset is used and a fast scaler is
+     * applied.
+     */
+    public static final String PROFILE_FAST = "fast";
+
+    /**
+     * Input seeking to the keyframe before the offset with decoding up to the exact frame.
+     */
+    public static final String PROFILE_SEEK = "seek";
+
+    private static final int PROBE_OUTPUT_LIMIT = 1024 * 1024;
+
+    private static final Pattern SIZE_PATTERN = Pattern.compile("\\d+x\\d+");
+
     private boolean autodetect;
 
     private boolean enabled;
 
     private String executablePath = "ffmpeg";
 
+    private String fastParameters = "-y -skip_frame nokey -noaccurate_seek -ss ${offset} -i ${input} -vcodec mjpeg -vframes 1 -an -f rawvideo -sws_flags fast_bilinear -s ${size} ${output}";
+
     private String parameters = "-y -itsoffset ${offset} -i ${input} -vcodec mjpeg -vframes 1 -an -f rawvideo -s ${size} ${output}";
 
+    private ToolDetector.Tool probeTool;
+
+    private String profile = PROFILE_FAST;
+
+    private String probeExecutablePath = "ffprobe";
+
+    private String probeParameters = "-v error -select_streams v -read_intervals %+60 -show_entries format=duration:stream=index,codec_type,codec_name,width,height:stream_disposition=attached_pic:stream_tags=rotate:stream_side_data=rotation:packet=stream_index,pts_time,flags -of flat ${input}";
+
+    private boolean rangeRequests = true;
+
+    private boolean useCoverArt = true;
+
+    private String seekParameters = "-y -ss ${offset} -i ${input} -vcodec mjpeg -vframes 1 -an -f rawvideo -s ${size} ${output}";
+
+    private String storyboardParameters = "-y -skip_frame nokey -i ${input} -an -vf fps=${rate},scale=${width}:-2,tile=${layout} -frames:v 1 -vcodec mjpeg -q:v 4 -f image2 ${output}";
+
+    private boolean streaming = true;
+
+    private ToolDetector.Tool tool;
+
     private File workingDir;
 
     public void afterPropertiesSet() throws Exception {
         if (autodetect) {
             doAutodetect();
         }
+        if ((enabled || autodetect) && StringUtils.isNotEmpty(probeExecutablePath)) {
+            // without ffprobe the videos are not probed for media information
+            probeTool = DocumentManagement.getInstance().getToolDetector()
+                    .detect(probeExecutablePath, workingDir, "-version");
+        }
     }
 
     public boolean canHandle(JCRNodeWrapper fileNode) throws RepositoryException {
@@ -119,45 +180,337 @@ public class VideoThumbnailServiceImpl implements VideoThumbnailService, Initial
 
         long timer = System.currentTimeMillis();
 
+        VideoMetadata metadata = getMetadata(fileNode);
+        if (useCoverArt && metadata != null && metadata.hasCoverArt()
+                && createThumbnailNodes(fileNode, Collections.singletonMap(thumbnailName, thumbnailSize),
+                        null, metadata.getCoverArtStream()) == 1) {
+            // the embedded artwork was used, no need to decode the video
+            return true;
+        }
+        if (metadata != null && !metadata.hasVideo()) {
+            logger.info("Node {} has no video stream. Skip generating thumbnail.", fileNode.getPath());
+            return false;
+        }
+        String offset = getOffsetArgument(offsetSeconds, metadata);
+        String size = fitSize(thumbnailSize, metadata);
+
         JCRNodeWrapper thumbNode = null;
 
-        File source = null;
+        DocumentSource source = null;
         File thumbnail = null;
         try {
-            source = File.createTempFile("video-source", null);
-            JCRContentUtils.downloadFileContent(fileNode, source);
-            thumbnail = generateThumbnail(source, offsetSeconds, thumbnailSize);
+            // ffmpeg reads the video in place if it is kept in a file data store
+            source = DocumentSource.getInPlace(fileNode);
+            if (source == null && rangeRequests) {
+                // let ffmpeg fetch only the byte ranges it needs from the binary
+                thumbNode = createThumbnailFromRanges(fileNode, thumbnailName, offset, size);
+            }
+            if (thumbNode == null && source == null && streaming) {
+                // otherwise try piping the content to avoid copying it into a temporary file
+                thumbNode = createThumbnailFromStream(fileNode, thumbnailName, offset, size);
+            }
+            if (thumbNode == null) {
+                if (source == null) {
+                    source = DocumentSource.copyOf(fileNode);
+                }
+                thumbnail = generateThumbnailFile(source.getFile(), offset, size);
 
-            if (thumbnail != null && thumbnail.isFile()) {
-                thumbNode = storeThumbnailNode(fileNode, thumbnail, thumbnailName);
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Generated thumbnail {} for node {} in {} ms", new Object[] {
-                            thumbNode.getPath(), fileNode.getPath(),
-                            (System.currentTimeMillis() - timer) });
+                if (thumbnail != null && thumbnail.isFile()) {
+                    thumbNode = storeThumbnailNode(fileNode, thumbnail, thumbnailName);
                 }
             }
+            if (thumbNode != null && logger.isDebugEnabled()) {
+                logger.debug("Generated thumbnail {} for node {} in {} ms", new Object[] {
+                        thumbNode.getPath(), fileNode.getPath(),
+                        (System.currentTimeMillis() - timer) });
+            }
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         } finally {
             FileUtils.deleteQuietly(thumbnail);
-            FileUtils.deleteQuietly(source);
+            if (source != null) {
+                source.close();
+            }
         }
 
         return thumbNode != null;
     }
 
-    protected void doAutodetect() {
-        logger.info("Checking if the {} is present in the current path", executablePath);
+    public boolean createStoryboardForNode(JCRNodeWrapper fileNode, int columns, int rows,
+            int tileWidth) throws RepositoryException, DocumentOperationException {
+        if (!canHandle(fileNode)) {
+            return false;
+        }
 
-        enabled = ProcessUtils.commandPresent(executablePath, workingDir);
+        long timer = System.currentTimeMillis();
 
-        if (enabled) {
-            logger.info("Found {} in the current system path." + " Service will be enabled.",
-                    executablePath);
-        } else {
-            logger.info("Command {} cannot be found in the current system path."
-                    + " The service will be disabled.", executablePath);
+        VideoMetadata metadata = getMetadata(fileNode);
+        if (metadata != null && !metadata.hasVideo()) {
+            logger.info("Node {} has no video stream. Skip generating storyboard.", fileNode.getPath());
+            return false;
         }
+
+        boolean created = false;
+        DocumentSource source = null;
+        File sprite = null;
+        try {
+            source = DocumentSource.get(fileNode);
+            long duration = metadata != null && metadata.getDuration() > 0 ? metadata.getDuration()
+                    : getDuration(source.getFile());
+            if (duration <= 0) {
+                logger.info("Unable to determine the duration of the video {}."
+                        + " Skip generating storyboard.", fileNode.getPath());
+                return false;
+            }
+            sprite = File.createTempFile("video-storyboard", null);
+
+            // tile height is known only after scaling, so the layout is completed from the sprite size
+            Storyboard layout = new Storyboard(columns, rows, 0, 0, duration);
+            if (!generateStoryboard(source.getFile(), sprite, layout, tileWidth)) {
+                return false;
+            }
+            BufferedImage image = ImageIO.read(sprite);
+            if (image == null) {
+                return false;
+            }
+            Storyboard storyboard = new Storyboard(columns, rows, image.getWidth() / columns,
+                    image.getHeight() / rows, duration);
+            image.flush();
+
+            storeThumbnailNode(fileNode, sprite, STORYBOARD);
+            storeStoryboardCues(fileNode,
+                    storyboard.toWebVtt(Text.escape(fileNode.getName()) + "?t=" + STORYBOARD));
+            created = true;
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Generated {} storyboard for node {} in {} ms", new Object[] {
+                        storyboard.getLayout(), fileNode.getPath(),
+                        (System.currentTimeMillis() - timer) });
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            FileUtils.deleteQuietly(sprite);
+            if (source != null) {
+                source.close();
+            }
+        }
+
+        return created;
+    }
+
+    public boolean createThumbnailsForNode(JCRNodeWrapper fileNode, Map<String, String> thumbnails,
+            int offsetSeconds) throws RepositoryException, DocumentOperationException {
+        if (!canHandle(fileNode) || thumbnails.isEmpty()) {
+            return false;
+        }
+        if (thumbnails.size() == 1) {
+            Map.Entry<String, String> thumbnail = thumbnails.entrySet().iterator().next();
+            return createThumbnailForNode(fileNode, thumbnail.getKey(), offsetSeconds,
+                    thumbnail.getValue());
+        }
+
+        VideoMetadata metadata = getMetadata(fileNode);
+        if (useCoverArt && metadata != null && metadata.hasCoverArt()
+                && createThumbnailNodes(fileNode, thumbnails, null, metadata.getCoverArtStream()) == thumbnails
+                        .size()) {
+            return true;
+        }
+        if (metadata != null && !metadata.hasVideo()) {
+            logger.info("Node {} has no video stream. Skip generating thumbnails.", fileNode.getPath());
+            return false;
+        }
+        String offset = getOffsetArgument(offsetSeconds, metadata);
+        Map<String, String> sizes = new LinkedHashMap<String, String>(thumbnails.size());
+        for (Map.Entry<String, String> thumbnail : thumbnails.entrySet()) {
+            sizes.put(thumbnail.getKey(), fitSize(thumbnail.getValue(), metadata));
+        }
+
+        return createThumbnailNodes(fileNode, sizes, offset, -1) == thumbnails.size();
+    }
+
+    /**
+     * Generates the thumbnails of the specified sizes in a single ffmpeg run and stores them. The source is either the
+     * frame at the specified offset or, if the stream index is not negative, the embedded cover art picture in that
+     * stream. Returns the number of stored thumbnails.
+     */
+    private int createThumbnailNodes(JCRNodeWrapper fileNode, Map<String, String> sizes, String offset,
+            int coverArtStream) {
+        long timer = System.currentTimeMillis();
+
+        int created = 0;
+        Map<String, File> outputs = new LinkedHashMap<String, File>(sizes.size());
+        DocumentSource source = null;
+        Binary binary = null;
+        BinaryRangeServer server = null;
+        try {
+            for (String name : sizes.keySet()) {
+                outputs.put(name, File.createTempFile("video-thumbnail", null));
+            }
+
+            boolean generated = false;
+            source = DocumentSource.getInPlace(fileNode);
+            if (source == null && rangeRequests) {
+                binary = fileNode.getNode(Constants.JCR_CONTENT).getProperty(Constants.JCR_DATA)
+                        .getBinary();
+                server = new BinaryRangeServer(binary, fileNode.getFileContent().getContentType());
+                generated = generateThumbnails(server.start(), outputs, sizes, offset, coverArtStream);
+            }
+            if (!generated) {
+                if (source == null) {
+                    source = DocumentSource.copyOf(fileNode);
+                }
+                generated = generateThumbnails(source.getFile(), outputs, sizes, offset,
+                        coverArtStream);
+            }
+
+            if (generated) {
+                for (Map.Entry<String, File> output : outputs.entrySet()) {
+                    if (output.getValue().length() > 0) {
+                        storeThumbnailNode(fileNode, output.getValue(), output.getKey());
+                        created++;
+                    }
+                }
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Generated {} thumbnails {} for node {} from {} in {} ms", new Object[] {
+                        created, sizes, fileNode.getPath(),
+                        coverArtStream >= 0 ? "cover art" : "video frame",
+                        (System.currentTimeMillis() - timer) });
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            for (File output : outputs.values()) {
+                FileUtils.deleteQuietly(output);
+            }
+            if (server != null) {
+                server.close();
+            }
+            if (binary != null) {
+                binary.dispose();
+            }
+            if (source != null) {
+                source.close();
+            }
+        }
+
+        return created;
+    }
+
+    /**
+     * Serves the binary of the video node over a loopback HTTP server with range support, so that ffmpeg reads only the
+     * parts of the content it needs to seek to the requested offset, and stores the resulting thumbnail. Returns
+     * <code>null</code> if the thumbnail cannot be generated this way.
+     */
+    private JCRNodeWrapper createThumbnailFromRanges(JCRNodeWrapper fileNode, String thumbnailName,
+            String offset, String thumbnailSize) throws RepositoryException, IOException {
+        byte[] image = null;
+        Binary binary = null;
+        BinaryRangeServer server = null;
+        try {
+            binary = fileNode.getNode(Constants.JCR_CONTENT).getProperty(Constants.JCR_DATA)
+                    .getBinary();
+            server = new BinaryRangeServer(binary, fileNode.getFileContent().getContentType());
+            image = readThumbnail(server.start(), null, offset, thumbnailSize);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Read {} of {} bytes of node {} for the thumbnail", new Object[] {
+                        server.getBytesServed(), binary.getSize(), fileNode.getPath() });
+            }
+        } catch (Exception e) {
+            logger.debug("Unable to generate thumbnail for node {} using range requests. Cause: {}",
+                    fileNode.getPath(), e.getMessage());
+            image = null;
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+            if (binary != null) {
+                binary.dispose();
+            }
+        }
+
+        return image != null && image.length > 0 ? storeThumbnailNode(fileNode,
+                new ByteArrayInputStream(image), thumbnailName) : null;
+    }
+
+    /**
+     * Pipes the content of the video node through ffmpeg and stores the resulting thumbnail. Returns <code>null</code>
+     * if the thumbnail cannot be generated from the stream, e.g. if the video format requires random access to the
+     * content.
+     */
+    private JCRNodeWrapper createThumbnailFromStream(JCRNodeWrapper fileNode, String thumbnailName,
+            String offset, String thumbnailSize) throws RepositoryException, IOException {
+        byte[] image = null;
+        InputStream video = null;
+        try {
+            video = fileNode.getFileContent().downloadFile();
+            image = readThumbnail("pipe:0", video, offset, thumbnailSize);
+        } catch (Exception e) {
+            logger.debug("Unable to generate thumbnail for node {} from stream. Cause: {}",
+                    fileNode.getPath(), e.getMessage());
+            image = null;
+        } finally {
+            IOUtils.closeQuietly(video);
+        }
+
+        return image != null && image.length > 0 ? storeThumbnailNode(fileNode,
+                new ByteArrayInputStream(image), thumbnailName) : null;
+    }
+
+    /**
+     * Runs the specified command through the shared process executor, which limits its concurrency and run time.
+     */
+    private ProcessResult execute(CommandLine cmd) throws IOException {
+        return execute(cmd, 0);
+    }
+
+    private ProcessResult execute(CommandLine cmd, int outputLimit) throws IOException {
+        ProcessExecutor executor = DocumentManagement.getInstance().getProcessExecutor();
+        try {
+            return outputLimit > 0 ? executor.execute(toCommand(cmd), workingDir, outputLimit) : executor
+                    .execute(toCommand(cmd), workingDir);
+        } catch (IOException e) {
+            failed(cmd);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the specified ffmpeg command, logging its error output if it fails.
+     */
+    private ProcessResult executeChecked(CommandLine cmd) throws DocumentOperationException {
+        ProcessResult result;
+        try {
+            result = execute(cmd);
+        } catch (IOException e) {
+            throw new DocumentOperationException(e);
+        }
+        if (result.isTimedOut()) {
+            logger.error("External process was killed as it exceeded its time limit: {}", cmd.toString());
+        } else if (!result.isSuccess() && result.getErrorOutput().length() > 0) {
+            logger.error("External process finished with error. Cause: {}", result.getErrorOutput());
+        }
+
+        return result;
+    }
+
+    /**
+     * Lets the detector re-check the executable of the command, which failed to run.
+     */
+    private void failed(CommandLine cmd) {
+        ToolDetector.Tool failedTool = cmd.getExecutable().equals(probeExecutablePath) ? probeTool : tool;
+        if (failedTool != null) {
+            failedTool.failed();
+        }
+    }
+
+    /**
+     * Starts the detection of the ffmpeg executable in the background; the service stays disabled until the executable
+     * is found.
+     */
+    protected void doAutodetect() {
+        tool = DocumentManagement.getInstance().getToolDetector().detect(executablePath, workingDir, "-version");
     }
 
     public boolean generateThumbnail(File videoFile, File outputFile, int offsetSeconds, String size)
@@ -168,45 +521,119 @@ public class VideoThumbnailServiceImpl implements VideoThumbnailService, Initial
             return false;
         }
 
+        return generateThumbnail(videoFile, outputFile, getOffsetArgument(offsetSeconds, null), size);
+    }
+
+    private boolean generateThumbnail(File videoFile, File outputFile, String offset, String size)
+            throws DocumentOperationException {
         long timer = System.currentTimeMillis();
 
-        CommandLine cmd = getConvertCommandLine(videoFile, outputFile,
-                String.valueOf(offsetSeconds), StringUtils.defaultIfEmpty(size, "320x240"));
+        CommandLine cmd = getConvertCommandLine(videoFile, outputFile, offset,
+                StringUtils.defaultIfEmpty(size, "320x240"));
 
         if (logger.isDebugEnabled()) {
             logger.debug("Execuiting thumbnail generation command: {}", cmd.toString());
         }
 
-        int exitValue = 0;
+        ProcessResult result = executeChecked(cmd);
+        if (logger.isDebugEnabled() && result.getErrorOutput().length() > 0) {
+            logger.debug(result.getErrorOutput());
+        }
 
-        StringOutputStream err = new StringOutputStream();
-        try {
-            DefaultExecutor executor = new DefaultExecutor();
-            executor.setStreamHandler(new PumpStreamHandler(null, err));
-            if (workingDir != null) {
-                if (workingDir.exists() || workingDir.mkdirs()) {
-                    executor.setWorkingDirectory(workingDir);
-                }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Generating thumbnail {} from {} done (exit code: {}) in {} ms",
+                    new Object[] { outputFile, videoFile, result.getExitValue(),
+                            (System.currentTimeMillis() - timer) });
+        }
+
+        return result.isSuccess();
+    }
+
+    /**
+     * Renders the storyboard sprite of the video in a single ffmpeg run: only the keyframes are decoded, sampled at the
+     * storyboard rate, scaled and tiled into one image.
+     */
+    protected boolean generateStoryboard(File videoFile, File outputFile, Storyboard layout,
+            int tileWidth) throws DocumentOperationException {
+        CommandLine cmd = new CommandLine(executablePath);
+        cmd.addArguments(storyboardParameters);
+
+        Map<String, Object> params = new HashMap<String, Object>(5);
+        params.put("input", videoFile);
+        params.put("output", outputFile);
+        params.put("rate", layout.getFrameRate());
+        params.put("width", String.valueOf(tileWidth));
+        params.put("layout", layout.getLayout());
+        cmd.setSubstitutionMap(params);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Executing storyboard generation command: {}", cmd.toString());
+        }
+
+        return executeChecked(cmd).isSuccess() && outputFile.length() > 0;
+    }
+
+    /**
+     * Generates several thumbnails in a single ffmpeg run: the frame at the requested offset is decoded once and
+     * duplicated with a <code>split</code> filter into one scaled output per thumbnail. If the cover art stream index
+     * is not negative, the embedded picture of that stream is used instead of a video frame and is scaled to fit the
+     * requested sizes, keeping its aspect ratio.
+     */
+    protected boolean generateThumbnails(Object input, Map<String, File> outputs,
+            Map<String, String> sizes, String offset, int coverArtStream)
+            throws DocumentOperationException {
+        boolean coverArt = coverArtStream >= 0;
+        CommandLine cmd = new CommandLine(executablePath);
+        cmd.addArgument("-y");
+        if (!coverArt) {
+            if (PROFILE_FAST.equals(profile)) {
+                cmd.addArguments(new String[] { "-skip_frame", "nokey", "-noaccurate_seek" });
             }
-            exitValue = executor.execute(cmd, System.getenv());
-        } catch (Exception e) {
-            throw new DocumentOperationException(e);
-        } finally {
-            if (exitValue > 0 && err.getLength() > 0) {
-                logger.error("External process finished with error. Cause: {}", err.toString());
+            cmd.addArgument(isInputSeeking() ? "-ss" : "-itsoffset");
+            cmd.addArgument(offset);
+        }
+        cmd.addArgument("-i");
+        cmd.addArgument(input.toString(), false);
+        cmd.addArgument("-an");
+
+        StringBuilder graph = new StringBuilder(64 * outputs.size());
+        graph.append(coverArt ? "[0:" + coverArtStream + "]" : "[0:v]").append("split=")
+                .append(outputs.size());
+        for (int i = 0; i < outputs.size(); i++) {
+            graph.append("[s").append(i).append(']');
+        }
+        int i = 0;
+        for (String name : outputs.keySet()) {
+            String size = sizes.get(name);
+            if (size == null || !SIZE_PATTERN.matcher(size).matches()) {
+                size = "320x240";
             }
-            if (logger.isDebugEnabled() && err.getLength() > 0) {
-                logger.debug(err.toString());
+            graph.append(";[s").append(i).append("]scale=").append(size.replace('x', ':'));
+            if (coverArt) {
+                graph.append(":force_original_aspect_ratio=decrease");
+            } else if (PROFILE_FAST.equals(profile)) {
+                graph.append(":flags=fast_bilinear");
             }
+            graph.append("[t").append(i).append(']');
+            i++;
+        }
+        cmd.addArgument("-filter_complex");
+        cmd.addArgument(graph.toString(), false);
+
+        i = 0;
+        for (File output : outputs.values()) {
+            cmd.addArgument("-map");
+            cmd.addArgument("[t" + i + "]", false);
+            cmd.addArguments(new String[] { "-frames:v", "1", "-vcodec", "mjpeg", "-f", "image2" });
+            cmd.addArgument(output.getPath(), false);
+            i++;
         }
 
         if (logger.isDebugEnabled()) {
-            logger.debug("Generating thumbnail {} from {} done (exit code: {}) in {} ms",
-                    new Object[] { outputFile, videoFile, exitValue,
-                            (System.currentTimeMillis() - timer) });
+            logger.debug("Executing thumbnails generation command: {}", cmd.toString());
         }
 
-        return exitValue == 0;
+        return executeChecked(cmd).isSuccess();
     }
 
     public File generateThumbnail(File videoFile, int offsetSeconds, String size)
@@ -217,10 +644,15 @@ public class VideoThumbnailServiceImpl implements VideoThumbnailService, Initial
             return null;
         }
 
+        return generateThumbnailFile(videoFile, getOffsetArgument(offsetSeconds, null), size);
+    }
+
+    private File generateThumbnailFile(File videoFile, String offset, String size)
+            throws DocumentOperationException {
         File out = null;
         try {
             out = File.createTempFile("video-thumbnail", null);
-            generateThumbnail(videoFile, out, offsetSeconds, size);
+            generateThumbnail(videoFile, out, offset, size);
         } catch (DocumentOperationException e) {
             FileUtils.deleteQuietly(out);
             throw e;
@@ -234,15 +666,75 @@ public class VideoThumbnailServiceImpl implements VideoThumbnailService, Initial
         return out;
     }
 
+    public InputStream generateThumbnail(InputStream videoStream, int offsetSeconds, String size)
+            throws DocumentOperationException {
+        if (!isEnabled()) {
+            logger.info("FFmpeg service is not enabled." + " Skip converting input stream.");
+
+            return null;
+        }
+
+        try {
+            return startThumbnailProcess("pipe:0", videoStream, getOffsetArgument(offsetSeconds, null),
+                    size);
+        } catch (IOException e) {
+            throw new DocumentOperationException(e);
+        }
+    }
+
+    private InputStream startThumbnailProcess(String input, InputStream stdin, String offset,
+            String size) throws IOException {
+        CommandLine cmd = getConvertCommandLine(input, "pipe:1", offset,
+                StringUtils.defaultIfEmpty(size, "320x240"));
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Executing streaming thumbnail generation command: {}", cmd.toString());
+        }
+
+        try {
+            return DocumentManagement.getInstance().getProcessExecutor()
+                    .startStreaming(toCommand(cmd), stdin, workingDir);
+        } catch (IOException e) {
+            failed(cmd);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs ffmpeg on the specified input and returns the generated thumbnail. The thumbnail is small, so it is read
+     * fully to detect a conversion failure before anything gets stored.
+     */
+    private byte[] readThumbnail(String input, InputStream stdin, String offset, String size)
+            throws IOException {
+        InputStream is = startThumbnailProcess(input, stdin, offset, size);
+        try {
+            byte[] image = IOUtils.toByteArray(is);
+            is.close();
+            return image;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
     protected CommandLine getConvertCommandLine(File inputFile, File outputFile, String offset,
             String size) {
+        return getConvertCommandLine((Object) inputFile, (Object) outputFile, offset, size);
+    }
+
+    /**
+     * Builds the ffmpeg command line. The input and output are either files or ffmpeg protocol URLs, like
+     * <code>pipe:0</code>.
+     */
+    protected CommandLine getConvertCommandLine(Object input, Object output, String offset,
+            String size) {
         CommandLine cmd = new CommandLine(executablePath);
-        cmd.addArguments(parameters);
+        cmd.addArguments(PROFILE_FAST.equals(profile) ? fastParameters
+                : (isInputSeeking() ? seekParameters : parameters));
 
         Map<String, Object> params = new HashMap<String, Object>(4);
         params.put("offset", offset);
-        params.put("input", inputFile);
-        params.put("output", outputFile);
+        params.put("input", input);
+        params.put("output", output);
         params.put("size", size);
 
         cmd.setSubstitutionMap(params);
@@ -250,8 +742,169 @@ public class VideoThumbnailServiceImpl implements VideoThumbnailService, Initial
         return cmd;
     }
 
+    /**
+     * Returns the size of the thumbnail, fitting the requested one and keeping the aspect ratio of the video, if its
+     * resolution is known.
+     */
+    private String fitSize(String size, VideoMetadata metadata) {
+        return metadata != null ? metadata.fitSize(size) : size;
+    }
+
+    /**
+     * Returns the media information of the provided video node, probing it with ffprobe if it was not yet recorded
+     * for the current revision of the content. The probe reads only the headers and the beginning of the video, either
+     * in place from the data store or through range requests. Returns <code>null</code> if the information is not
+     * available.
+     * 
+     * @param fileNode
+     *            the video node
+     * @return the media information of the provided video node or <code>null</code> if it is not available
+     */
+    protected VideoMetadata getMetadata(JCRNodeWrapper fileNode) {
+        DocumentSource source = null;
+        Binary binary = null;
+        BinaryRangeServer server = null;
+        try {
+            VideoMetadata metadata = VideoMetadata.read(fileNode);
+            if (metadata != null || !isProbeEnabled()) {
+                return metadata;
+            }
+
+            long timer = System.currentTimeMillis();
+            Object input;
+            source = DocumentSource.getInPlace(fileNode);
+            if (source != null) {
+                input = source.getFile();
+            } else if (rangeRequests) {
+                binary = fileNode.getNode(Constants.JCR_CONTENT).getProperty(Constants.JCR_DATA)
+                        .getBinary();
+                server = new BinaryRangeServer(binary, fileNode.getFileContent().getContentType());
+                input = server.start();
+            } else {
+                return null;
+            }
+
+            metadata = probe(input);
+            if (metadata != null) {
+                metadata.store(fileNode);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Probed video {}: {} in {} ms", new Object[] { fileNode.getPath(),
+                            metadata, (System.currentTimeMillis() - timer) });
+                }
+            }
+
+            return metadata;
+        } catch (Exception e) {
+            logger.warn("Unable to probe video " + fileNode.getPath() + ". Cause: " + e.getMessage(), e);
+            return null;
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+            if (binary != null) {
+                binary.dispose();
+            }
+            if (source != null) {
+                source.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the value of the time offset argument for ffmpeg. A negative offset (a delay of the streams) corresponds
+     * to a position in the video. If the media information is known, the position is kept within the video and moved
+     * to the nearest keyframe.
+     */
+    private String getOffsetArgument(int offsetSeconds, VideoMetadata metadata) {
+        if (offsetSeconds > 0 && !isInputSeeking()) {
+            return String.valueOf(offsetSeconds);
+        }
+        long position = Math.max(0, -offsetSeconds) * 1000L;
+        if (metadata != null) {
+            position = metadata.getSeekPosition(position);
+        }
+        String seconds = String.format(Locale.ENGLISH, "%.3f", position / 1000.0);
+
+        return isInputSeeking() || position == 0 ? seconds : "-" + seconds;
+    }
+
+    /**
+     * Returns the duration of the specified video in milliseconds, as reported by ffmpeg, or <code>-1</code> if it
+     * cannot be determined.
+     */
+    protected long getDuration(File videoFile) {
+        CommandLine cmd = new CommandLine(executablePath);
+        cmd.addArgument("-i");
+        cmd.addArgument(videoFile.getPath(), false);
+
+        ProcessResult result;
+        try {
+            // ffmpeg exits with an error as no output is specified, but still prints the input information
+            result = execute(cmd);
+        } catch (IOException e) {
+            logger.warn("Unable to read the information of the video " + videoFile + ". Cause: "
+                    + e.getMessage());
+            return -1;
+        }
+
+        Matcher m = DURATION_PATTERN.matcher(result.getErrorOutput());
+        if (!m.find()) {
+            return -1;
+        }
+
+        return (Long.parseLong(m.group(1)) * 3600 + Long.parseLong(m.group(2)) * 60) * 1000
+                + Math.round(Double.parseDouble(m.group(3)) * 1000);
+    }
+
+    /**
+     * Returns the status of the service: <code>enabled</code>, <code>disabled</code> or <code>detecting</code>, if
+     * the presence of ffmpeg is still being checked.
+     * 
+     * @return the status of the service
+     */
+    public String getStatus() {
+        if (tool == null) {
+            return enabled ? "enabled" : "disabled";
+        }
+        ToolDetector.Status status = tool.getStatus();
+        return status == ToolDetector.Status.DETECTING ? "detecting"
+                : (status == ToolDetector.Status.AVAILABLE ? "enabled" : "disabled");
+    }
+
     public boolean isEnabled() {
-        return enabled;
+        return tool != null ? tool.isAvailable() : enabled;
+    }
+
+    private boolean isProbeEnabled() {
+        return probeTool != null && probeTool.isAvailable();
+    }
+
+    private boolean isInputSeeking() {
+        return !PROFILE_EXACT.equals(profile);
+    }
+
+    /**
+     * Runs ffprobe on the specified input.
+     */
+    protected VideoMetadata probe(Object input) throws IOException {
+        CommandLine cmd = new CommandLine(probeExecutablePath);
+        cmd.addArguments(probeParameters);
+        Map<String, Object> params = new HashMap<String, Object>(1);
+        params.put("input", input);
+        cmd.setSubstitutionMap(params);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Executing probe command: {}", cmd.toString());
+        }
+
+        // the flat output lists every keyframe, so allow a larger capture than for the other tools
+        ProcessResult result = execute(cmd, PROBE_OUTPUT_LIMIT);
+        if (!result.isSuccess()) {
+            logger.warn("Probe of {} finished with error. Cause: {}", input, result.getErrorOutput());
+            return null;
+        }
+
+        return VideoProbe.parse(result.getOutput());
     }
 
     /**
@@ -274,24 +927,109 @@ public class VideoThumbnailServiceImpl implements VideoThumbnailService, Initial
         this.executablePath = executablePath;
     }
 
+    public void setFastParameters(String fastParameters) {
+        this.fastParameters = fastParameters;
+    }
+
     public void setParameters(String parameters) {
         this.parameters = parameters;
     }
 
+    public void setProbeExecutablePath(String probeExecutablePath) {
+        this.probeExecutablePath = probeExecutablePath;
+    }
+
+    public void setProbeParameters(String probeParameters) {
+        this.probeParameters = probeParameters;
+    }
+
+    /**
+     * Sets the thumbnail quality profile: {@link #PROFILE_FAST} (keyframes only, using
+     * {@link #setFastParameters(String)}), {@link #PROFILE_SEEK} (input seeking, using
+     * {@link #setSeekParameters(String)}) or {@link #PROFILE_EXACT} (frame-exact, using
+     * {@link #setParameters(String)}).
+     * 
+     * @param profile
+     *            the thumbnail quality profile
+     */
+    public void setProfile(String profile) {
+        profile = StringUtils.defaultIfEmpty(StringUtils.trimToEmpty(profile).toLowerCase(), PROFILE_FAST);
+        if (!PROFILE_FAST.equals(profile) && !PROFILE_SEEK.equals(profile) && !PROFILE_EXACT.equals(profile)) {
+            logger.warn("Unknown video thumbnail profile {}. Using {}", profile, PROFILE_FAST);
+            profile = PROFILE_FAST;
+        }
+        this.profile = profile;
+    }
+
+    public void setRangeRequests(boolean rangeRequests) {
+        this.rangeRequests = rangeRequests;
+    }
+
+    public void setSeekParameters(String seekParameters) {
+        this.seekParameters = seekParameters;
+    }
+
+    public void setStoryboardParameters(String storyboardParameters) {
+        this.storyboardParameters = storyboardParameters;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * If set to <code>true</code>, the cover art, embedded into the video container (attached picture stream), is used
+     * for the thumbnails instead of a decoded video frame.
+     * 
+     * @param useCoverArt
+     *            <code>true</code> to prefer embedded cover art
+     */
+    public void setUseCoverArt(boolean useCoverArt) {
+        this.useCoverArt = useCoverArt;
+    }
+
     public void setWorkingDir(File workingDir) {
         this.workingDir = workingDir;
     }
 
+    protected JCRNodeWrapper storeStoryboardCues(JCRNodeWrapper fileNode, String cues)
+            throws RepositoryException, IOException {
+        JCRNodeWrapper node = DerivativeUtils.getDerivativeNode(fileNode, STORYBOARD_CUES,
+                Constants.JAHIANT_RESOURCE, null);
+
+        Binary b = null;
+        try {
+            b = DerivativeUtils.createBinary(node, new ByteArrayInputStream(cues.getBytes("UTF-8")));
+            node.setProperty(Constants.JCR_DATA, b);
+        } finally {
+            if (b != null) {
+                b.dispose();
+            }
+        }
+        node.setProperty(Constants.JCR_MIMETYPE, "text/vtt");
+        node.setProperty(Constants.JCR_LASTMODIFIED, Calendar.getInstance());
+
+        return node;
+    }
+
     protected JCRNodeWrapper storeThumbnailNode(JCRNodeWrapper fileNode, File thumbnail,
             String thumbnailName) throws RepositoryException, IOException {
-        JCRNodeWrapper node = null;
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(thumbnail));
+            return storeThumbnailNode(fileNode, is, thumbnailName);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
 
-        fileNode.getSession().checkout(fileNode);
+    protected JCRNodeWrapper storeThumbnailNode(JCRNodeWrapper fileNode, InputStream thumbnail,
+            String thumbnailName) throws RepositoryException, IOException {
+        JCRNodeWrapper node = null;
 
-        try {
-            node = fileNode.getNode(thumbnailName);
-        } catch (PathNotFoundException e) {
-            node = fileNode.addNode(thumbnailName, Constants.JAHIANT_RESOURCE);
+        node = DerivativeUtils.getDerivativeNode(fileNode, thumbnailName, Constants.JAHIANT_RESOURCE,
+                null);
+        if (!node.isNodeType(Constants.JAHIAMIX_IMAGE)) {
             node.addMixin(Constants.JAHIAMIX_IMAGE);
         }
 
@@ -300,16 +1038,13 @@ public class VideoThumbnailServiceImpl implements VideoThumbnailService, Initial
         }
 
         Binary b = null;
-        InputStream is = null;
         try {
-            is = new BufferedInputStream(new FileInputStream(thumbnail));
-            b = new BinaryImpl(is);
+            b = DerivativeUtils.createBinary(node, thumbnail);
             node.setProperty(Constants.JCR_DATA, b);
         } finally {
             if (b != null) {
                 b.dispose();
             }
-            IOUtils.closeQuietly(is);
         }
         node.setProperty(Constants.JCR_MIMETYPE, "image/jpeg");
         Calendar lastModified = Calendar.getInstance();
@@ -318,4 +1053,22 @@ public class VideoThumbnailServiceImpl implements VideoThumbnailService, Initial
 
         return node;
     }
+
+    /**
+     * Converts the command line into the command array, passing the configured number of threads to ffmpeg.
+     */
+    private String[] toCommand(CommandLine cmd) {
+        String[] command = cmd.toStrings();
+        int threads = DocumentManagement.getInstance().getProcessExecutor().getThreads(command[0]);
+        if (threads <= 0) {
+            return command;
+        }
+        String[] withThreads = new String[command.length + 2];
+        withThreads[0] = command[0];
+        withThreads[1] = "-threads";
+        withThreads[2] = String.valueOf(threads);
+        System.arraycopy(command, 1, withThreads, 3, command.length - 1);
+
+        return withThreads;
+    }
 }
@@ -0,0 +1,86 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.video.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link Storyboard}.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class StoryboardTest {
+
+    @Test
+    public void testFrameRate() {
+        Storyboard storyboard = new Storyboard(10, 5, 160, 90, 123400);
+
+        assertEquals(50, storyboard.getFrameCount());
+        assertEquals("50000/123400", storyboard.getFrameRate());
+        assertEquals("10x5", storyboard.getLayout());
+        assertEquals("4000/1", new Storyboard(2, 2, 160, 90, 0).getFrameRate());
+    }
+
+    @Test
+    public void testWebVtt() {
+        Storyboard storyboard = new Storyboard(2, 2, 160, 90, 3723000);
+
+        assertEquals("WEBVTT\n" + "\n00:00:00.000 --> 00:15:30.750\nsprite.jpg#xywh=0,0,160,90\n"
+                + "\n00:15:30.750 --> 00:31:01.500\nsprite.jpg#xywh=160,0,160,90\n"
+                + "\n00:31:01.500 --> 00:46:32.250\nsprite.jpg#xywh=0,90,160,90\n"
+                + "\n00:46:32.250 --> 01:02:03.000\nsprite.jpg#xywh=160,90,160,90\n",
+                storyboard.toWebVtt("sprite.jpg"));
+    }
+
+    @Test
+    public void testWebVttLastCueEndsAtDuration() {
+        String vtt = new Storyboard(10, 5, 160, 90, 10001).toWebVtt("s.jpg");
+
+        assertTrue(vtt.contains("\n00:00:09.800 --> 00:00:10.001\ns.jpg#xywh=1440,360,160,90\n"));
+        assertEquals(50, vtt.split("-->").length - 1);
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.thumbnails.video.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.jahia.dm.thumbnails.VideoMetadata;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link VideoProbe}.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class VideoProbeTest {
+
+    private static String lines(String... lines) {
+        StringBuilder out = new StringBuilder();
+        for (String line : lines) {
+            out.append(line).append('\n');
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void testAudioOnly() {
+        VideoMetadata metadata = VideoProbe.parse(lines("streams.stream.0.index=0",
+                "streams.stream.0.codec_name=\"mp3\"", "streams.stream.0.codec_type=\"audio\"",
+                "format.duration=\"180.000000\""));
+
+        assertFalse(metadata.hasVideo());
+        assertFalse(metadata.hasCoverArt());
+        assertEquals(180000, metadata.getDuration());
+    }
+
+    @Test
+    public void testAttachedPicture() {
+        VideoMetadata metadata = VideoProbe.parse(lines("streams.stream.0.index=0",
+                "streams.stream.0.codec_type=\"audio\"", "streams.stream.1.index=1",
+                "streams.stream.1.codec_name=\"mjpeg\"", "streams.stream.1.codec_type=\"video\"",
+                "streams.stream.1.width=600", "streams.stream.1.height=600",
+                "streams.stream.1.disposition.attached_pic=1", "format.duration=\"245.5\""));
+
+        assertFalse(metadata.hasVideo());
+        assertTrue(metadata.hasCoverArt());
+        assertEquals(1, metadata.getCoverArtStream());
+        assertEquals(245500, metadata.getDuration());
+    }
+
+    @Test
+    public void testKeyframesOfVideoStreamOnly() {
+        VideoMetadata metadata = VideoProbe.parse(lines("streams.stream.0.index=0",
+                "streams.stream.0.codec_type=\"video\"", "streams.stream.0.width=640",
+                "streams.stream.0.height=360", "streams.stream.1.index=1",
+                "streams.stream.1.codec_type=\"audio\"", "packets.packet.0.stream_index=0",
+                "packets.packet.0.pts_time=\"0.000000\"", "packets.packet.0.flags=\"K_\"",
+                "packets.packet.1.stream_index=1", "packets.packet.1.pts_time=\"0.500000\"",
+                "packets.packet.1.flags=\"K_\"", "packets.packet.2.stream_index=0",
+                "packets.packet.2.pts_time=\"0.040000\"", "packets.packet.2.flags=\"__\"",
+                "packets.packet.3.stream_index=0", "packets.packet.3.pts_time=\"2.002000\"",
+                "packets.packet.3.flags=\"K_\""));
+
+        assertEquals(Arrays.asList(0L, 2002L), metadata.getKeyframes());
+        assertEquals(2002, metadata.getSeekPosition(1800));
+    }
+
+    @Test
+    public void testRotationFromSideData() {
+        VideoMetadata metadata = VideoProbe.parse(lines("streams.stream.0.index=0",
+                "streams.stream.0.codec_type=\"video\"", "streams.stream.0.width=1920",
+                "streams.stream.0.height=1080", "streams.stream.0.side_data_list.side_data.0.rotation=-90"));
+
+        assertEquals(90, metadata.getRotation());
+        assertEquals(1080, metadata.getDisplayWidth());
+        assertEquals(1920, metadata.getDisplayHeight());
+    }
+
+    @Test
+    public void testRotationFromTag() {
+        VideoMetadata metadata = VideoProbe.parse(lines("streams.stream.0.index=0",
+                "streams.stream.0.codec_name=\"h264\"", "streams.stream.0.codec_type=\"video\"",
+                "streams.stream.0.width=1920", "streams.stream.0.height=1080",
+                "streams.stream.0.tags.rotate=\"90\"", "format.duration=\"12.345000\""));
+
+        assertTrue(metadata.hasVideo());
+        assertEquals("h264", metadata.getCodec());
+        assertEquals(1920, metadata.getWidth());
+        assertEquals(1080, metadata.getHeight());
+        assertEquals(90, metadata.getRotation());
+        assertEquals(12345, metadata.getDuration());
+        assertEquals("136x240", metadata.fitSize("320x240"));
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.viewer;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.jahia.bin.Action;
+import org.jahia.bin.ActionResult;
+import org.jahia.dm.viewer.DocumentSearchHit;
+import org.jahia.dm.viewer.DocumentViewerService;
+import org.jahia.services.content.JCRSessionWrapper;
+import org.jahia.services.render.RenderContext;
+import org.jahia.services.render.Resource;
+import org.jahia.services.render.URLResolver;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Action for searching text inside a previewed document. Returns the matching pages and positions as JSON, so that the
+ * viewer can jump to and highlight the matches:
+ * 
+ * <pre>
+ * {"hits": [{"page": 3, "x": 0.12, "y": 0.4, "width": 0.1, "height": 0.015}, ...]}
+ * </pre>
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class DocumentSearchAction extends Action {
+
+    private int maxHits = 500;
+
+    private DocumentViewerService viewerService;
+
+    @Override
+    public ActionResult doExecute(HttpServletRequest req, RenderContext renderContext,
+            Resource resource, JCRSessionWrapper session, Map<String, List<String>> parameters,
+            URLResolver urlResolver) throws Exception {
+        String text = getParameter(parameters, "q");
+        if (StringUtils.isBlank(text)) {
+            return ActionResult.BAD_REQUEST;
+        }
+
+        JSONArray hits = new JSONArray();
+        for (DocumentSearchHit hit : viewerService.search(resource.getNode(), text, maxHits)) {
+            JSONObject json = new JSONObject();
+            json.put("page", hit.getPage());
+            json.put("x", hit.getX());
+            json.put("y", hit.getY());
+            json.put("width", hit.getWidth());
+            json.put("height", hit.getHeight());
+            hits.put(json);
+        }
+        JSONObject result = new JSONObject();
+        result.put("hits", hits);
+
+        return new ActionResult(HttpServletResponse.SC_OK, null, result);
+    }
+
+    public void setDocumentViewerService(DocumentViewerService service) {
+        this.viewerService = service;
+    }
+
+    public void setMaxHits(int maxHits) {
+        this.maxHits = maxHits;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.viewer;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.jahia.dm.DocumentManagement;
+import org.jahia.dm.DocumentOperationJob;
+import org.jahia.dm.viewer.DocumentViewerService;
+import org.jahia.services.content.JCRNodeWrapper;
+import org.quartz.JobExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background task for converting the remaining pages of the SWF view of the document after the first pages were
+ * converted in the progressive mode. The PDF file, converted for the first pages, is reused if it is passed in the job
+ * data.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class DocumentViewJob extends DocumentOperationJob {
+
+    /**
+     * Job data key for the path of the converted PDF file, which is owned by the job and deleted after the operation.
+     */
+    public static final String JOB_PDF_FILE = "pdfFile";
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentViewJob.class);
+
+    protected void doOperation(JCRNodeWrapper documentNode, JobExecutionContext jobExecutionContext)
+            throws Exception {
+        String pdfPath = (String) jobExecutionContext.getJobDetail().getJobDataMap().get(JOB_PDF_FILE);
+        File pdfFile = pdfPath != null ? new File(pdfPath) : null;
+        try {
+            DocumentViewerService service = DocumentManagement.getInstance().getDocumentViewerService();
+            if (service == null || !service.isEnabled()) {
+                logger.info(
+                        "Document viewer service is not enabled. Skipping generation of a view for node {}",
+                        documentNode.getPath());
+                if (documentNode.hasNode("swfView")
+                        && documentNode.getNode("swfView").isNodeType("jmix:progressiveDocumentView")) {
+                    documentNode.getNode("swfView").setProperty(DocumentViewerService.VIEW_STATUS,
+                            DocumentViewerService.VIEW_STATUS_FAILED);
+                    documentNode.getSession().save();
+                }
+                return;
+            }
+
+            service.createRemainingPages(documentNode, pdfFile);
+
+            documentNode.getSession().save();
+        } finally {
+            FileUtils.deleteQuietly(pdfFile);
+        }
+    }
+}
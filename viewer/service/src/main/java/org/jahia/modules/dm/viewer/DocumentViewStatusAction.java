@@ -0,0 +1,110 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.viewer;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jahia.bin.Action;
+import org.jahia.bin.ActionResult;
+import org.jahia.dm.PageGeometry;
+import org.jahia.dm.viewer.DocumentViewerService;
+import org.jahia.services.content.JCRNodeWrapper;
+import org.jahia.services.content.JCRSessionWrapper;
+import org.jahia.services.render.RenderContext;
+import org.jahia.services.render.Resource;
+import org.jahia.services.render.URLResolver;
+import org.json.JSONObject;
+
+/**
+ * Action for polling the state of the progressively generated SWF view of a document. Returns the number of pages,
+ * already available in the view, and the total page count as JSON:
+ * 
+ * <pre>
+ * {"pagesReady": 5, "pageCount": 40, "status": "inProgress", "complete": false, "failed": false}
+ * </pre>
+ * 
+ * The remaining pages are appended to the view in chunks, so clients reload the view whenever the number of available
+ * pages grows and stop polling when the view is either complete or failed.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class DocumentViewStatusAction extends Action {
+
+    @Override
+    public ActionResult doExecute(HttpServletRequest req, RenderContext renderContext,
+            Resource resource, JCRSessionWrapper session, Map<String, List<String>> parameters,
+            URLResolver urlResolver) throws Exception {
+        JCRNodeWrapper doc = resource.getNode();
+        if (!doc.hasNode("swfView")) {
+            return ActionResult.BAD_REQUEST;
+        }
+
+        JCRNodeWrapper view = doc.getNode("swfView");
+        long pageCount = view.hasProperty(PageGeometry.PAGE_COUNT) ? view.getProperty(
+                PageGeometry.PAGE_COUNT).getLong() : -1;
+        long pagesReady = view.hasProperty(DocumentViewerService.PAGES_READY) ? view.getProperty(
+                DocumentViewerService.PAGES_READY).getLong() : pageCount;
+
+        String status = view.hasProperty(DocumentViewerService.VIEW_STATUS) ? view.getProperty(
+                DocumentViewerService.VIEW_STATUS).getString() : null;
+        if (status == null) {
+            // view generated before the status was recorded
+            status = pagesReady >= pageCount ? DocumentViewerService.VIEW_STATUS_COMPLETE
+                    : DocumentViewerService.VIEW_STATUS_IN_PROGRESS;
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("pagesReady", pagesReady);
+        result.put("pageCount", pageCount);
+        result.put("status", status);
+        result.put("complete", DocumentViewerService.VIEW_STATUS_COMPLETE.equals(status));
+        result.put("failed", DocumentViewerService.VIEW_STATUS_FAILED.equals(status));
+
+        return new ActionResult(HttpServletResponse.SC_OK, null, result);
+    }
+}
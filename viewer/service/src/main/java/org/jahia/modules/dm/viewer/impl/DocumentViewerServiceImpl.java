@@ -43,31 +43,44 @@
  */
 package org.jahia.modules.dm.viewer.impl;
 
-import java.io.BufferedInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
 
-import javax.jcr.lock.Lock;
+import javax.imageio.ImageIO;
 import javax.jcr.lock.LockException;
-import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 import javax.jcr.version.Version;
-import javax.jcr.version.VersionIterator;
+import javax.jcr.version.VersionHistory;
 import javax.jcr.version.VersionManager;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.jackrabbit.value.BinaryImpl;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.jahia.api.Constants;
 import org.jahia.dm.DocumentOperationException;
+import org.jahia.dm.DocumentOperationJob;
+import org.jahia.dm.DocumentSource;
+import org.jahia.dm.PageGeometry;
+import org.jahia.dm.utils.DerivativeUtils;
+import org.jahia.dm.viewer.DocumentSearchHit;
 import org.jahia.dm.viewer.DocumentViewerService;
+import org.jahia.modules.dm.viewer.DocumentViewJob;
 import org.jahia.services.content.JCRContentUtils;
 import org.jahia.services.content.JCRNodeWrapper;
+import org.jahia.services.scheduler.BackgroundJob;
+import org.jahia.services.scheduler.SchedulerService;
 import org.jahia.services.transform.DocumentConverterService;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -80,12 +93,40 @@ public class DocumentViewerServiceImpl implements DocumentViewerService {
 
     private static final Logger logger = LoggerFactory.getLogger(DocumentViewerServiceImpl.class);
 
+    private static final String PDF_VIEW_MIXIN = "jmix:pdfDocumentView";
+
+    private static final String PDF_VIEW_VERSIONED_MIXIN = "jmix:versionedPdfDocumentView";
+
+    private static final String POSTER_VIEW_MIXIN = "jmix:posterDocumentView";
+
+    private static final String POSTER_VIEW_VERSIONED_MIXIN = "jmix:versionedPosterDocumentView";
+
+    private static final String SWF_VIEW_MIXIN = "jmix:swfDocumentView";
+
+    private static final String SWF_VIEW_VERSIONED_MIXIN = "jmix:versionedSwfDocumentView";
+
+    private static final String TEXT_LAYER_MIXIN = "jmix:textLayerDocumentView";
+
+    private static final String TEXT_LAYER_VERSIONED_MIXIN = "jmix:versionedTextLayerDocumentView";
+
     private DocumentConverterService documentConverter;
 
     private PDF2SWFConverterService pdf2SWFConverter;
 
+    private PDFOptimizerService pdfOptimizer;
+
+    private int posterWidth = 640;
+
+    private int progressivePages = 5;
+
+    private SchedulerService schedulerService;
+
     private String[] supportedDocumentFormats;
 
+    private boolean textLayerEnabled = true;
+
+    private boolean versionDerivatives;
+
     public boolean canHandle(JCRNodeWrapper fileNode) throws RepositoryException {
         if (!isEnabled() || supportedDocumentFormats == null) {
             if (logger.isDebugEnabled()) {
@@ -110,6 +151,7 @@ public class DocumentViewerServiceImpl implements DocumentViewerService {
         return pdf2SWFConverter.convert(inputPdfFile, outputSwfFile);
     }
 
+    @Deprecated
     public OutputStream convert(InputStream inputPdfStream) throws DocumentOperationException {
         return pdf2SWFConverter.convert(inputPdfStream);
     }
@@ -119,6 +161,10 @@ public class DocumentViewerServiceImpl implements DocumentViewerService {
         return pdf2SWFConverter.convert(inputPdfStream, outputSwfStream);
     }
 
+    public InputStream convertToStream(InputStream inputPdfStream) throws DocumentOperationException {
+        return pdf2SWFConverter.convertToStream(inputPdfStream);
+    }
+
     public boolean createPdfViewForNode(JCRNodeWrapper fileNode) throws RepositoryException,
             DocumentOperationException {
         if (!isEnabled() || !documentConverter.isEnabled()) {
@@ -133,31 +179,17 @@ public class DocumentViewerServiceImpl implements DocumentViewerService {
             try {
                 outFile = getAsPDF(fileNode);
                 if (outFile != null) {
-                    fileNode.getSession().checkout(fileNode);
-                    JCRNodeWrapper pdfNode = null;
-                    try {
-                        pdfNode = fileNode.getNode("pdfView");
-                    } catch (PathNotFoundException e) {
-                        if (!fileNode.isNodeType("jmix:pdfDocumentView")) {
-                            fileNode.addMixin("jmix:pdfDocumentView");
-                        }
-                        pdfNode = fileNode.addNode("pdfView", "nt:resource");
-                    }
-
-                    BufferedInputStream convertedStream = new BufferedInputStream(
-                            new FileInputStream(outFile));
-                    try {
-                        if (pdfNode.hasProperty(Constants.JCR_DATA)) {
-                            pdfNode.getProperty(Constants.JCR_DATA).remove();
-                        }
-                        pdfNode.setProperty(Constants.JCR_DATA, new BinaryImpl(convertedStream));
-                        pdfNode.setProperty(Constants.JCR_MIMETYPE, "application/pdf");
-                        Calendar lastModified = Calendar.getInstance();
-                        pdfNode.setProperty(Constants.JCR_LASTMODIFIED, lastModified);
-                        fileNode.getSession().save();
-                    } finally {
-                        IOUtils.closeQuietly(convertedStream);
-                    }
+                    outFile = optimize(outFile);
+                    JCRNodeWrapper pdfNode = getViewNode(fileNode, "pdfView", PDF_VIEW_MIXIN,
+                            PDF_VIEW_VERSIONED_MIXIN);
+
+                    storePdfDerivatives(fileNode, pdfNode, outFile);
+                    // the converted file is handed over to the repository or derivative store
+                    DerivativeUtils.setData(pdfNode, outFile);
+                    pdfNode.setProperty(Constants.JCR_MIMETYPE, "application/pdf");
+                    Calendar lastModified = Calendar.getInstance();
+                    pdfNode.setProperty(Constants.JCR_LASTMODIFIED, lastModified);
+                    fileNode.getSession().save();
                     if (logger.isDebugEnabled()) {
                         logger.debug("Created PDF view for node {} in {} ms", fileNode.getPath(),
                                 System.currentTimeMillis() - timer);
@@ -178,6 +210,11 @@ public class DocumentViewerServiceImpl implements DocumentViewerService {
 
     public boolean createViewForNode(JCRNodeWrapper fileNode) throws RepositoryException,
             DocumentOperationException {
+        return createViewForNode(fileNode, false);
+    }
+
+    public boolean createViewForNode(JCRNodeWrapper fileNode, boolean progressive)
+            throws RepositoryException, DocumentOperationException {
         if (!isEnabled() || supportedDocumentFormats == null) {
             logger.info(
                     "Viewer service is disabled"
@@ -192,12 +229,14 @@ public class DocumentViewerServiceImpl implements DocumentViewerService {
                 && JCRContentUtils.isMimeTypeGroup(fileNode.getFileContent().getContentType(),
                         supportedDocumentFormats)) {
             String sourceContentType = fileNode.getFileContent().getContentType();
+            DocumentSource source = null;
             File inFile = null;
             boolean sourceAvailable = true;
             try {
                 if (JCRContentUtils.isMimeTypeGroup(sourceContentType, "pdf")) {
-                    inFile = File.createTempFile("doc-viewer-source", null);
-                    JCRContentUtils.downloadFileContent(fileNode, inFile);
+                    // read the PDF in place if it is kept in a file data store
+                    source = DocumentSource.get(fileNode);
+                    inFile = source.getFile();
                 } else {
                     inFile = getAsPDF(fileNode);
                 }
@@ -206,7 +245,7 @@ public class DocumentViewerServiceImpl implements DocumentViewerService {
                 sourceAvailable = false;
             } finally {
                 if (!sourceAvailable) {
-                    FileUtils.deleteQuietly(inFile);
+                    releaseSource(source, inFile);
                 }
             }
 
@@ -214,68 +253,51 @@ public class DocumentViewerServiceImpl implements DocumentViewerService {
                 return false;
             }
 
+            int firstPages = progressive && schedulerService != null ? progressivePages : 0;
+            PDDocument pdfDoc = firstPages > 0 ? load(fileNode, inFile) : null;
+            if (pdfDoc == null || pdfDoc.getNumberOfPages() <= firstPages) {
+                // a short document is converted at once
+                close(pdfDoc);
+                try {
+                    createCompleteView(fileNode, inFile, timer);
+                } finally {
+                    releaseSource(source, inFile);
+                }
+                return true;
+            }
+
             File outFile = null;
+            boolean handedOver = false;
             try {
-                outFile = pdf2SWFConverter.convert(inFile);
+                outFile = pdf2SWFConverter.convert(inFile, "1-" + firstPages);
                 if (outFile != null) {
-                    fileNode.getSession().checkout(fileNode);
-                    JCRNodeWrapper swfNode = null;
-                    try {
-                        swfNode = fileNode.getNode("swfView");
-                    } catch (PathNotFoundException e) {
-                        if (!fileNode.isNodeType("jmix:swfDocumentView")) {
-                    		fileNode.addMixin("jmix:swfDocumentView");
-                        }
-                        
-                        swfNode = fileNode.addNode("swfView", "nt:resource");
-                    }
-
-                    BufferedInputStream convertedStream = new BufferedInputStream(
-                            new FileInputStream(outFile));
-                    try {
-                        if (swfNode.hasProperty(Constants.JCR_DATA)) {
-                            swfNode.getProperty(Constants.JCR_DATA).remove();
-                        }
-                        swfNode.setProperty(Constants.JCR_DATA, new BinaryImpl(convertedStream));
-                        swfNode.setProperty(Constants.JCR_MIMETYPE, "application/x-shockwave-flash");
-                        Calendar lastModified = Calendar.getInstance();
-                        swfNode.setProperty(Constants.JCR_LASTMODIFIED, lastModified);
-                        fileNode.getSession().save();
-                        // Handle version after thumbnail creation
-                        VersionManager vm = fileNode.getSession().getWorkspace().getVersionManager();
-                        VersionIterator vi = vm.getVersionHistory(fileNode.getPath()).getAllLinearVersions();
-                        Version current = null;
-                        while (vi.hasNext()) {
-                            current = (Version) vi.next();
-                        }
-                        if (current != null ) {
-                            String label = null;
-                            for (String l :vm.getVersionHistory(fileNode.getPath()).getVersionLabels(current)) {
-                                if (l.startsWith(fileNode.getSession().getWorkspace().getName() + "_uploaded_at_")) {
-                                    label = l;
-                                    break;
-                                }
-                            }
-                            if (label != null) {
-                                Version v = vm.checkpoint(fileNode.getPath());
-                                vm.getVersionHistory(fileNode.getPath()).addVersionLabel(v.getName(),label,true);
-                            }
-                        }
-
-                    } finally {
-                        IOUtils.closeQuietly(convertedStream);
-                    }
+                    JCRNodeWrapper swfNode = storeSwfView(fileNode, outFile);
+                    // the geometry tells the background job how many pages remain, the poster is shown while the
+                    // viewer loads the first pages
+                    storePageDerivatives(fileNode, swfNode, pdfDoc);
+                    close(pdfDoc);
+                    pdfDoc = null;
+                    setViewStatus(swfNode, firstPages, VIEW_STATUS_IN_PROGRESS);
+                    fileNode.getSession().save();
                     if (logger.isDebugEnabled()) {
-                        logger.debug("Created SWF view for node {} in {} ms", fileNode.getPath(),
+                        logger.debug("Created partial SWF view for node {} in {} ms", fileNode.getPath(),
                                 System.currentTimeMillis() - timer);
                     }
+                    // the converted PDF is handed over to the background job, an in-place source is resolved again
+                    handedOver = scheduleRemainingPages(fileNode, source == null ? inFile : null);
+                    if (!handedOver) {
+                        appendRemainingPages(fileNode, inFile, timer);
+                    }
                 }
             } catch (LockException e)  {
             	logger.warn("Document preview cannot be generated because this node is locked (or archived): " + fileNode.toString());
             } catch (Exception e) {
                 logger.error(e.getMessage(), e);
             } finally {
-                FileUtils.deleteQuietly(inFile);
+                close(pdfDoc);
+                if (!handedOver || source != null) {
+                    releaseSource(source, inFile);
+                }
                 FileUtils.deleteQuietly(outFile);
             }
         } else {
@@ -287,6 +309,448 @@ public class DocumentViewerServiceImpl implements DocumentViewerService {
         return true;
     }
 
+    /**
+     * Converts the pages of the document, which are not yet available in its progressively generated view, and appends
+     * them to the view. The pages are converted in chunks, doubling the number of available pages each time, and every
+     * chunk is stored as soon as it is appended, so that the clients can reload the view. The text layer is stored
+     * once all pages are available. If the view does not record its page count or the pages cannot be appended, e.g.
+     * swfcombine is not available, the complete view is created instead.
+     * 
+     * @param fileNode
+     *            the document node
+     * @param pdfFile
+     *            the PDF representation of the document
+     * @param timer
+     *            the start time of the operation for logging
+     * @return <code>true</code> if the view was completed
+     */
+    protected boolean appendRemainingPages(JCRNodeWrapper fileNode, File pdfFile, long timer) {
+        File swfFile = null;
+        File pagesFile = null;
+        try {
+            JCRNodeWrapper swfNode = fileNode.hasNode("swfView") ? fileNode.getNode("swfView") : null;
+            if (swfNode == null || !swfNode.hasProperty(PAGES_READY)
+                    || !swfNode.hasProperty(PageGeometry.PAGE_COUNT)) {
+                return createCompleteView(fileNode, pdfFile, timer);
+            }
+            int pagesReady = (int) swfNode.getProperty(PAGES_READY).getLong();
+            int pageCount = (int) swfNode.getProperty(PageGeometry.PAGE_COUNT).getLong();
+
+            swfFile = pdf2SWFConverter.createTempFile();
+            InputStream is = DerivativeUtils.getData(swfNode);
+            try {
+                FileUtils.copyInputStreamToFile(is, swfFile);
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+
+            while (pagesReady < pageCount) {
+                int last = Math.min(pageCount, Math.max(pagesReady, 1) * 2);
+                pagesFile = pdf2SWFConverter.convert(pdfFile, (pagesReady + 1) + "-" + last);
+                if (pagesFile == null) {
+                    markViewFailed(fileNode);
+                    return false;
+                }
+                File combined;
+                try {
+                    combined = pdf2SWFConverter.combine(swfFile, pagesFile);
+                } catch (DocumentOperationException e) {
+                    logger.warn("Unable to append pages to the view of node " + fileNode.getPath()
+                            + ". Converting the complete document. Cause: " + e.getMessage(), e);
+                    return createCompleteView(fileNode, pdfFile, timer);
+                }
+                FileUtils.deleteQuietly(pagesFile);
+                FileUtils.deleteQuietly(swfFile);
+                swfFile = combined;
+
+                // the stored file is handed over to the repository or derivative store
+                File viewFile = pdf2SWFConverter.createTempFile();
+                try {
+                    FileUtils.copyFile(swfFile, viewFile);
+                    swfNode = storeSwfView(fileNode, viewFile);
+                } finally {
+                    FileUtils.deleteQuietly(viewFile);
+                }
+                setViewStatus(swfNode, last, last < pageCount ? VIEW_STATUS_IN_PROGRESS : VIEW_STATUS_COMPLETE);
+                fileNode.getSession().save();
+                pagesReady = last;
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Appended pages up to {} of {} to the SWF view for node {}", new Object[] {
+                            last, pageCount, fileNode.getPath() });
+                }
+            }
+
+            if (textLayerEnabled) {
+                storeTextLayer(fileNode, pdfFile);
+                fileNode.getSession().save();
+            }
+            if (versionDerivatives) {
+                checkpointUploadedVersion(fileNode);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Completed SWF view for node {} in {} ms", fileNode.getPath(),
+                        System.currentTimeMillis() - timer);
+            }
+            return true;
+        } catch (LockException e)  {
+            logger.warn("Document preview cannot be generated because this node is locked (or archived): " + fileNode.toString());
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            markViewFailed(fileNode);
+        } finally {
+            FileUtils.deleteQuietly(pagesFile);
+            FileUtils.deleteQuietly(swfFile);
+        }
+
+        return false;
+    }
+
+    /**
+     * Converts all pages of the provided PDF into the SWF view of the document and stores the PDF derivatives (page
+     * geometry, poster and text layer). The view is marked as complete or, if it was generated progressively and the
+     * conversion fails, as failed, so that the clients stop waiting for the remaining pages.
+     * 
+     * @param fileNode
+     *            the document node
+     * @param pdfFile
+     *            the PDF representation of the document
+     * @param timer
+     *            the start time of the operation for logging
+     * @return <code>true</code> if the view was created
+     */
+    protected boolean createCompleteView(JCRNodeWrapper fileNode, File pdfFile, long timer) {
+        File outFile = null;
+        try {
+            outFile = pdf2SWFConverter.convert(pdfFile);
+            if (outFile == null) {
+                markViewFailed(fileNode);
+                return false;
+            }
+            JCRNodeWrapper swfNode = storeSwfView(fileNode, outFile);
+            int pageCount = storePdfDerivatives(fileNode, swfNode, pdfFile);
+            if (pageCount >= 0 || swfNode.isNodeType("jmix:progressiveDocumentView")) {
+                setViewStatus(swfNode, pageCount, VIEW_STATUS_COMPLETE);
+            }
+            fileNode.getSession().save();
+            if (versionDerivatives) {
+                checkpointUploadedVersion(fileNode);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Created complete SWF view for node {} in {} ms", fileNode.getPath(),
+                        System.currentTimeMillis() - timer);
+            }
+            return true;
+        } catch (LockException e)  {
+            logger.warn("Document preview cannot be generated because this node is locked (or archived): " + fileNode.toString());
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            markViewFailed(fileNode);
+        } finally {
+            FileUtils.deleteQuietly(outFile);
+        }
+
+        return false;
+    }
+
+    public boolean createRemainingPages(JCRNodeWrapper fileNode, File pdfFile) {
+        long timer = System.currentTimeMillis();
+        if (pdfFile != null && pdfFile.isFile()) {
+            return appendRemainingPages(fileNode, pdfFile, timer);
+        }
+
+        DocumentSource source = null;
+        File inFile = null;
+        try {
+            if (JCRContentUtils.isMimeTypeGroup(fileNode.getFileContent().getContentType(), "pdf")) {
+                source = DocumentSource.get(fileNode);
+                inFile = source.getFile();
+            } else {
+                inFile = getAsPDF(fileNode);
+            }
+            if (inFile != null) {
+                return appendRemainingPages(fileNode, inFile, timer);
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            releaseSource(source, inFile);
+        }
+        markViewFailed(fileNode);
+
+        return false;
+    }
+
+    /**
+     * Creates a new version of the document, carrying its view, and moves the "uploaded at" label of the base version
+     * onto it. Is only done if the versioning of derivatives is enabled.
+     * 
+     * @param fileNode
+     *            the document node
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    protected void checkpointUploadedVersion(JCRNodeWrapper fileNode) throws RepositoryException {
+        VersionManager vm = fileNode.getSession().getWorkspace().getVersionManager();
+        Version current = vm.getBaseVersion(fileNode.getPath());
+        if (current == null) {
+            return;
+        }
+        VersionHistory history = vm.getVersionHistory(fileNode.getPath());
+        String prefix = fileNode.getSession().getWorkspace().getName() + "_uploaded_at_";
+        String label = null;
+        for (String l : history.getVersionLabels(current)) {
+            if (l.startsWith(prefix)) {
+                label = l;
+                break;
+            }
+        }
+        if (label != null) {
+            if (!vm.isCheckedOut(fileNode.getPath())) {
+                // the derivatives are written without checking out the document
+                vm.checkout(fileNode.getPath());
+            }
+            Version v = vm.checkpoint(fileNode.getPath());
+            history.addVersionLabel(v.getName(), label, true);
+        }
+    }
+
+    /**
+     * Parses the provided PDF file once and stores the derivatives, which are created from the parsed document: the
+     * page count and page sizes are recorded on the view node, the first page is rendered as a viewer-sized poster
+     * image into the <code>posterView</code> sub-node and the per-page text layer with the search index is stored in
+     * the <code>textLayer</code> sub-node of the document. Failures are logged and do not prevent the view creation.
+     * 
+     * @param fileNode
+     *            the document node
+     * @param viewNode
+     *            the view node of the document
+     * @param pdfFile
+     *            the PDF representation of the document
+     * @return the number of pages in the document or <code>-1</code> if the document could not be parsed
+     */
+    protected int storePdfDerivatives(JCRNodeWrapper fileNode, JCRNodeWrapper viewNode, File pdfFile) {
+        long timer = System.currentTimeMillis();
+
+        PDDocument pdfDoc = null;
+        try {
+            pdfDoc = PDDocument.load(pdfFile);
+
+            int pageCount = storePageDerivatives(fileNode, viewNode, pdfDoc);
+
+            if (textLayerEnabled) {
+                storeTextLayer(fileNode, new TextLayerExtractor().extract(pdfDoc));
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Stored PDF derivatives for node {} in {} ms", fileNode.getPath(),
+                        System.currentTimeMillis() - timer);
+            }
+
+            return pageCount;
+        } catch (Exception e) {
+            logger.warn("Unable to create PDF derivatives for node " + fileNode.getPath()
+                    + ". Cause: " + e.getMessage(), e);
+        } finally {
+            close(pdfDoc);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Stores the page count and page sizes of the provided PDF document on the view node and the thumbnail of the
+     * document and renders its first page as a viewer-sized poster image into the <code>posterView</code> sub-node.
+     * Failures are logged and do not prevent the view creation.
+     * 
+     * @param fileNode
+     *            the document node
+     * @param viewNode
+     *            the view node of the document
+     * @param pdfDoc
+     *            the parsed PDF representation of the document
+     * @return the number of pages in the document or <code>-1</code> if the derivatives could not be stored
+     */
+    protected int storePageDerivatives(JCRNodeWrapper fileNode, JCRNodeWrapper viewNode, PDDocument pdfDoc) {
+        try {
+            List<?> pages = pdfDoc.getDocumentCatalog().getAllPages();
+            PageGeometry geometry = new PageGeometry();
+            geometry.addPages(pages);
+            geometry.store(viewNode);
+            if (geometry.getPageCount() > 0 && fileNode.hasNode("thumbnail")) {
+                // the thumbnail of a document, converted only partially, does not know the page geometry
+                geometry.store(DerivativeUtils.getDerivativeNode(fileNode, "thumbnail",
+                        Constants.JAHIANT_RESOURCE, null));
+            }
+
+            if (posterWidth > 0 && geometry.getPageCount() > 0) {
+                storePoster(fileNode, (PDPage) pages.get(0), geometry.getPageWidth(0));
+            }
+
+            return geometry.getPageCount();
+        } catch (Exception e) {
+            logger.warn("Unable to store page geometry and poster image for node " + fileNode.getPath()
+                    + ". Cause: " + e.getMessage(), e);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Marks the progressively generated view of the document as failed, so that the clients stop polling for its
+     * remaining pages. Errors are logged.
+     * 
+     * @param fileNode
+     *            the document node
+     */
+    protected void markViewFailed(JCRNodeWrapper fileNode) {
+        try {
+            fileNode.getSession().refresh(false);
+            if (!fileNode.hasNode("swfView")) {
+                return;
+            }
+            JCRNodeWrapper swfNode = fileNode.getNode("swfView");
+            if (swfNode.isNodeType("jmix:progressiveDocumentView")) {
+                swfNode.setProperty(VIEW_STATUS, VIEW_STATUS_FAILED);
+                fileNode.getSession().save();
+            }
+        } catch (RepositoryException e) {
+            logger.error("Unable to mark the view of the node " + fileNode.getPath() + " as failed. Cause: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    private static void setViewStatus(JCRNodeWrapper swfNode, int pagesReady, String status)
+            throws RepositoryException {
+        if (!swfNode.isNodeType("jmix:progressiveDocumentView")) {
+            swfNode.addMixin("jmix:progressiveDocumentView");
+        }
+        if (pagesReady >= 0) {
+            swfNode.setProperty(PAGES_READY, pagesReady);
+        }
+        swfNode.setProperty(VIEW_STATUS, status);
+    }
+
+    private void storePoster(JCRNodeWrapper fileNode, PDPage firstPage, float pageWidth)
+            throws RepositoryException, IOException {
+        // resolution in DPI, which results in a poster image of the configured width
+        int resolution = Math.max(1, Math.round(posterWidth * 72 / Math.max(pageWidth, 1)));
+        BufferedImage image = firstPage.convertToImage(BufferedImage.TYPE_INT_RGB, resolution);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 * 1024);
+        try {
+            if (!ImageIO.write(image, "jpeg", out)) {
+                return;
+            }
+        } finally {
+            image.flush();
+        }
+
+        JCRNodeWrapper posterNode = getViewNode(fileNode, "posterView", POSTER_VIEW_MIXIN,
+                POSTER_VIEW_VERSIONED_MIXIN);
+        DerivativeUtils.setData(posterNode, new ByteArrayInputStream(out.toByteArray()));
+        posterNode.setProperty(Constants.JCR_MIMETYPE, "image/jpeg");
+        posterNode.setProperty(Constants.JCR_LASTMODIFIED, Calendar.getInstance());
+    }
+
+    private JCRNodeWrapper storeSwfView(JCRNodeWrapper fileNode, File swfFile) throws RepositoryException,
+            IOException {
+        JCRNodeWrapper swfNode = getViewNode(fileNode, "swfView", SWF_VIEW_MIXIN, SWF_VIEW_VERSIONED_MIXIN);
+        DerivativeUtils.setData(swfNode, swfFile);
+        swfNode.setProperty(Constants.JCR_MIMETYPE, "application/x-shockwave-flash");
+        swfNode.setProperty(Constants.JCR_LASTMODIFIED, Calendar.getInstance());
+
+        return swfNode;
+    }
+
+    /**
+     * Extracts the text layer of the provided PDF file and stores it in the <code>textLayer</code> sub-node of the
+     * document. Failures are logged and do not prevent the view creation.
+     * 
+     * @param fileNode
+     *            the document node
+     * @param pdfFile
+     *            the PDF representation of the document
+     */
+    protected void storeTextLayer(JCRNodeWrapper fileNode, File pdfFile) {
+        PDDocument pdfDoc = load(fileNode, pdfFile);
+        if (pdfDoc == null) {
+            return;
+        }
+        try {
+            storeTextLayer(fileNode, new TextLayerExtractor().extract(pdfDoc));
+        } catch (Exception e) {
+            logger.warn("Unable to create text layer for node " + fileNode.getPath() + ". Cause: "
+                    + e.getMessage(), e);
+        } finally {
+            close(pdfDoc);
+        }
+    }
+
+    private void storeTextLayer(JCRNodeWrapper fileNode, TextLayer textLayer) throws RepositoryException,
+            IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+        textLayer.write(out);
+
+        JCRNodeWrapper textNode = getViewNode(fileNode, "textLayer", TEXT_LAYER_MIXIN,
+                TEXT_LAYER_VERSIONED_MIXIN);
+        DerivativeUtils.setData(textNode, new ByteArrayInputStream(out.toByteArray()));
+        textNode.setProperty(Constants.JCR_MIMETYPE, TextLayer.MIME_TYPE);
+        textNode.setProperty(Constants.JCR_LASTMODIFIED, Calendar.getInstance());
+    }
+
+    private static void close(PDDocument pdfDoc) {
+        if (pdfDoc != null) {
+            try {
+                pdfDoc.close();
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+    }
+
+    private static void releaseSource(DocumentSource source, File inFile) {
+        if (source != null) {
+            source.close();
+        } else {
+            FileUtils.deleteQuietly(inFile);
+        }
+    }
+
+    /**
+     * Returns the view sub-node of the document, creating it if needed. The view is declared by the provided mixin,
+     * which excludes it from the versions of the document, or by its versioned variant if the versioning of
+     * derivatives is enabled; in the latter case the document is checked out. A view, declared by the other variant,
+     * e.g. after the setting was changed, is replaced.
+     * 
+     * @param fileNode
+     *            the document node
+     * @param name
+     *            the name of the view sub-node
+     * @param mixin
+     *            the mixin, declaring the not versioned view
+     * @param versionedMixin
+     *            the mixin, declaring the view, which is copied into the versions of the document
+     * @return the view sub-node of the document
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    protected JCRNodeWrapper getViewNode(JCRNodeWrapper fileNode, String name, String mixin,
+            String versionedMixin) throws RepositoryException {
+        String other = versionDerivatives ? mixin : versionedMixin;
+        if (fileNode.isNodeType(other) || versionDerivatives && !fileNode.isCheckedOut()) {
+            // a versioned view is part of the document and can only be changed in a checked out document
+            fileNode.getSession().checkout(fileNode);
+        }
+        if (fileNode.isNodeType(other)) {
+            if (fileNode.hasNode(name)) {
+                fileNode.getNode(name).remove();
+            }
+            fileNode.removeMixin(other);
+        }
+
+        return DerivativeUtils.getDerivativeNode(fileNode, name, "nt:resource", versionDerivatives ? versionedMixin
+                : mixin);
+    }
+
     protected File getAsPDF(JCRNodeWrapper fileNode) {
         if (documentConverter == null || !documentConverter.isEnabled()) {
             logger.info(
@@ -297,18 +761,21 @@ public class DocumentViewerServiceImpl implements DocumentViewerService {
 
         File pdf = null;
         long timer = System.currentTimeMillis();
-        File inFile = null;
+        DocumentSource source = null;
         try {
-            inFile = File.createTempFile("doc-viewer-source", null);
-            JCRContentUtils.downloadFileContent(fileNode, inFile);
-            pdf = documentConverter.convert(inFile, fileNode.getFileContent().getContentType(),
-                    "application/pdf");
+            source = DocumentSource.get(fileNode);
+            pdf = documentConverter.convert(source.getFile(), fileNode.getFileContent()
+                    .getContentType(), "application/pdf");
         } catch (IOException e) {
-            throw new DocumentOperationException("Error occurred downloading the source document "
-                    + fileNode.getPath() + " into a temporary file " + inFile
-                    + " for generating an SWF view", e);
+            throw new DocumentOperationException("Error occurred accessing the source document "
+                    + fileNode.getPath() + " for generating an SWF view", e);
+        } catch (RepositoryException e) {
+            throw new DocumentOperationException("Error occurred accessing the source document "
+                    + fileNode.getPath() + " for generating an SWF view", e);
         } finally {
-            FileUtils.deleteQuietly(inFile);
+            if (source != null) {
+                source.close();
+            }
 
             if (pdf != null && logger.isDebugEnabled()) {
                 logger.debug("Converted document {} into a PDF file in {} ms", fileNode.getPath(),
@@ -319,10 +786,115 @@ public class DocumentViewerServiceImpl implements DocumentViewerService {
         return pdf;
     }
 
+    /**
+     * Parses the provided PDF file. Failures are logged.
+     * 
+     * @param fileNode
+     *            the document node
+     * @param pdfFile
+     *            the PDF representation of the document
+     * @return the parsed document or <code>null</code> if the file cannot be parsed
+     */
+    protected PDDocument load(JCRNodeWrapper fileNode, File pdfFile) {
+        try {
+            return PDDocument.load(pdfFile);
+        } catch (Exception e) {
+            logger.warn("Unable to parse PDF representation of node " + fileNode.getPath() + ". Cause: "
+                    + e.getMessage(), e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Runs the web optimization pass on the provided PDF file if the optimizer is configured. Returns the optimized file,
+     * deleting the provided one, or the provided file itself if no optimization was done.
+     * 
+     * @param pdfFile
+     *            the PDF file to be optimized
+     * @return the optimized file or the provided file itself if no optimization was done
+     */
+    protected File optimize(File pdfFile) {
+        if (pdfOptimizer == null || !pdfOptimizer.isEnabled()) {
+            return pdfFile;
+        }
+        File optimized = null;
+        try {
+            optimized = pdfOptimizer.optimize(pdfFile);
+        } catch (DocumentOperationException e) {
+            logger.warn("Unable to optimize PDF file. Cause: " + e.getMessage(), e);
+        }
+        if (optimized != null) {
+            FileUtils.deleteQuietly(pdfFile);
+            return optimized;
+        }
+
+        return pdfFile;
+    }
+
     public boolean isEnabled() {
         return pdf2SWFConverter != null && pdf2SWFConverter.isEnabled();
     }
 
+    public List<DocumentSearchHit> search(JCRNodeWrapper fileNode, String text, int maxHits)
+            throws RepositoryException, DocumentOperationException {
+        if (!fileNode.hasNode("textLayer")) {
+            return Collections.emptyList();
+        }
+
+        long timer = System.currentTimeMillis();
+
+        InputStream is = null;
+        try {
+            is = DerivativeUtils.getData(fileNode.getNode("textLayer"));
+            List<DocumentSearchHit> hits = TextLayer.search(is, text, maxHits);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Found {} matches for '{}' in node {} in {} ms", new Object[] { hits.size(),
+                        text, fileNode.getPath(), System.currentTimeMillis() - timer });
+            }
+            return hits;
+        } catch (IOException e) {
+            throw new DocumentOperationException("Error reading text layer of the node "
+                    + fileNode.getPath(), e);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Schedules the background job, which converts the remaining pages of the document and appends them to the view,
+     * created in the progressive mode, and stores the text layer of the document.
+     * 
+     * @param fileNode
+     *            the document node
+     * @param pdfFile
+     *            the converted PDF file, which is handed over to the job and deleted by it; <code>null</code> if the
+     *            job should read the document itself
+     * @return <code>true</code> if the job was scheduled
+     * @throws RepositoryException
+     *             in case of a JCR error
+     */
+    protected boolean scheduleRemainingPages(JCRNodeWrapper fileNode, File pdfFile) throws RepositoryException {
+        JobDetail jobDetail = BackgroundJob.createJahiaJob("Document view for " + fileNode.getName(),
+                DocumentViewJob.class);
+        JobDataMap jobDataMap = jobDetail.getJobDataMap();
+        jobDataMap.put(DocumentOperationJob.JOB_UUID, fileNode.getIdentifier());
+        jobDataMap.put(DocumentOperationJob.JOB_WORKSPACE, fileNode.getSession().getWorkspace()
+                .getName());
+        if (pdfFile != null) {
+            jobDataMap.put(DocumentViewJob.JOB_PDF_FILE, pdfFile.getAbsolutePath());
+        }
+        try {
+            schedulerService.scheduleJobNow(jobDetail);
+            return true;
+        } catch (Exception e) {
+            logger.error("Unable to schedule generation of the remaining pages of the view for node "
+                    + fileNode.getPath() + ". Cause: " + e.getMessage(), e);
+        }
+
+        return false;
+    }
+
     public void setDocumentConverter(DocumentConverterService documentConverter) {
         this.documentConverter = documentConverter;
     }
@@ -331,8 +903,41 @@ public class DocumentViewerServiceImpl implements DocumentViewerService {
         pdf2SWFConverter = service;
     }
 
+    public void setPDFOptimizer(PDFOptimizerService pdfOptimizer) {
+        this.pdfOptimizer = pdfOptimizer;
+    }
+
+    public void setPosterWidth(int posterWidth) {
+        this.posterWidth = posterWidth;
+    }
+
+    public void setProgressivePages(int progressivePages) {
+        this.progressivePages = progressivePages;
+    }
+
+    public void setSchedulerService(SchedulerService schedulerService) {
+        this.schedulerService = schedulerService;
+    }
+
     public void setSupportedDocumentFormats(String[] supportedDocumentFormats) {
         this.supportedDocumentFormats = supportedDocumentFormats;
     }
 
+    public void setTextLayerEnabled(boolean textLayerEnabled) {
+        this.textLayerEnabled = textLayerEnabled;
+    }
+
+    /**
+     * If set to <code>true</code> a new version of the document is created after its SWF view is generated, so that
+     * the uploaded version carries the view: the views are declared by the <code>jmix:versioned*</code> mixins, which
+     * copy them into the versions. By default derivatives are stored in not versioned sub-nodes and the version
+     * history only contains real edits of the document.
+     * 
+     * @param versionDerivatives
+     *            <code>true</code> to create a new version of the document for its view
+     */
+    public void setVersionDerivatives(boolean versionDerivatives) {
+        this.versionDerivatives = versionDerivatives;
+    }
+
 }
@@ -56,13 +56,12 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.exec.CommandLine;
-import org.apache.commons.exec.DefaultExecutor;
-import org.apache.commons.exec.PumpStreamHandler;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.jahia.dm.DocumentManagement;
 import org.jahia.dm.DocumentOperationException;
-import org.jahia.dm.utils.ProcessUtils;
-import org.jahia.utils.StringOutputStream;
+import org.jahia.dm.utils.ProcessResult;
+import org.jahia.dm.utils.ToolDetector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
@@ -74,16 +73,42 @@ import org.springframework.beans.factory.InitializingBean;
  */
 public class PDF2SWFConverterService implements InitializingBean {
 
+    /**
+     * Buffered stream over a temporary file, which is removed when the stream is closed.
+     */
+    private static class DeleteOnCloseInputStream extends BufferedInputStream {
+
+        private final File file;
+
+        DeleteOnCloseInputStream(File file) throws FileNotFoundException {
+            super(new FileInputStream(file), 64 * 1024);
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
     private static Logger logger = LoggerFactory.getLogger(PDF2SWFConverterService.class);
 
     private boolean autodetect;
 
+    private String combineExecutablePath = "swfcombine";
+
     private boolean enabled;
 
     private String executablePath = "pdf2swf";
 
     private String parameters = "${input} -o ${output} -f -T 9 -t -s storeallcharacters";
 
+    private ToolDetector.Tool tool;
+
     private File workingDir;
 
     public void afterPropertiesSet() throws Exception {
@@ -92,7 +117,65 @@ public class PDF2SWFConverterService implements InitializingBean {
         }
     }
 
+    /**
+     * Concatenates the pages of the provided SWF files into a new SWF file, using swfcombine from SWFTools. Is used to
+     * append the pages, converted separately, to the already available view of a document.
+     * 
+     * @param firstSwfFile
+     *            the SWF file with the first pages
+     * @param secondSwfFile
+     *            the SWF file with the pages to be appended
+     * @return the SWF file with the pages of both files
+     * @throws DocumentOperationException
+     *             in case the files cannot be combined, e.g. swfcombine is not available
+     */
+    public File combine(File firstSwfFile, File secondSwfFile) throws DocumentOperationException {
+        long timer = System.currentTimeMillis();
+
+        File out = null;
+        try {
+            out = createTempFile();
+            CommandLine cmd = new CommandLine(combineExecutablePath);
+            cmd.addArgument("-a");
+            cmd.addArgument(firstSwfFile.getAbsolutePath(), false);
+            cmd.addArgument(secondSwfFile.getAbsolutePath(), false);
+            cmd.addArgument("-o");
+            cmd.addArgument(out.getAbsolutePath(), false);
+
+            execute(cmd, firstSwfFile);
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(out);
+            throw new DocumentOperationException(e);
+        } catch (DocumentOperationException e) {
+            FileUtils.deleteQuietly(out);
+            throw e;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Combined {} and {} into {} in {} ms", new Object[] { firstSwfFile, secondSwfFile, out,
+                    (System.currentTimeMillis() - timer) });
+        }
+
+        return out;
+    }
+
     public File convert(File inputPdfFile) throws DocumentOperationException {
+        return convert(inputPdfFile, (String) null);
+    }
+
+    /**
+     * Converts the specified pages of the provided PDF file into an SWF file.
+     * 
+     * @param inputPdfFile
+     *            the source file
+     * @param pageRange
+     *            the range of pages to be converted in the pdf2swf syntax, e.g. <code>1-5</code>; <code>null</code> to
+     *            convert all pages
+     * @return the SFW file with the converted content
+     * @throws DocumentOperationException
+     *             in case of a conversion error
+     */
+    public File convert(File inputPdfFile, String pageRange) throws DocumentOperationException {
         if (!isEnabled()) {
             logger.info("pdf2swf conversion service is not enabled." + " Skip converting file {}",
                     inputPdfFile);
@@ -102,7 +185,7 @@ public class PDF2SWFConverterService implements InitializingBean {
         File out = null;
         try {
             out = createTempFile();
-            convert(inputPdfFile, out);
+            convert(inputPdfFile, out, pageRange);
         } catch (DocumentOperationException e) {
             FileUtils.deleteQuietly(out);
             throw e;
@@ -116,6 +199,25 @@ public class PDF2SWFConverterService implements InitializingBean {
     }
 
     public boolean convert(File inputPdfFile, File outputSwfFile) throws DocumentOperationException {
+        return convert(inputPdfFile, outputSwfFile, null);
+    }
+
+    /**
+     * Converts the specified pages of the provided PDF file into an SWF file.
+     * 
+     * @param inputPdfFile
+     *            the source file
+     * @param outputSwfFile
+     *            the output file to store converted SWF content into
+     * @param pageRange
+     *            the range of pages to be converted in the pdf2swf syntax, e.g. <code>1-5</code>; <code>null</code> to
+     *            convert all pages
+     * @return <code>true</code> if the conversion succeeded
+     * @throws DocumentOperationException
+     *             in case of a conversion error
+     */
+    public boolean convert(File inputPdfFile, File outputSwfFile, String pageRange)
+            throws DocumentOperationException {
         if (!isEnabled()) {
             logger.info("pdf2swf conversion service is not enabled." + " Skip converting file {}",
                     inputPdfFile);
@@ -125,35 +227,22 @@ public class PDF2SWFConverterService implements InitializingBean {
 
         long timer = System.currentTimeMillis();
 
-        CommandLine cmd = getConvertCommandLine(inputPdfFile, outputSwfFile);
+        CommandLine cmd = getConvertCommandLine(inputPdfFile, outputSwfFile, pageRange);
 
         if (logger.isDebugEnabled()) {
             logger.debug("Execuiting conversion command: {}", cmd.toString());
         }
 
-        int exitValue = 0;
-
-        StringOutputStream out = new StringOutputStream();
-        StringOutputStream err = new StringOutputStream();
+        ProcessResult result;
         try {
-            DefaultExecutor executor = new DefaultExecutor();
-            executor.setStreamHandler(new PumpStreamHandler(out, err));
-            if (workingDir != null) {
-                if (workingDir.exists() || workingDir.mkdirs()) {
-                    executor.setWorkingDirectory(workingDir);
-                }
+            result = execute(cmd, inputPdfFile);
+        } catch (IOException e) {
+            if (tool != null) {
+                tool.failed();
             }
-            exitValue = executor.execute(cmd, System.getenv());
-        } catch (Exception e) {
             throw new DocumentOperationException(e);
-        } finally {
-            if (err.getLength() > 0) {
-                logger.error("Conversion process finished with error. Cause: {}", err.toString());
-            }
-            if (logger.isDebugEnabled() && out.getLength() > 0) {
-                logger.debug(out.toString());
-            }
         }
+        int exitValue = result.getExitValue();
 
         if (logger.isDebugEnabled()) {
             logger.debug("Conversion from {} to {} done (exit code: {}) in {} ms", new Object[] {
@@ -163,6 +252,18 @@ public class PDF2SWFConverterService implements InitializingBean {
         return exitValue == 0;
     }
 
+    /**
+     * Converts the provided PDF content into SWF.
+     * 
+     * @param inputPdfStream
+     *            the source PDF content
+     * @return an output stream over the converted file
+     * @throws DocumentOperationException
+     *             in case of a conversion error
+     * @deprecated the returned stream cannot be used to read the converted content; use
+     *             {@link #convertToStream(InputStream)} instead
+     */
+    @Deprecated
     public OutputStream convert(InputStream inputPdfStream) throws DocumentOperationException {
         if (!isEnabled()) {
             logger.info("pdf2swf conversion service is not enabled."
@@ -200,11 +301,38 @@ public class PDF2SWFConverterService implements InitializingBean {
 
     public boolean convert(InputStream inputPdfStream, OutputStream outputSwfStream)
             throws DocumentOperationException {
+        InputStream is = convertToStream(inputPdfStream);
+        if (is == null) {
+            return false;
+        }
+        try {
+            IOUtils.copyLarge(is, outputSwfStream);
+        } catch (IOException e) {
+            throw new DocumentOperationException(e);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        return true;
+    }
+
+    /**
+     * Converts the provided PDF content into SWF and returns a stream for reading the result. pdf2swf needs random
+     * access to its input and writes its output with back-patching, so the content is passed to it through a temporary
+     * file. The result file is removed as soon as the returned stream is closed.
+     * 
+     * @param inputPdfStream
+     *            the source PDF content
+     * @return a stream for reading the converted SWF content or <code>null</code> if the service is disabled
+     * @throws DocumentOperationException
+     *             in case of a conversion error
+     */
+    public InputStream convertToStream(InputStream inputPdfStream) throws DocumentOperationException {
         if (!isEnabled()) {
             logger.info("pdf2swf conversion service is not enabled."
                     + " Skip converting file input stream.");
 
-            return false;
+            return null;
         }
 
         File in = null;
@@ -213,51 +341,78 @@ public class PDF2SWFConverterService implements InitializingBean {
             in = createTempFile();
             FileUtils.copyInputStreamToFile(inputPdfStream, in);
             out = createTempFile();
-            convert(in, out);
+            if (!convert(in, out)) {
+                throw new DocumentOperationException("Unable to convert PDF content into SWF");
+            }
+            return new DeleteOnCloseInputStream(out);
+        } catch (DocumentOperationException e) {
+            FileUtils.deleteQuietly(out);
+            throw e;
         } catch (Exception e) {
             FileUtils.deleteQuietly(out);
             throw new DocumentOperationException(e);
         } finally {
             FileUtils.deleteQuietly(in);
         }
-
-        if (out != null) {
-            InputStream is = null;
-            try {
-                is = new BufferedInputStream(new FileInputStream(out));
-                IOUtils.copy(is, outputSwfStream);
-            } catch (IOException e) {
-                throw new DocumentOperationException(e);
-            } finally {
-                IOUtils.closeQuietly(is);
-                FileUtils.deleteQuietly(out);
-            }
-        }
-
-        return true;
     }
 
     protected File createTempFile() throws IOException {
         return File.createTempFile("doc-viewer", null);
     }
 
+    /**
+     * Starts the detection of the pdf2swf executable in the background; the service stays disabled until the
+     * executable is found.
+     */
     protected void doAutodetect() {
-        logger.info("Checking if the {} is present in the current path", executablePath);
-
-        enabled = ProcessUtils.commandPresent(executablePath, workingDir);
+        tool = DocumentManagement.getInstance().getToolDetector().detect(executablePath, workingDir, "-V");
+    }
 
-        if (enabled) {
-            logger.info("Found {} in the current system path." + " Service will be enabled.",
-                    executablePath);
-        } else {
-            logger.info("Command {} cannot be found in the current system path."
-                    + " The service will be disabled.", executablePath);
+    /**
+     * Executes the provided command and checks its result.
+     * 
+     * @param cmd
+     *            the command to execute
+     * @param inputFile
+     *            the file the command is executed for
+     * @return the result of the process
+     * @throws IOException
+     *             in case the process cannot be started
+     * @throws DocumentOperationException
+     *             in case the process was aborted or exited with an error code
+     */
+    protected ProcessResult execute(CommandLine cmd, File inputFile) throws IOException,
+            DocumentOperationException {
+        ProcessResult result = DocumentManagement.getInstance().getProcessExecutor()
+                .execute(cmd.toStrings(), workingDir);
+        if (result.getErrorOutput().length() > 0) {
+            logger.error("Conversion process finished with error. Cause: {}", result.getErrorOutput());
+        }
+        if (logger.isDebugEnabled() && result.getOutput().length() > 0) {
+            logger.debug(result.getOutput());
+        }
+        if (result.isTimedOut()) {
+            throw new DocumentOperationException("Conversion of the file " + inputFile
+                    + " was aborted as it exceeded the time limit");
         }
+        if (!result.isSuccess()) {
+            throw new DocumentOperationException("Conversion process exited with code " + result.getExitValue());
+        }
+
+        return result;
     }
 
     protected CommandLine getConvertCommandLine(File inputFile, File outputFile) {
+        return getConvertCommandLine(inputFile, outputFile, null);
+    }
+
+    protected CommandLine getConvertCommandLine(File inputFile, File outputFile, String pageRange) {
         CommandLine cmd = new CommandLine(executablePath);
         cmd.addArguments(parameters);
+        if (pageRange != null) {
+            cmd.addArgument("-p");
+            cmd.addArgument(pageRange);
+        }
 
         Map<String, File> params = new HashMap<String, File>(2);
         params.put("input", inputFile);
@@ -268,13 +423,28 @@ public class PDF2SWFConverterService implements InitializingBean {
         return cmd;
     }
 
+    /**
+     * Returns the status of the service: <code>enabled</code>, <code>disabled</code> or <code>detecting</code>, if
+     * the presence of the executable is still being checked.
+     * 
+     * @return the status of the service
+     */
+    public String getStatus() {
+        if (tool == null) {
+            return enabled ? "enabled" : "disabled";
+        }
+        ToolDetector.Status status = tool.getStatus();
+        return status == ToolDetector.Status.DETECTING ? "detecting"
+                : (status == ToolDetector.Status.AVAILABLE ? "enabled" : "disabled");
+    }
+
     /**
      * Returns <code>true</code> if the conversion service is enabled; <code>false</code> otherwise.
      * 
      * @return <code>true</code> if the conversion service is enabled; <code>false</code> otherwise
      */
     public boolean isEnabled() {
-        return enabled;
+        return tool != null ? tool.isAvailable() : enabled;
     }
 
     /**
@@ -293,6 +463,16 @@ public class PDF2SWFConverterService implements InitializingBean {
         }
     }
 
+    /**
+     * Sets the path of the swfcombine executable, which is used to append pages to the view of a document.
+     * 
+     * @param combineExecutablePath
+     *            the path of the swfcombine executable
+     */
+    public void setCombineExecutablePath(String combineExecutablePath) {
+        this.combineExecutablePath = combineExecutablePath;
+    }
+
     public void setExecutablePath(String executablePath) {
         this.executablePath = executablePath;
     }
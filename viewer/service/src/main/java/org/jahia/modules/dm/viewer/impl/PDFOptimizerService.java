@@ -0,0 +1,362 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.viewer.impl;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDJpeg;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectImage;
+import org.jahia.dm.DocumentOperationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Optimizes PDF documents for on-screen viewing: re-compresses uncompressed streams, deduplicates identical image
+ * resources and downsamples embedded images, which resolution exceeds the configured limit. Uses the PDFBox library.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class PDFOptimizerService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PDFOptimizerService.class);
+
+    private boolean enabled = true;
+
+    private float imageQuality = 0.8f;
+
+    private int maxImageResolution = 150;
+
+    protected File createTempFile() throws IOException {
+        return File.createTempFile("doc-viewer-optimized", null);
+    }
+
+    protected int deduplicateImages(List<PDPage> pages) throws IOException {
+        Map<String, COSStream> images = new HashMap<String, COSStream>();
+        Map<COSStream, String> digests = new HashMap<COSStream, String>();
+        Set<COSStream> duplicates = new HashSet<COSStream>();
+        for (PDPage page : pages) {
+            COSDictionary xobjects = getXObjects(page);
+            if (xobjects == null) {
+                continue;
+            }
+            for (COSName key : new ArrayList<COSName>(xobjects.keySet())) {
+                COSStream image = getImageStream(xobjects, key);
+                if (image == null) {
+                    continue;
+                }
+                String digest = digests.get(image);
+                if (digest == null) {
+                    digest = digest(image);
+                    digests.put(image, digest);
+                }
+                COSStream existing = images.get(digest);
+                if (existing == null) {
+                    images.put(digest, image);
+                } else if (existing != image) {
+                    xobjects.setItem(key, existing);
+                    duplicates.add(image);
+                }
+            }
+        }
+
+        return duplicates.size();
+    }
+
+    private String digest(COSStream stream) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        // the stream dictionary (filters, colour space, size) is part of the identity of the image
+        md.update(String.valueOf(stream.getDictionaryObject(COSName.FILTER)).getBytes("UTF-8"));
+        md.update(String.valueOf(stream.getDictionaryObject(COSName.COLORSPACE)).getBytes("UTF-8"));
+        md.update((stream.getInt(COSName.WIDTH) + "x" + stream.getInt(COSName.HEIGHT)).getBytes("UTF-8"));
+        InputStream is = null;
+        try {
+            is = new DigestInputStream(stream.getFilteredStream(), md);
+            byte[] buffer = new byte[8192];
+            while (is.read(buffer) != -1) {
+                // only digesting
+            }
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        return Hex.encodeHexString(md.digest());
+    }
+
+    protected int downsampleImages(PDDocument pdfDoc, List<PDPage> pages) throws IOException {
+        int count = 0;
+        Map<COSStream, COSStream> processed = new HashMap<COSStream, COSStream>();
+        for (PDPage page : pages) {
+            COSDictionary xobjects = getXObjects(page);
+            PDRectangle box = page.findCropBox();
+            if (xobjects == null || box == null || box.getWidth() <= 0 || box.getHeight() <= 0) {
+                continue;
+            }
+            for (COSName key : new ArrayList<COSName>(xobjects.keySet())) {
+                COSStream image = getImageStream(xobjects, key);
+                if (image == null) {
+                    continue;
+                }
+                COSStream replacement = processed.get(image);
+                if (replacement == null) {
+                    replacement = downsample(pdfDoc, image, box);
+                    processed.put(image, replacement != null ? replacement : image);
+                    if (replacement != null) {
+                        count++;
+                    }
+                }
+                if (replacement != null && replacement != image) {
+                    xobjects.setItem(key, replacement);
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private COSStream downsample(PDDocument pdfDoc, COSStream imageStream, PDRectangle pageBox)
+            throws IOException {
+        if (imageStream.getBoolean(COSName.IMAGE_MASK, false)
+                || imageStream.getDictionaryObject(COSName.SMASK) != null
+                || imageStream.getDictionaryObject(COSName.MASK) != null
+                || imageStream.getInt(COSName.BITS_PER_COMPONENT, 8) < 8) {
+            // keep masked and bi-level images (CCITT, JBIG2) as is: they are either compact already or would lose
+            // transparency on JPEG re-encoding
+            return null;
+        }
+        int width = imageStream.getInt(COSName.WIDTH, 0);
+        int height = imageStream.getInt(COSName.HEIGHT, 0);
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        // the image cannot be shown larger than the page, so this is the lowest resolution it is rendered with
+        double resolution = Math.max(width / (pageBox.getWidth() / 72.0),
+                height / (pageBox.getHeight() / 72.0));
+        if (resolution <= maxImageResolution) {
+            return null;
+        }
+
+        double scale = maxImageResolution / resolution;
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+        PDXObjectImage image = (PDXObjectImage) PDXObject.createXObject(imageStream);
+        BufferedImage source = image != null ? image.getRGBImage() : null;
+        if (source == null) {
+            return null;
+        }
+        BufferedImage scaled = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, targetWidth, targetHeight, null);
+        } finally {
+            g.dispose();
+            source.flush();
+        }
+
+        try {
+            return new PDJpeg(pdfDoc, scaled, imageQuality).getCOSStream();
+        } finally {
+            scaled.flush();
+        }
+    }
+
+    private static COSStream getImageStream(COSDictionary xobjects, COSName key) {
+        COSBase value = xobjects.getDictionaryObject(key);
+        if (value instanceof COSStream
+                && COSName.IMAGE.equals(((COSStream) value).getDictionaryObject(COSName.SUBTYPE))) {
+            return (COSStream) value;
+        }
+        return null;
+    }
+
+    private static COSDictionary getXObjects(PDPage page) {
+        PDResources resources = page.findResources();
+        if (resources == null) {
+            return null;
+        }
+        COSBase xobjects = resources.getCOSDictionary().getDictionaryObject(COSName.XOBJECT);
+
+        return xobjects instanceof COSDictionary ? (COSDictionary) xobjects : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Optimizes the provided PDF file for on-screen viewing. The source file is left untouched.
+     * 
+     * @param pdfFile
+     *            the PDF file to be optimized
+     * @return the temporary file with the optimized PDF or <code>null</code> if the service is disabled or the optimized
+     *         document is not smaller than the source one
+     * @throws DocumentOperationException
+     *             in case of an optimization error
+     */
+    @SuppressWarnings("unchecked")
+    public File optimize(File pdfFile) throws DocumentOperationException {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        long timer = System.currentTimeMillis();
+
+        File out = null;
+        boolean optimized = false;
+        PDDocument pdfDoc = null;
+        try {
+            pdfDoc = PDDocument.load(pdfFile);
+            if (pdfDoc.isEncrypted()) {
+                logger.debug("PDF file {} is encrypted. Skipping optimization.", pdfFile);
+                return null;
+            }
+            List<PDPage> pages = pdfDoc.getDocumentCatalog().getAllPages();
+
+            int duplicates = deduplicateImages(pages);
+            int downsampled = maxImageResolution > 0 ? downsampleImages(pdfDoc, pages) : 0;
+            int compressed = recompressStreams(pdfDoc);
+
+            out = createTempFile();
+            pdfDoc.save(out);
+
+            optimized = out.length() < pdfFile.length();
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Optimized PDF file {} in {} ms: {} streams compressed, {} duplicate images removed,"
+                        + " {} images downsampled. Size {} -> {} bytes"
+                        + (optimized ? "" : " (original will be kept)"), new Object[] { pdfFile,
+                        (System.currentTimeMillis() - timer), compressed, duplicates, downsampled,
+                        pdfFile.length(), out.length() });
+            }
+        } catch (Exception e) {
+            throw new DocumentOperationException("Error optimizing PDF file " + pdfFile, e);
+        } finally {
+            if (pdfDoc != null) {
+                try {
+                    pdfDoc.close();
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+            if (!optimized) {
+                FileUtils.deleteQuietly(out);
+            }
+        }
+
+        return optimized ? out : null;
+    }
+
+    protected int recompressStreams(PDDocument pdfDoc) throws IOException {
+        int count = 0;
+        for (COSObject obj : pdfDoc.getDocument().getObjects()) {
+            COSBase base = obj.getObject();
+            if (base instanceof COSStream && ((COSStream) base).getFilters() == null) {
+                ((COSStream) base).setFilters(COSName.FLATE_DECODE);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets the JPEG quality (0..1) used when re-encoding downsampled images.
+     * 
+     * @param imageQuality
+     *            the JPEG quality (0..1) used when re-encoding downsampled images
+     */
+    public void setImageQuality(float imageQuality) {
+        this.imageQuality = imageQuality;
+    }
+
+    /**
+     * Sets the target resolution (in DPI) for embedded images. Images with a higher resolution are downsampled. A value
+     * of <code>0</code> disables image downsampling.
+     * 
+     * @param maxImageResolution
+     *            the target resolution (in DPI) for embedded images
+     */
+    public void setMaxImageResolution(int maxImageResolution) {
+        this.maxImageResolution = maxImageResolution;
+    }
+}
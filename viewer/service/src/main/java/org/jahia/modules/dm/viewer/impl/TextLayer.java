@@ -0,0 +1,476 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.viewer.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.jahia.dm.viewer.DocumentSearchHit;
+
+/**
+ * Per-page text layer of a document with a small inverted index of its words. The layer is stored in a compact binary
+ * form:
+ * 
+ * <pre>
+ * int     magic ("DMTL")
+ * byte    version
+ * int     page count
+ * int[]   offsets of the page blocks, relative to the start of the page section
+ * int     length of the index section
+ * index   for each term (sorted): UTF term, varint length of postings, postings (varint page, varint token delta)
+ * pages   for each page: float width, float height (points), varint token count,
+ *         for each token: UTF text, 4 x unsigned short box (x, y, width, height as fractions of the page size)
+ * </pre>
+ * 
+ * The index is placed before the page blocks so that a lookup reads the index and only those page blocks, which
+ * contain matches.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class TextLayer {
+
+    /**
+     * Single page of the text layer.
+     */
+    public static class Page {
+
+        private float height;
+
+        private List<Token> tokens = new ArrayList<Token>();
+
+        private float width;
+
+        public Page(float width, float height) {
+            super();
+            this.width = width;
+            this.height = height;
+        }
+
+        public void addToken(Token token) {
+            tokens.add(token);
+        }
+
+        public float getHeight() {
+            return height;
+        }
+
+        public List<Token> getTokens() {
+            return tokens;
+        }
+
+        public float getWidth() {
+            return width;
+        }
+    }
+
+    /**
+     * A normalized word of the text layer with its bounding box, expressed as fractions of the page size.
+     */
+    public static class Token {
+
+        private float height;
+
+        private String text;
+
+        private float width;
+
+        private float x;
+
+        private float y;
+
+        public Token(String text, float x, float y, float width, float height) {
+            super();
+            this.text = text;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        public float getHeight() {
+            return height;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public float getWidth() {
+            return width;
+        }
+
+        public float getX() {
+            return x;
+        }
+
+        public float getY() {
+            return y;
+        }
+    }
+
+    private static final int MAGIC = 0x444D544C;
+
+    public static final String MIME_TYPE = "application/x-jahia-text-layer";
+
+    private static final float SCALE = 65535f;
+
+    private static final byte VERSION = 1;
+
+    private static float fromFixed(int value) {
+        return value / SCALE;
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    /**
+     * Searches the text layer, provided as a stream in its binary form, for the specified text. Only the index and the
+     * pages with matches are read.
+     * 
+     * @param textLayerStream
+     *            the input stream with the binary text layer
+     * @param text
+     *            the text to search for; multiple words are matched as a phrase
+     * @param maxHits
+     *            the maximum number of hits to return
+     * @return a list of matches ordered by page and position
+     * @throws IOException
+     *             in case of a read error or an invalid format
+     */
+    public static List<DocumentSearchHit> search(InputStream textLayerStream, String text, int maxHits)
+            throws IOException {
+        List<String> terms = tokenize(text);
+        if (terms.isEmpty() || maxHits <= 0) {
+            return Collections.emptyList();
+        }
+
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(textLayerStream));
+        DataInputStream in = new DataInputStream(counter);
+
+        if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+            throw new IOException("Unsupported text layer format");
+        }
+        int pageCount = in.readInt();
+        int[] pageOffsets = new int[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            pageOffsets[i] = in.readInt();
+        }
+        int indexLength = in.readInt();
+        long pagesStart = counter.getByteCount() + indexLength;
+
+        // read postings for the requested terms only
+        TreeSet<String> wanted = new TreeSet<String>(terms);
+        Map<String, List<long[]>> postings = new HashMap<String, List<long[]>>();
+        while (counter.getByteCount() < pagesStart && postings.size() < wanted.size()) {
+            String term = in.readUTF();
+            int length = readVarInt(in);
+            if (!wanted.contains(term)) {
+                if (term.compareTo(wanted.last()) > 0) {
+                    // terms are sorted: no further matches possible
+                    break;
+                }
+                skipFully(in, length);
+                continue;
+            }
+            long end = counter.getByteCount() + length;
+            List<long[]> termPostings = new ArrayList<long[]>();
+            int page = 0;
+            int token = 0;
+            while (counter.getByteCount() < end) {
+                int pageDelta = readVarInt(in);
+                if (pageDelta > 0) {
+                    token = 0;
+                }
+                page += pageDelta;
+                token += readVarInt(in);
+                termPostings.add(new long[] { page, token });
+            }
+            postings.put(term, termPostings);
+        }
+        if (postings.size() < wanted.size()) {
+            // at least one of the words is not present in the document
+            return Collections.emptyList();
+        }
+
+        // phrase matching: the first term occurrence is followed by the next terms at consecutive positions
+        SortedMap<Integer, List<int[]>> matches = new TreeMap<Integer, List<int[]>>();
+        int matchCount = 0;
+        for (long[] first : postings.get(terms.get(0))) {
+            boolean phrase = true;
+            for (int i = 1; i < terms.size() && phrase; i++) {
+                phrase = containsPosting(postings.get(terms.get(i)), first[0], first[1] + i);
+            }
+            if (phrase) {
+                int page = (int) first[0];
+                List<int[]> pageMatches = matches.get(page);
+                if (pageMatches == null) {
+                    pageMatches = new ArrayList<int[]>();
+                    matches.put(page, pageMatches);
+                }
+                pageMatches.add(new int[] { (int) first[1], (int) first[1] + terms.size() - 1 });
+                if (++matchCount >= maxHits) {
+                    break;
+                }
+            }
+        }
+
+        List<DocumentSearchHit> hits = new ArrayList<DocumentSearchHit>(matchCount);
+        for (Map.Entry<Integer, List<int[]>> pageMatches : matches.entrySet()) {
+            int page = pageMatches.getKey();
+            skipFully(in, pagesStart + pageOffsets[page] - counter.getByteCount());
+            in.readFloat();
+            in.readFloat();
+            int tokenCount = readVarInt(in);
+            int lastToken = pageMatches.getValue().get(pageMatches.getValue().size() - 1)[1];
+            float[][] boxes = new float[Math.min(tokenCount, lastToken + 1)][];
+            for (int i = 0; i < boxes.length; i++) {
+                in.readUTF();
+                boxes[i] = new float[] { fromFixed(in.readUnsignedShort()),
+                        fromFixed(in.readUnsignedShort()), fromFixed(in.readUnsignedShort()),
+                        fromFixed(in.readUnsignedShort()) };
+            }
+            for (int[] range : pageMatches.getValue()) {
+                float left = Float.MAX_VALUE, top = Float.MAX_VALUE, right = 0, bottom = 0;
+                for (int i = range[0]; i <= range[1] && i < boxes.length; i++) {
+                    left = Math.min(left, boxes[i][0]);
+                    top = Math.min(top, boxes[i][1]);
+                    right = Math.max(right, boxes[i][0] + boxes[i][2]);
+                    bottom = Math.max(bottom, boxes[i][1] + boxes[i][3]);
+                }
+                if (right > 0) {
+                    hits.add(new DocumentSearchHit(page + 1, left, top, right - left, bottom - top));
+                }
+            }
+        }
+
+        return hits;
+    }
+
+    private static boolean containsPosting(List<long[]> postings, long page, long token) {
+        int low = 0;
+        int high = postings.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long[] p = postings.get(mid);
+            int cmp = p[0] != page ? (p[0] < page ? -1 : 1) : (p[1] != token ? (p[1] < token ? -1 : 1) : 0);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void skipFully(DataInputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static int toFixed(float value) {
+        return Math.round(Math.max(0, Math.min(1, value)) * SCALE);
+    }
+
+    /**
+     * Splits the provided text into normalized terms: lower-cased letter and digit sequences with accents removed.
+     * 
+     * @param text
+     *            the text to be tokenized
+     * @return a list of normalized terms
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<String>();
+        if (text == null) {
+            return terms;
+        }
+        StringBuilder term = new StringBuilder();
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                term.append(Character.toLowerCase(c));
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        if (term.length() > 0) {
+            terms.add(term.toString());
+        }
+
+        return terms;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private List<Page> pages = new ArrayList<Page>();
+
+    public void addPage(Page page) {
+        pages.add(page);
+    }
+
+    public List<Page> getPages() {
+        return pages;
+    }
+
+    /**
+     * Writes the binary form of this text layer into the provided output stream.
+     * 
+     * @param out
+     *            the output stream to write to
+     * @throws IOException
+     *             in case of a write error
+     */
+    public void write(OutputStream out) throws IOException {
+        // build the page blocks and the inverted index
+        ByteArrayOutputStream pagesBytes = new ByteArrayOutputStream();
+        DataOutputStream pagesOut = new DataOutputStream(pagesBytes);
+        int[] pageOffsets = new int[pages.size()];
+        SortedMap<String, List<int[]>> index = new TreeMap<String, List<int[]>>();
+        for (int p = 0; p < pages.size(); p++) {
+            Page page = pages.get(p);
+            pageOffsets[p] = pagesOut.size();
+            pagesOut.writeFloat(page.getWidth());
+            pagesOut.writeFloat(page.getHeight());
+            writeVarInt(pagesOut, page.getTokens().size());
+            for (int t = 0; t < page.getTokens().size(); t++) {
+                Token token = page.getTokens().get(t);
+                pagesOut.writeUTF(token.getText());
+                pagesOut.writeShort(toFixed(token.getX()));
+                pagesOut.writeShort(toFixed(token.getY()));
+                pagesOut.writeShort(toFixed(token.getWidth()));
+                pagesOut.writeShort(toFixed(token.getHeight()));
+
+                List<int[]> postings = index.get(token.getText());
+                if (postings == null) {
+                    postings = new ArrayList<int[]>();
+                    index.put(token.getText(), postings);
+                }
+                postings.add(new int[] { p, t });
+            }
+        }
+        pagesOut.flush();
+
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(indexBytes);
+        ByteArrayOutputStream postingBytes = new ByteArrayOutputStream();
+        DataOutputStream postingOut = new DataOutputStream(postingBytes);
+        for (Map.Entry<String, List<int[]>> entry : index.entrySet()) {
+            postingBytes.reset();
+            int page = 0;
+            int token = 0;
+            for (int[] posting : entry.getValue()) {
+                if (posting[0] != page) {
+                    token = 0;
+                }
+                writeVarInt(postingOut, posting[0] - page);
+                writeVarInt(postingOut, posting[1] - token);
+                page = posting[0];
+                token = posting[1];
+            }
+            postingOut.flush();
+            indexOut.writeUTF(entry.getKey());
+            writeVarInt(indexOut, postingBytes.size());
+            postingBytes.writeTo(indexOut);
+        }
+        indexOut.flush();
+
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(MAGIC);
+        dataOut.writeByte(VERSION);
+        dataOut.writeInt(pages.size());
+        for (int offset : pageOffsets) {
+            dataOut.writeInt(offset);
+        }
+        dataOut.writeInt(indexBytes.size());
+        indexBytes.writeTo(dataOut);
+        pagesBytes.writeTo(dataOut);
+        dataOut.flush();
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.viewer.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.output.NullWriter;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.util.PDFTextStripper;
+import org.apache.pdfbox.util.TextPosition;
+
+/**
+ * Extracts the words of a PDF document together with their positions on the page into a {@link TextLayer}, using
+ * PDFBox text extraction.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class TextLayerExtractor extends PDFTextStripper {
+
+    private static final int MAX_TOKEN_LENGTH = 255;
+
+    private static TextLayer.Page newPage(PDPage page) {
+        PDRectangle box = page.findCropBox();
+        float width = box != null ? box.getWidth() : 0;
+        float height = box != null ? box.getHeight() : 0;
+        // the direction adjusted glyph positions are relative to the page as displayed
+        return page.findRotation() % 180 != 0 ? new TextLayer.Page(height, width) : new TextLayer.Page(width, height);
+    }
+
+    private TextLayer.Page currentPage;
+
+    private List<?> pages;
+
+    private TextLayer textLayer;
+
+    public TextLayerExtractor() throws IOException {
+        super();
+        setSortByPosition(true);
+    }
+
+    /**
+     * Adds the pages, which were not processed, i.e. pages without content stream, as empty ones up to the specified
+     * page count, so that the page indexes of the text layer match the ones of the document.
+     */
+    private void addEmptyPages(int pageCount) {
+        while (textLayer.getPages().size() < pageCount && textLayer.getPages().size() < pages.size()) {
+            textLayer.addPage(newPage((PDPage) pages.get(textLayer.getPages().size())));
+        }
+    }
+
+    private void addToken(List<TextPosition> positions, StringBuilder text) {
+        if (text.length() == 0 || positions.isEmpty()) {
+            return;
+        }
+        float pageWidth = currentPage.getWidth();
+        float pageHeight = currentPage.getHeight();
+        if (pageWidth <= 0 || pageHeight <= 0) {
+            return;
+        }
+        float left = Float.MAX_VALUE, top = Float.MAX_VALUE, right = 0, bottom = 0;
+        for (TextPosition position : positions) {
+            left = Math.min(left, position.getXDirAdj());
+            top = Math.min(top, position.getYDirAdj() - position.getHeightDir());
+            right = Math.max(right, position.getXDirAdj() + position.getWidthDirAdj());
+            bottom = Math.max(bottom, position.getYDirAdj());
+        }
+        currentPage.addToken(new TextLayer.Token(text.length() > MAX_TOKEN_LENGTH ? text.substring(0,
+                MAX_TOKEN_LENGTH) : text.toString(), left / pageWidth, top / pageHeight, (right - left)
+                / pageWidth, (bottom - top) / pageHeight));
+    }
+
+    /**
+     * Extracts the text layer of the provided document.
+     * 
+     * @param pdfDoc
+     *            the PDF document to extract text from
+     * @return the text layer of the provided document
+     * @throws IOException
+     *             in case of an extraction error
+     */
+    public TextLayer extract(PDDocument pdfDoc) throws IOException {
+        textLayer = new TextLayer();
+        pages = pdfDoc.getDocumentCatalog().getAllPages();
+        try {
+            Writer out = new NullWriter();
+            writeText(pdfDoc, out);
+            addEmptyPages(pages.size());
+            return textLayer;
+        } finally {
+            textLayer = null;
+            currentPage = null;
+            pages = null;
+        }
+    }
+
+    @Override
+    protected void processPage(PDPage page, COSStream content) throws IOException {
+        // the pages without content stream are skipped by the text stripper
+        addEmptyPages(getCurrentPageNo() - 1);
+        super.processPage(page, content);
+    }
+
+    @Override
+    protected void startPage(PDPage page) throws IOException {
+        super.startPage(page);
+        currentPage = newPage(page);
+        textLayer.addPage(currentPage);
+    }
+
+    @Override
+    protected void writeString(String text, List<TextPosition> textPositions) throws IOException {
+        super.writeString(text, textPositions);
+        if (currentPage == null) {
+            return;
+        }
+        // split the chunk into normalized tokens, keeping track of the glyphs of each token
+        StringBuilder token = new StringBuilder();
+        List<TextPosition> tokenPositions = new ArrayList<TextPosition>();
+        for (TextPosition position : textPositions) {
+            List<String> terms = TextLayer.tokenize(position.getCharacter());
+            if (terms.isEmpty()) {
+                addToken(tokenPositions, token);
+                token.setLength(0);
+                tokenPositions.clear();
+            } else {
+                for (String term : terms) {
+                    token.append(term);
+                }
+                tokenPositions.add(position);
+            }
+        }
+        addToken(tokenPositions, token);
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.viewer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+
+/**
+ * Unit tests for the {@link TextLayerExtractor}.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class TextLayerExtractorTest {
+
+    private static void addTextPage(PDDocument document, String text) throws IOException {
+        PDPage page = new PDPage(PDPage.PAGE_SIZE_A4);
+        document.addPage(page);
+        PDPageContentStream content = new PDPageContentStream(document, page);
+        content.beginText();
+        content.setFont(PDType1Font.HELVETICA, 12);
+        content.moveTextPositionByAmount(72, 720);
+        content.drawString(text);
+        content.endText();
+        content.close();
+    }
+
+    @Test
+    public void testPagesWithoutContent() throws IOException {
+        PDDocument document = new PDDocument();
+        try {
+            // pages without content stream
+            document.addPage(new PDPage(PDPage.PAGE_SIZE_LETTER));
+            addTextPage(document, "Hello world");
+            document.addPage(new PDPage(PDPage.PAGE_SIZE_LETTER));
+            addTextPage(document, "Goodbye");
+            document.addPage(new PDPage(PDPage.PAGE_SIZE_LETTER));
+
+            TextLayer textLayer = new TextLayerExtractor().extract(document);
+
+            assertEquals(5, textLayer.getPages().size());
+            assertTrue(textLayer.getPages().get(0).getTokens().isEmpty());
+            assertEquals(2, textLayer.getPages().get(1).getTokens().size());
+            assertEquals("hello", textLayer.getPages().get(1).getTokens().get(0).getText());
+            assertTrue(textLayer.getPages().get(2).getTokens().isEmpty());
+            assertEquals("goodbye", textLayer.getPages().get(3).getTokens().get(0).getText());
+            assertTrue(textLayer.getPages().get(4).getTokens().isEmpty());
+            assertEquals(612, textLayer.getPages().get(4).getWidth(), 0.5f);
+            assertEquals(792, textLayer.getPages().get(4).getHeight(), 0.5f);
+        } finally {
+            document.close();
+        }
+    }
+
+    @Test
+    public void testRotatedPage() throws IOException {
+        PDDocument document = new PDDocument();
+        try {
+            addTextPage(document, "Landscape");
+            ((PDPage) document.getDocumentCatalog().getAllPages().get(0)).setRotation(90);
+
+            TextLayer textLayer = new TextLayerExtractor().extract(document);
+
+            assertEquals(1, textLayer.getPages().size());
+            assertEquals(PDPage.PAGE_SIZE_A4.getHeight(), textLayer.getPages().get(0).getWidth(), 0.5f);
+            assertEquals(PDPage.PAGE_SIZE_A4.getWidth(), textLayer.getPages().get(0).getHeight(), 0.5f);
+        } finally {
+            document.close();
+        }
+    }
+}
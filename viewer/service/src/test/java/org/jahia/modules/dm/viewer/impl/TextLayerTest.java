@@ -0,0 +1,131 @@
+/**
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2016 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.dm.viewer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jahia.dm.viewer.DocumentSearchHit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the text layer search of the {@link TextLayer}.
+ * 
+ * @author Sergiy Shyrkov
+ */
+public class TextLayerTest {
+
+    private static TextLayer.Page page(String... words) {
+        TextLayer.Page page = new TextLayer.Page(612, 792);
+        for (int i = 0; i < words.length; i++) {
+            page.addToken(new TextLayer.Token(words[i], 0.1f * i, 0.5f, 0.1f, 0.02f));
+        }
+        return page;
+    }
+
+    private byte[] data;
+
+    private List<DocumentSearchHit> search(String text, int maxHits) throws IOException {
+        return TextLayer.search(new ByteArrayInputStream(data), text, maxHits);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        TextLayer layer = new TextLayer();
+        layer.addPage(page("the", "quick", "brown", "fox"));
+        layer.addPage(page("nothing", "here"));
+        layer.addPage(page("a", "brown", "dog", "and", "a", "quick", "brown", "fox"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        layer.write(out);
+        data = out.toByteArray();
+    }
+
+    @Test
+    public void testMaxHits() throws IOException {
+        List<DocumentSearchHit> hits = search("brown", 2);
+
+        assertEquals(2, hits.size());
+        assertEquals(1, hits.get(0).getPage());
+        assertEquals(3, hits.get(1).getPage());
+        assertEquals(0.1f, hits.get(1).getX(), 0.001f);
+    }
+
+    @Test
+    public void testMissingTerm() throws IOException {
+        assertTrue(search("quick cat", 10).isEmpty());
+        assertTrue(search("zebra", 10).isEmpty());
+        assertTrue(search("  ", 10).isEmpty());
+    }
+
+    @Test
+    public void testPhrase() throws IOException {
+        List<DocumentSearchHit> hits = search("Quick, Brown fox", 10);
+
+        assertEquals(2, hits.size());
+        assertEquals(1, hits.get(0).getPage());
+        assertEquals(0.1f, hits.get(0).getX(), 0.001f);
+        assertEquals(0.3f, hits.get(0).getWidth(), 0.001f);
+        assertEquals(0.5f, hits.get(0).getY(), 0.001f);
+        assertEquals(3, hits.get(1).getPage());
+        assertEquals(0.5f, hits.get(1).getX(), 0.001f);
+    }
+
+    @Test
+    public void testPhraseOrder() throws IOException {
+        assertTrue(search("fox brown", 10).isEmpty());
+        assertEquals(1, search("brown dog", 10).size());
+    }
+
+    @Test
+    public void testTokenize() {
+        assertEquals(Arrays.asList("creme", "brulee", "42"), TextLayer.tokenize("Crème-BRÛLÉE: 42!"));
+    }
+}
@@ -27,6 +27,51 @@
 	            	wmode: 'transparent'
 	            }, opts));
 			}
+			if (typeof $(this).attr('data-status-url') != 'undefined' && typeof $(this).data("docViewerPoll") == 'undefined') {
+				$(this).docViewerPoll(opts.SwfFile);
+			}
+		});
+	}
+
+	$.fn.docViewerPoll = function(swfFile) {
+		return this.each(function() {
+			var viewer = $(this);
+			var statusUrl = viewer.attr('data-status-url');
+			var pagesLoaded = -1;
+			var poll = function() {
+				$.getJSON(statusUrl, function(data) {
+					if (data.pagesReady > pagesLoaded && (pagesLoaded >= 0 || data.complete) && typeof viewer.data("docViewer") != 'undefined') {
+						viewer.data("docViewer").getApi().loadSwf(swfFile + (swfFile.indexOf('?') != -1 ? '&' : '?') + 'pages=' + data.pagesReady);
+					}
+					pagesLoaded = Math.max(pagesLoaded, data.pagesReady);
+					if (data.complete || data.failed) {
+						viewer.removeData("docViewerPoll");
+					} else {
+						viewer.data("docViewerPoll", setTimeout(poll, $.fn.docViewerPoll.interval));
+					}
+				});
+			};
+			viewer.data("docViewerPoll", setTimeout(poll, $.fn.docViewerPoll.interval));
+		});
+	}
+
+	$.fn.docViewerPoll.interval = 3000;
+
+	$.fn.docViewerSearch = function(text, callback) {
+		return this.each(function() {
+			var viewer = $(this);
+			var searchUrl = viewer.attr('data-search-url');
+			if (typeof searchUrl == 'undefined') {
+				return;
+			}
+			$.getJSON(searchUrl, {q : text}, function(data) {
+				if (data.hits.length > 0 && typeof viewer.data("docViewer") != 'undefined') {
+					viewer.data("docViewer").getApi().gotoPage(data.hits[0].page);
+				}
+				if (typeof callback == 'function') {
+					callback.call(viewer, data.hits);
+				}
+			});
 		});
 	}
 
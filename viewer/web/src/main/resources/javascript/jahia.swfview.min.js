@@ -1 +1 @@
-(function(A){A.fn.docViewer=function(B){var C=(typeof contextJsParameters!="undefined"&&typeof contextJsParameters.contextPath!="undefined"?contextJsParameters.contextPath:"")+"/modules/document-viewer/javascript/flexpaper/FlexPaperViewer.swf";var D=A.extend({},A.fn.docViewer.defaults,B);return this.each(function(){var E=D;if(typeof D.SwfFile=="undefined"&&typeof A(this).attr("rel")!="undefined"){swfFile=A(this).attr("rel");swfFile=swfFile.replace("'","%27");E=A.extend({},D,{SwfFile:swfFile})}if(typeof A(this).data("docViewer")!="undefined"){A(this).data("docViewer").getApi().loadSwf(E.SwfFile)}else{A(this).data("docViewer",flashembed(this,{src:C,version:[10,0],wmode:"transparent"},E))}})};A.fn.docViewer.defaults={Scale:0.6,ZoomTransition:"easeOut",ZoomTime:0.5,ZoomInterval:0.2,FitPageOnLoad:true,FitWidthOnLoad:false,FullScreenAsMaxWindow:false,ProgressiveLoading:false,MinZoomSize:0.2,MaxZoomSize:5,SearchMatchAll:false,InitViewMode:"Portrait",PrintPaperAsBitmap:false,ViewModeToolsVisible:true,ZoomToolsVisible:true,NavToolsVisible:true,CursorToolsVisible:true,SearchToolsVisible:true,localeChain:"en_US"}})(jQuery);
\ No newline at end of file
+(function(A){A.fn.docViewer=function(B){var C=(typeof contextJsParameters!="undefined"&&typeof contextJsParameters.contextPath!="undefined"?contextJsParameters.contextPath:"")+"/modules/document-viewer/javascript/flexpaper/FlexPaperViewer.swf";var D=A.extend({},A.fn.docViewer.defaults,B);return this.each(function(){var E=D;if(typeof D.SwfFile=="undefined"&&typeof A(this).attr("rel")!="undefined"){swfFile=A(this).attr("rel");swfFile=swfFile.replace("'","%27");E=A.extend({},D,{SwfFile:swfFile})}if(typeof A(this).data("docViewer")!="undefined"){A(this).data("docViewer").getApi().loadSwf(E.SwfFile)}else{A(this).data("docViewer",flashembed(this,{src:C,version:[10,0],wmode:"transparent"},E))}if(typeof A(this).attr("data-status-url")!="undefined"&&typeof A(this).data("docViewerPoll")=="undefined"){A(this).docViewerPoll(E.SwfFile)}})};A.fn.docViewerPoll=function(B){return this.each(function(){var C=A(this);var D=C.attr("data-status-url");var G=-1;var E=function(){A.getJSON(D,function(F){if(F.pagesReady>G&&(G>=0||F.complete)&&typeof C.data("docViewer")!="undefined"){C.data("docViewer").getApi().loadSwf(B+(B.indexOf("?")!=-1?"&":"?")+"pages="+F.pagesReady)}G=Math.max(G,F.pagesReady);if(F.complete||F.failed){C.removeData("docViewerPoll")}else{C.data("docViewerPoll",setTimeout(E,A.fn.docViewerPoll.interval))}})};C.data("docViewerPoll",setTimeout(E,A.fn.docViewerPoll.interval))})};A.fn.docViewerPoll.interval=3000;A.fn.docViewerSearch=function(B,C){return this.each(function(){var D=A(this);var E=D.attr("data-search-url");if(typeof E=="undefined"){return}A.getJSON(E,{q:B},function(F){if(F.hits.length>0&&typeof D.data("docViewer")!="undefined"){D.data("docViewer").getApi().gotoPage(F.hits[0].page)}if(typeof C=="function"){C.call(D,F.hits)}})})};A.fn.docViewer.defaults={Scale:0.6,ZoomTransition:"easeOut",ZoomTime:0.5,ZoomInterval:0.2,FitPageOnLoad:true,FitWidthOnLoad:false,FullScreenAsMaxWindow:false,ProgressiveLoading:false,MinZoomSize:0.2,MaxZoomSize:5,SearchMatchAll:false,InitViewMode:"Portrait",PrintPaperAsBitmap:false,ViewModeToolsVisible:true,ZoomToolsVisible:true,NavToolsVisible:true,CursorToolsVisible:true,SearchToolsVisible:true,localeChain:"en_US"}})(jQuery);
\ No newline at end of file
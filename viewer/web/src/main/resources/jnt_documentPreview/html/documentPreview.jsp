@@ -27,7 +27,12 @@
         <jcr:nodeProperty name="j:height" node="${currentNode}" var="height"/>
         <c:set var="w" value="${functions:default(width.string, '640')}"/><c:set var="w" value="${w == 0 ? '100%' : functions:stringConcatenation(w, 'px', '')}"/>
         <c:set var="h" value="${functions:default(height.string, '480')}"/><c:set var="h" value="${h == 0 ? '100%' : functions:stringConcatenation(h, 'px', '')}"/>
-        <a class="jahia-doc-viewer" rel="${swfUrl}" style="width:${w}; height:${h}; display:block"></a>
+        <c:url var="searchUrl" value="${url.base}${doc.path}.documentSearch.do"/>
+        <c:set var="viewComplete" value="${dm:isViewComplete(doc)}"/>
+        <c:if test="${!viewComplete}"><c:url var="statusUrl" value="${url.base}${doc.path}.documentViewStatus.do"/></c:if>
+        <c:set var="posterUrl" value="${dm:getPosterUrl(doc)}"/>
+        <c:if test="${not empty posterUrl}"><c:url var="posterUrl" value="${posterUrl}" context="/"/></c:if>
+        <a class="jahia-doc-viewer" rel="${swfUrl}" data-search-url="${searchUrl}"<c:if test="${!viewComplete}"> data-status-url="${statusUrl}"</c:if> style="width:${w}; height:${h}; display:block${not empty posterUrl ? functions:stringConcatenation('; background:#fff url(', posterUrl, ') no-repeat center top; background-size:contain') : ''}"><c:if test="${not empty posterUrl}"><img src="${posterUrl}" alt="" style="max-width:100%; max-height:100%; display:block; margin:0 auto"/></c:if></a>
         <template:addResources type="inlinejavascript">
             <script type="text/javascript">
             $(document).ready(function() {
@@ -12,7 +12,12 @@
 <c:if test="${!renderContext.editMode}">
     <c:url var="swfUrl" value="${dm:getViewUrl(currentNode, true)}" context="/"/>
     <c:if test="${not empty swfUrl}">
-        <a class="jahia-doc-viewer" rel="${swfUrl}" style="width:640px; height:480px; display:block"></a>
+        <c:url var="searchUrl" value="${url.base}${currentNode.path}.documentSearch.do"/>
+        <c:set var="viewComplete" value="${dm:isViewComplete(currentNode)}"/>
+        <c:if test="${!viewComplete}"><c:url var="statusUrl" value="${url.base}${currentNode.path}.documentViewStatus.do"/></c:if>
+        <c:set var="posterUrl" value="${dm:getPosterUrl(currentNode)}"/>
+        <c:if test="${not empty posterUrl}"><c:url var="posterUrl" value="${posterUrl}" context="/"/></c:if>
+        <a class="jahia-doc-viewer" rel="${swfUrl}" data-search-url="${searchUrl}"<c:if test="${!viewComplete}"> data-status-url="${statusUrl}"</c:if> style="width:640px; height:480px; display:block${not empty posterUrl ? functions:stringConcatenation('; background:#fff url(', posterUrl, ') no-repeat center top; background-size:contain') : ''}"><c:if test="${not empty posterUrl}"><img src="${posterUrl}" alt="" style="max-width:100%; max-height:100%; display:block; margin:0 auto"/></c:if></a>
         <template:addResources type="javascript" resources="jquery.min.js,flexpaper/flexpaper.min.js,jahia.swfview.min.js" />
         <template:addResources type="inlinejavascript">
             <script type="text/javascript">
@@ -22,4 +27,10 @@
             </script>
         </template:addResources>
     </c:if>
+    <c:if test="${empty swfUrl}">
+        <c:set var="thumbnailUrl" value="${dm:getThumbnailUrl(currentNode)}"/>
+        <c:if test="${not empty thumbnailUrl}">
+            <img src="<c:url value='${thumbnailUrl}' context='/'/>" alt="${fn:escapeXml(currentNode.name)}"/>
+        </c:if>
+    </c:if>
 </c:if>
\ No newline at end of file